@@ -0,0 +1,127 @@
+package apps;
+
+import net.datastructures.ConcurrentSpatialTreeMap;
+import net.datastructures.Coord;
+import net.datastructures.Entry;
+import net.datastructures.Sorted2DMap;
+import net.datastructures.SpatialTreeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures read throughput (gets and small box queries) with 1, 2, 4, ...
+ * reader threads while one writer inserts new keys at a steady rate.
+ * ConcurrentSpatialTreeMap is compared with a SpatialTreeMap whose every
+ * operation is synchronized on the map. Reads can only scale up to the
+ * number of cores of the machine.
+ * Usage: ConcurrentReadBenchmark [number of entries] [writes per second] [max readers]
+ */
+public class ConcurrentReadBenchmark {
+    private static final long RUN_MILLIS = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int WRITES = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int MAX_READERS = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(4, 2 * cores);
+        System.out.printf("%d cores, %d entries, %d writes/s%n", cores, N, WRITES);
+
+        for (int round = 0; round < 2; round++) {      // the first round warms up the JIT
+            for (int readers = 1; readers <= MAX_READERS; readers *= 2) {
+                run("concurrent  ", new ConcurrentSpatialTreeMap<Integer, Integer, Integer>(), N, WRITES, readers, round == 1);
+                run("synchronized", new SynchronizedMap(), N, WRITES, readers, round == 1);
+            }
+        }
+    }
+
+    private static void run(String name, Sorted2DMap<Integer, Integer, Integer> map, int n, int writes,
+                            int readers, boolean print) throws InterruptedException {
+        Random r = new Random(2230);
+        final List<Coord<Integer, Integer>> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Coord<Integer, Integer> k = new Coord<>(r.nextInt(1000000), r.nextInt(1000000));
+            keys.add(k);
+            map.put(k, i);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            Random wr = new Random(1);
+            long start = System.nanoTime();
+            while (!done.get()) {
+                // keep to the requested rate, catching up in small batches
+                long due = (System.nanoTime() - start) * writes / 1000000000L;
+                while (written.get() < due) {
+                    map.put(new Coord<>(wr.nextInt(1000000), wr.nextInt(1000000)), -1);
+                    written.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            final long seed = t;
+            threads.add(new Thread(() -> {
+                Random rr = new Random(seed);
+                long ops = 0, found = 0;
+                while (!done.get()) {
+                    Coord<Integer, Integer> k = keys.get(rr.nextInt(keys.size()));
+                    if (map.get(k) != null) found++;
+                    if (++ops % 16 == 0) {             // one box query per 16 gets
+                        int x = k.getX(), y = k.getY();
+                        for (Entry<Coord<Integer, Integer>, Integer> e : map.subMap(new Coord<>(x, y + 5000), new Coord<>(x + 5000, y)))
+                            found++;
+                        ops++;
+                    }
+                }
+                if (found < 0) System.out.println();   // keeps the reads from being optimized away
+                reads.addAndGet(ops);
+            }));
+        }
+        writer.start();
+        for (Thread t : threads) t.start();
+        Thread.sleep(RUN_MILLIS);
+        done.set(true);
+        writer.join();
+        for (Thread t : threads) t.join();
+
+        if (print)
+            System.out.printf("%s %2d readers: %10.0f reads/s (%8.0f per reader), %6.0f writes/s%n",
+                    name, readers, reads.get() * 1000.0 / RUN_MILLIS, reads.get() * 1000.0 / RUN_MILLIS / readers,
+                    written.get() * 1000.0 / RUN_MILLIS);
+    }
+
+    /** A SpatialTreeMap guarded by its own monitor, as a baseline. */
+    private static class SynchronizedMap implements Sorted2DMap<Integer, Integer, Integer> {
+        private final SpatialTreeMap<Integer, Integer, Integer> map = new SpatialTreeMap<>();
+
+        public synchronized int size() { return map.size(); }
+        public synchronized boolean isEmpty() { return map.isEmpty(); }
+        public synchronized Integer get(Coord<Integer, Integer> key) { return map.get(key); }
+        public synchronized Integer put(Coord<Integer, Integer> key, Integer value) { return map.put(key, value); }
+        public synchronized Integer remove(Coord<Integer, Integer> key) { return map.remove(key); }
+        public synchronized Iterable<Coord<Integer, Integer>> keySet() { return copy(map.keySet()); }
+        public synchronized Iterable<Integer> values() { return copy(map.values()); }
+        public synchronized Iterable<Entry<Coord<Integer, Integer>, Integer>> entrySet() { return copy(map.entrySet()); }
+        public synchronized Iterable<Entry<Coord<Integer, Integer>, Integer>> subMap(Coord<Integer, Integer> nwCorner,
+                                                                                    Coord<Integer, Integer> seCorner) {
+            return copy(map.subMap(nwCorner, seCorner));   // the iteration must also hold the lock
+        }
+
+        private static <T> List<T> copy(Iterable<T> items) {
+            List<T> list = new ArrayList<>();
+            for (T t : items) list.add(t);
+            return list;
+        }
+    }
+}
@@ -1,35 +1,174 @@
 package apps;
 
 import net.datastructures.Coord;
+import net.datastructures.DoubleSpatialTreeMap;
 import net.datastructures.Map;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
+/**
+ * Loads earthquake records into maps keyed by (longitude, latitude). Rows are
+ * parsed and inserted one at a time, so the whole file is never held in memory
+ * before the first put, and the input is always closed at the end.
+ */
 public class EarthquakeData {
-    public static void readDataIntoMap(Map<Coord<Double,Double>, CSVRecord> m) throws IOException {
-        for (CSVRecord rec : CSVFormat.DEFAULT.withHeader().parse(new InputStreamReader(new FileInputStream(new File("earthquakes.csv")))).getRecords()) {
-            String slat = rec.get("LATITUDE");
-            String slon = rec.get("LONGITUDE");
-            if (slat.isEmpty() || slon.isEmpty()) continue; // skip records with missing lat or lon
-            Double lat;
-            Double lon;
-            try { // sometimes it parse whitespace
-                lat = Double.parseDouble(slat);
-                lon = Double.parseDouble(slon);
-            } catch (NumberFormatException e) {
-                continue;
+    /** The catalogue read when no other source is given. */
+    public static final Path DEFAULT_FILE = Paths.get("earthquakes.csv");
+
+    /** How many rows are read between two calls of a Progress listener. */
+    public static final int PROGRESS_INTERVAL = 10000;
+
+    /** Receives the longitude, latitude and record of each usable row. */
+    private interface QuakeSink {
+        void accept(double lon, double lat, CSVRecord rec);
+    }
+
+    /** Listener told how a load is going, every PROGRESS_INTERVAL rows. */
+    public interface Progress {
+        void update(LoadReport soFar);
+    }
+
+    /** Counts of the rows seen by a load. */
+    public static class LoadReport {
+        private long loaded;                // rows passed to the map
+        private long missing;               // rows without a latitude or longitude
+        private long unparseable;           // rows whose latitude or longitude is not a number
+
+        public long getLoaded() { return loaded; }
+        public long getMissing() { return missing; }
+        public long getUnparseable() { return unparseable; }
+        public long getRows() { return loaded + missing + unparseable; }
+
+        @Override
+        public String toString() {
+            return getRows() + " rows: " + loaded + " loaded, " + missing + " missing lat/lon, "
+                    + unparseable + " unparseable lat/lon";
+        }
+    }
+
+    public static LoadReport readDataIntoMap(Map<Coord<Double,Double>, CSVRecord> m) throws IOException {
+        return readDataIntoMap(DEFAULT_FILE, m);
+    }
+
+    // keys stay primitive all the way into the map, so no Coord is built per row
+    public static LoadReport readDataIntoMap(DoubleSpatialTreeMap<CSVRecord> m) throws IOException {
+        return readDataIntoMap(DEFAULT_FILE, m);
+    }
+
+    public static LoadReport readDataIntoMap(Path file, Map<Coord<Double,Double>, CSVRecord> m) throws IOException {
+        return readDataIntoMap(open(file), m, null);
+    }
+
+    public static LoadReport readDataIntoMap(Path file, DoubleSpatialTreeMap<CSVRecord> m) throws IOException {
+        return readDataIntoMap(open(file), m, null);
+    }
+
+    /**
+     * Loads the records of a CSV catalogue with a header row into a map, and closes the reader.
+     * @param in        the catalogue
+     * @param m         the map receiving the records
+     * @param progress  a listener told how the load is going (or null)
+     * @return the counts of rows loaded and skipped
+     */
+    public static LoadReport readDataIntoMap(Reader in, Map<Coord<Double,Double>, CSVRecord> m,
+                                             Progress progress) throws IOException {
+        return readData(in, (lon, lat, rec) -> m.put(new Coord<>(lon, lat), rec), progress);
+    }
+
+    /**
+     * Loads the records of a CSV catalogue with a header row into a map, and closes the reader.
+     * @param in        the catalogue
+     * @param m         the map receiving the records
+     * @param progress  a listener told how the load is going (or null)
+     * @return the counts of rows loaded and skipped
+     */
+    public static LoadReport readDataIntoMap(Reader in, DoubleSpatialTreeMap<CSVRecord> m,
+                                             Progress progress) throws IOException {
+        return readData(in, m::put, progress);
+    }
+
+    /**
+     * Loads the records of a CSV catalogue into a column store, and maps the
+     * location of each record to its row in the table.
+     * @param file   the catalogue
+     * @param table  the table receiving the attributes of the records
+     * @param m      the map receiving the row numbers
+     * @return the counts of rows loaded and skipped
+     */
+    public static LoadReport readDataIntoTable(Path file, EarthquakeTable table,
+                                               Map<Coord<Double,Double>, Integer> m) throws IOException {
+        return readDataIntoTable(open(file), table, m, null);
+    }
+
+    /**
+     * Loads the records of a CSV catalogue into a column store, maps the location
+     * of each record to its row in the table, and closes the reader.
+     * @param in        the catalogue
+     * @param table     the table receiving the attributes of the records
+     * @param m         the map receiving the row numbers
+     * @param progress  a listener told how the load is going (or null)
+     * @return the counts of rows loaded and skipped
+     */
+    public static LoadReport readDataIntoTable(Reader in, EarthquakeTable table, Map<Coord<Double,Double>, Integer> m,
+                                               Progress progress) throws IOException {
+        return readData(in, (lon, lat, rec) -> m.put(new Coord<>(lon, lat), table.add(rec)), progress);
+    }
+
+    /** Opens a catalogue in the platform's default charset, as the loader always has. */
+    private static Reader open(Path file) throws IOException {
+        return new InputStreamReader(Files.newInputStream(file));
+    }
+
+    private static LoadReport readData(Reader in, QuakeSink sink, Progress progress) throws IOException {
+        LoadReport report = new LoadReport();
+        try (Reader input = in; CSVParser parser = CSVFormat.DEFAULT.withHeader().parse(input)) {
+            for (CSVRecord rec : parser) {                  // one record at a time
+                load(rec, sink, report);
+                if (progress != null && report.getRows() % PROGRESS_INTERVAL == 0)
+                    progress.update(report);
             }
-            m.put(new Coord<>(lon, lat), rec);
         }
+        return report;
+    }
+
+    /** Passes a record to the sink if it has a usable latitude and longitude, and counts it. */
+    private static void load(CSVRecord rec, QuakeSink sink, LoadReport report) {
+        String slat = rec.get("LATITUDE");
+        String slon = rec.get("LONGITUDE");
+        if (slat.isEmpty() || slon.isEmpty()) {
+            report.missing++;                               // skip records with missing lat or lon
+            return;
+        }
+        double lat;
+        double lon;
+        try { // sometimes it parse whitespace
+            lat = Double.parseDouble(slat);
+            lon = Double.parseDouble(slon);
+        } catch (NumberFormatException e) {
+            report.unparseable++;
+            return;
+        }
+        sink.accept(lon, lat, rec);
+        report.loaded++;
     }
 
     public static void reportQuake(CSVRecord r) {
         System.out.println("In the year "+r.get("YEAR") + ", " +
                 r.get("COUNTRY") + " had a magnitude " + r.get("EQ_PRIMARY") + " quake");
     }
+
+    public static void reportQuake(EarthquakeTable t, int row) {
+        double magnitude = t.magnitude(row);
+        System.out.println("In the year "+t.year(row) + ", " +
+                t.country(row) + " had a magnitude " + (Double.isNaN(magnitude) ? "" : BigDecimal.valueOf(magnitude).stripTrailingZeros().toPlainString()) + " quake");
+    }
 }
@@ -0,0 +1,79 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.Entry;
+import net.datastructures.GridSpatialMap;
+import net.datastructures.HilbertIndexMap;
+import net.datastructures.Sorted2DMap;
+import net.datastructures.SpatialTreeMap;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the quad tree with the static packed indexes and the grid on the earthquake data:
+ * average get latency over every key and average latency of box queries.
+ * Usage: EarthquakeIndexBenchmark [box size in degrees]
+ */
+public class EarthquakeIndexBenchmark {
+    public static void main(String[] args) throws IOException {
+        final double BOX = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+        SpatialTreeMap<Double, Double, CSVRecord> quakes = new SpatialTreeMap<>();
+        EarthquakeData.readDataIntoMap(quakes);
+        List<Coord<Double, Double>> keys = new ArrayList<>();
+        for (Entry<Coord<Double, Double>, CSVRecord> e : quakes.entrySet())
+            keys.add(e.getKey());
+
+        List<String> names = new ArrayList<>();
+        List<Sorted2DMap<Double, Double, CSVRecord>> maps = new ArrayList<>();
+        names.add("quad tree (file order)");
+        maps.add(quakes);
+        names.add("quad tree (bulk-loaded)");
+        maps.add(SpatialTreeMap.bulkLoad(quakes.entrySet()));
+        names.add("Morton index");
+        maps.add(quakes.freeze());
+        names.add("Hilbert index");
+        maps.add(new HilbertIndexMap<>(quakes.entrySet()));
+        GridSpatialMap<CSVRecord> grid = new GridSpatialMap<>(-180, 90, 180, -90, 1.0);
+        EarthquakeData.readDataIntoMap(grid);
+        names.add("grid 1 deg");
+        maps.add(grid);
+        GridSpatialMap<CSVRecord> adaptive = new GridSpatialMap<>(-180, 90, 180, -90, 1.0, 64);
+        EarthquakeData.readDataIntoMap(adaptive);
+        names.add("grid 1 deg (adaptive)");
+        maps.add(adaptive);
+
+        for (int round = 0; round < 5; round++)   // the first rounds warm up the JIT
+            for (int m = 0; m < maps.size(); m++)
+                report(names.get(m), maps.get(m), keys, BOX, round == 4);
+    }
+
+    private static void report(String name, Sorted2DMap<Double, Double, CSVRecord> map,
+                               List<Coord<Double, Double>> keys, double box, boolean print) {
+        long start = System.nanoTime();
+        long found = 0;
+        for (int pass = 0; pass < 20; pass++)
+            for (Coord<Double, Double> k : keys)
+                if (map.get(k) != null) found++;
+        double getNanos = (double) (System.nanoTime() - start) / (20L * keys.size());
+
+        Random r = new Random(2230);              // the same boxes for every map
+        final int QUERIES = 20000;
+        long hits = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) {
+            double lon = r.nextDouble() * (360 - box) - 180;
+            double lat = r.nextDouble() * (180 - box) - 90;
+            for (Entry<Coord<Double, Double>, CSVRecord> e : map.subMap(new Coord<>(lon, lat + box), new Coord<>(lon + box, lat)))
+                hits++;
+        }
+        double boxMicros = (System.nanoTime() - start) / (1000.0 * QUERIES);
+
+        if (print)
+            System.out.printf("%-24s get: %6.1f ns/op (%d found)  %.0fx%.0f box: %6.2f us/query (%d hits)%n",
+                    name, getNanos, found / 20, box, box, boxMicros, hits);
+    }
+}
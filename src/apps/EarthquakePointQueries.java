@@ -1,6 +1,10 @@
 package apps;
 
+import net.datastructures.BucketQuadTreeMap;
 import net.datastructures.Coord;
+import net.datastructures.Entry;
+import net.datastructures.HaversineDistance;
+import net.datastructures.KdTreeMap;
 import net.datastructures.SpatialTreeMap;
 import org.apache.commons.csv.CSVRecord;
 
@@ -10,21 +14,43 @@ import java.io.IOException;
 public class EarthquakePointQueries {
     public static void main(String[] args) throws IOException {
         //https://www.ngdc.noaa.gov/nndc/struts/form?t=101650&s=1&d=1
-        SpatialTreeMap<Double, Double, CSVRecord> quakes = new SpatialTreeMap<>();
-        EarthquakeData.readDataIntoMap(quakes);
+        // the map holds row numbers; the attributes of the quakes live in the table
+        EarthquakeTable table = new EarthquakeTable();
+        SpatialTreeMap<Double, Double, Integer> quakes = new SpatialTreeMap<>();
+        System.out.println(EarthquakeData.readDataIntoTable(EarthquakeData.DEFAULT_FILE, table, quakes));
+        table.trimToSize();
 
         //quake.dump();
         System.out.println("size: " + quakes.size());
         System.out.println("actual height: " + quakes.treeHeight());
         System.out.println("minimum possible height: " + Math.ceil(Math.log(quakes.size()) / Math.log(4)));
+        quakes = SpatialTreeMap.bulkLoad(quakes.entrySet());
+        System.out.println("bulk-loaded height: " + quakes.treeHeight());
+        BucketQuadTreeMap<CSVRecord> buckets = new BucketQuadTreeMap<>(-180, 90, 180, -90);
+        EarthquakeData.readDataIntoMap(buckets);
+        System.out.println("bucketed region tree height: " + buckets.treeHeight());
+        KdTreeMap<Double, Double, CSVRecord> kd = new KdTreeMap<>();
+        EarthquakeData.readDataIntoMap(kd);
+        System.out.println("k-d tree height: " + kd.treeHeight());
+        System.out.println("bulk-loaded k-d tree height: " + KdTreeMap.bulkLoad(kd.entrySet()).treeHeight());
 
         // one from near the top of file
-        CSVRecord rec = quakes.get(gpsCoord(31.5,35.3));
-        EarthquakeData.reportQuake(rec);
+        int rec = quakes.get(gpsCoord(31.5,35.3));
+        EarthquakeData.reportQuake(table, rec);
 
         // one from near the bottom of file
-        CSVRecord rec2 = quakes.get(gpsCoord(26.374,90.165));
-        EarthquakeData.reportQuake(rec2);
+        int rec2 = quakes.get(gpsCoord(26.374,90.165));
+        EarthquakeData.reportQuake(table, rec2);
+
+        // the 5 quakes closest to Tokyo
+        for (Entry<Coord<Double, Double>, Integer> e : quakes.nearest(gpsCoord(35.69, 139.69), 5, new HaversineDistance()))
+            EarthquakeData.reportQuake(table, e.getValue());
+
+        // an attribute filter over a region reads only the magnitude column
+        int strong = 0;
+        for (Entry<Coord<Double, Double>, Integer> e : quakes.subMap(gpsCoord(46, 128), gpsCoord(30, 146)))
+            if (table.magnitude(e.getValue()) >= 8) strong++;
+        System.out.println(strong + " quakes of magnitude 8 or more in and around Japan");
 
         // try some others!
     }
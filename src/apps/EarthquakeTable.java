@@ -0,0 +1,176 @@
+package apps;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A column store for the attributes of earthquakes, so that a spatial map can
+ * hold a small row number instead of a whole CSVRecord. Numeric columns are
+ * parsed once into primitive arrays and text columns are dictionary-encoded,
+ * each row storing the code of its string. The table keeps the id, date,
+ * focal depth, every magnitude (EQ_PRIMARY and the EQ_MAG_* scales),
+ * intensity, deaths, injuries, damage, country and location name; the other
+ * columns are dropped. A missing number reads as MISSING (for integers) or NaN.
+ */
+public class EarthquakeTable {
+    /** The value of an integer column for a row that has none. */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    /** The distinct strings of a text column, each with a code. */
+    private static class Dictionary {
+        private final HashMap<String, Integer> codes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int encode(String s) {
+            Integer code = codes.get(s);
+            if (code == null) {
+                code = strings.size();
+                codes.put(s, code);
+                strings.add(s);
+            }
+            return code;
+        }
+
+        String decode(int code) { return strings.get(code); }
+    }
+
+    private int rows = 0;
+    private int[] id = new int[16];
+    private int[] year = new int[16];
+    private int[] month = new int[16];
+    private int[] day = new int[16];
+    private double[] focalDepth = new double[16];
+    private double[] magnitude = new double[16];       // EQ_PRIMARY
+    private double[] magMw = new double[16];
+    private double[] magMs = new double[16];
+    private double[] magMb = new double[16];
+    private double[] magMl = new double[16];
+    private double[] magMfa = new double[16];
+    private double[] magUnk = new double[16];
+    private int[] intensity = new int[16];
+    private int[] deaths = new int[16];
+    private int[] injuries = new int[16];
+    private double[] damageMillions = new double[16];
+    private int[] country = new int[16];                // codes into countries
+    private int[] locationName = new int[16];           // codes into locationNames
+    private final Dictionary countries = new Dictionary();
+    private final Dictionary locationNames = new Dictionary();
+
+    /** Returns the number of rows in the table. */
+    public int size() { return rows; }
+
+    /**
+     * Appends the columns of a record to the table.
+     * @param rec  a row of earthquakes.csv
+     * @return the row number of the record in the table
+     */
+    public int add(CSVRecord rec) {
+        if (rows == id.length) grow();
+        int row = rows++;
+        id[row] = parseInt(rec.get("I_D"));
+        year[row] = parseInt(rec.get("YEAR"));
+        month[row] = parseInt(rec.get("MONTH"));
+        day[row] = parseInt(rec.get("DAY"));
+        focalDepth[row] = parseDouble(rec.get("FOCAL_DEPTH"));
+        magnitude[row] = parseDouble(rec.get("EQ_PRIMARY"));
+        magMw[row] = parseDouble(rec.get("EQ_MAG_MW"));
+        magMs[row] = parseDouble(rec.get("EQ_MAG_MS"));
+        magMb[row] = parseDouble(rec.get("EQ_MAG_MB"));
+        magMl[row] = parseDouble(rec.get("EQ_MAG_ML"));
+        magMfa[row] = parseDouble(rec.get("EQ_MAG_MFA"));
+        magUnk[row] = parseDouble(rec.get("EQ_MAG_UNK"));
+        intensity[row] = parseInt(rec.get("INTENSITY"));
+        deaths[row] = parseInt(rec.get("DEATHS"));
+        injuries[row] = parseInt(rec.get("INJURIES"));
+        damageMillions[row] = parseDouble(rec.get("DAMAGE_MILLIONS_DOLLARS"));
+        country[row] = countries.encode(rec.get("COUNTRY"));
+        locationName[row] = locationNames.encode(rec.get("LOCATION_NAME"));
+        return row;
+    }
+
+    /** Shrinks every column to the number of rows, once the table is fully loaded. */
+    public void trimToSize() {
+        resize(Math.max(1, rows));
+    }
+
+    /** Doubles the capacity of every column. */
+    private void grow() {
+        resize(2 * id.length);
+    }
+
+    private void resize(int n) {
+        id = Arrays.copyOf(id, n);
+        year = Arrays.copyOf(year, n);
+        month = Arrays.copyOf(month, n);
+        day = Arrays.copyOf(day, n);
+        focalDepth = Arrays.copyOf(focalDepth, n);
+        magnitude = Arrays.copyOf(magnitude, n);
+        magMw = Arrays.copyOf(magMw, n);
+        magMs = Arrays.copyOf(magMs, n);
+        magMb = Arrays.copyOf(magMb, n);
+        magMl = Arrays.copyOf(magMl, n);
+        magMfa = Arrays.copyOf(magMfa, n);
+        magUnk = Arrays.copyOf(magUnk, n);
+        intensity = Arrays.copyOf(intensity, n);
+        deaths = Arrays.copyOf(deaths, n);
+        injuries = Arrays.copyOf(injuries, n);
+        damageMillions = Arrays.copyOf(damageMillions, n);
+        country = Arrays.copyOf(country, n);
+        locationName = Arrays.copyOf(locationName, n);
+    }
+
+    private static int parseInt(String s) {
+        s = s.trim();                                   // some fields hold only whitespace
+        if (s.isEmpty()) return MISSING;
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return MISSING;
+        }
+    }
+
+    private static double parseDouble(String s) {
+        s = s.trim();
+        if (s.isEmpty()) return Double.NaN;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    public int id(int row) { return id[check(row)]; }
+    public int year(int row) { return year[check(row)]; }
+    public int month(int row) { return month[check(row)]; }
+    public int day(int row) { return day[check(row)]; }
+    public double focalDepth(int row) { return focalDepth[check(row)]; }
+    /** Returns the primary magnitude (EQ_PRIMARY) of a quake. */
+    public double magnitude(int row) { return magnitude[check(row)]; }
+    /** Returns the moment magnitude (EQ_MAG_MW) of a quake. */
+    public double magnitudeMw(int row) { return magMw[check(row)]; }
+    /** Returns the surface-wave magnitude (EQ_MAG_MS) of a quake. */
+    public double magnitudeMs(int row) { return magMs[check(row)]; }
+    /** Returns the body-wave magnitude (EQ_MAG_MB) of a quake. */
+    public double magnitudeMb(int row) { return magMb[check(row)]; }
+    /** Returns the local magnitude (EQ_MAG_ML) of a quake. */
+    public double magnitudeMl(int row) { return magMl[check(row)]; }
+    /** Returns the magnitude EQ_MAG_MFA of a quake (estimated from felt area). */
+    public double magnitudeMfa(int row) { return magMfa[check(row)]; }
+    /** Returns the magnitude of unknown scale (EQ_MAG_UNK) of a quake. */
+    public double magnitudeUnk(int row) { return magUnk[check(row)]; }
+    public int intensity(int row) { return intensity[check(row)]; }
+    public int deaths(int row) { return deaths[check(row)]; }
+    public int injuries(int row) { return injuries[check(row)]; }
+    public double damageMillions(int row) { return damageMillions[check(row)]; }
+    public String country(int row) { return countries.decode(country[check(row)]); }
+    public String locationName(int row) { return locationNames.decode(locationName[check(row)]); }
+
+    private int check(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("No row " + row);
+        return row;
+    }
+}
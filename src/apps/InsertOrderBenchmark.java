@@ -0,0 +1,68 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.SpatialTreeMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures put and get throughput of SpatialTreeMap when the same kind of keys
+ * arrive sorted, in random order, or grouped in clusters. Sorted keys turn the
+ * tree into a chain, so that case uses fewer entries.
+ * Usage: InsertOrderBenchmark [number of entries] [number of sorted entries]
+ */
+public class InsertOrderBenchmark {
+    public static void main(String[] args) {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int SORTED = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Random r = new Random(2230);
+
+        List<Coord<Integer, Integer>> sorted = new ArrayList<>();
+        for (int i = 0; i < SORTED; i++)
+            sorted.add(new Coord<>(i, i));             // monotone in both X and Y
+
+        List<Coord<Integer, Integer>> random = new ArrayList<>();
+        for (int i = 0; i < N; i++)
+            random.add(new Coord<>(r.nextInt(), r.nextInt()));
+
+        List<Coord<Integer, Integer>> clustered = new ArrayList<>();
+        int[][] centres = new int[20][2];
+        for (int[] c : centres) {
+            c[0] = r.nextInt(1000000);
+            c[1] = r.nextInt(1000000);
+        }
+        for (int i = 0; i < N; i++) {
+            int[] c = centres[r.nextInt(centres.length)];
+            clustered.add(new Coord<>(c[0] + (int) (r.nextGaussian() * 5000), c[1] + (int) (r.nextGaussian() * 5000)));
+        }
+
+        for (int round = 0; round < 3; round++) {       // the first rounds warm up the JIT
+            run("sorted   ", sorted, r, round == 2);
+            run("random   ", random, r, round == 2);
+            run("clustered", clustered, r, round == 2);
+        }
+    }
+
+    private static void run(String name, List<Coord<Integer, Integer>> keys, Random r, boolean print) {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < keys.size(); i++)
+            m.put(keys.get(i), i);
+        long putNanos = System.nanoTime() - start;
+
+        List<Coord<Integer, Integer>> lookups = new ArrayList<>(keys);
+        Collections.shuffle(lookups, r);
+        start = System.nanoTime();
+        long found = 0;
+        for (Coord<Integer, Integer> k : lookups)
+            if (m.get(k) != null) found++;
+        long getNanos = System.nanoTime() - start;
+
+        if (print)
+            System.out.printf("%s  entries: %7d  height: %6d  put: %,12.0f ops/s  get: %,12.0f ops/s%n",
+                    name, found, m.treeHeight(), keys.size() * 1e9 / putNanos, keys.size() * 1e9 / getNanos);
+    }
+}
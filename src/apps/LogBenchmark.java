@@ -0,0 +1,88 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.DurableSpatialTreeMap;
+import net.datastructures.SpatialTreeLog;
+import net.datastructures.SpatialTreeMap;
+import net.datastructures.SpatialTreeSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures put throughput on a DurableSpatialTreeMap under each Sync policy of
+ * its log, against a plain SpatialTreeMap, and the time to replay the log.
+ * Each put is timed, so the worst latency shows what a caller waits for when
+ * its put is the one that ends a group. The log lives in the temp directory,
+ * so the numbers depend on the disk behind it.
+ * Usage: LogBenchmark [number of puts] [number of puts under Sync.ALWAYS]
+ */
+public class LogBenchmark {
+    public static void main(String[] args) throws IOException {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int ALWAYS_N = args.length > 1 ? Integer.parseInt(args[1]) : 2000;   // one fsync per put
+        Path dir = Files.createTempDirectory("logbench");
+        Path snapshot = dir.resolve("map.sqts");
+        Path log = dir.resolve("map.sqtl");
+        try {
+            for (int round = 0; round < 2; round++) {      // the first round warms up the JIT
+                boolean print = round == 1;
+                run("in memory only", new SpatialTreeMap<>(), N, print);
+                run("log, NONE, group 256", open(snapshot, log, SpatialTreeLog.Sync.NONE, 256), N, print);
+                for (int group : new int[] { 16, 256, 4096 }) {
+                    Files.deleteIfExists(log);
+                    run("log, GROUP, group " + group, open(snapshot, log, SpatialTreeLog.Sync.GROUP, group), N, print);
+                }
+                Files.deleteIfExists(log);
+                run("log, ALWAYS", open(snapshot, log, SpatialTreeLog.Sync.ALWAYS, 1), ALWAYS_N, print);
+                Files.deleteIfExists(log);
+            }
+
+            try (DurableSpatialTreeMap<Double, Double, Integer> m = open(snapshot, log, SpatialTreeLog.Sync.NONE, 4096)) {
+                fill(m, N);
+            }
+            long start = System.nanoTime();
+            DurableSpatialTreeMap<Double, Double, Integer> m = open(snapshot, log, SpatialTreeLog.Sync.NONE, 4096);
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("replaying %d logged puts (%d bytes): %.0f ms%n", m.replayed(), Files.size(log), millis);
+            m.close();
+        } finally {
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+
+    private static DurableSpatialTreeMap<Double, Double, Integer> open(Path snapshot, Path log, SpatialTreeLog.Sync sync,
+                                                                      int groupSize) throws IOException {
+        return new DurableSpatialTreeMap<>(snapshot, log, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE,
+                SpatialTreeSnapshot.INTEGER, sync, groupSize);
+    }
+
+    /** Puts n random points into the map, returning the worst latency of one put in nanoseconds. */
+    private static long fill(SpatialTreeMap<Double, Double, Integer> map, int n) {
+        Random r = new Random(2230);
+        long worst = 0;
+        for (int i = 0; i < n; i++) {
+            Coord<Double, Double> key = new Coord<>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90);
+            long start = System.nanoTime();
+            map.put(key, i);
+            worst = Math.max(worst, System.nanoTime() - start);
+        }
+        return worst;
+    }
+
+    private static void run(String name, SpatialTreeMap<Double, Double, Integer> map, int n, boolean print)
+            throws IOException {
+        long start = System.nanoTime();
+        long worst = fill(map, n);
+        if (map instanceof DurableSpatialTreeMap)
+            ((DurableSpatialTreeMap<Double, Double, Integer>) map).close();   // commits the last group
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print)
+            System.out.printf("%-22s %7d puts: %9.0f puts/s, mean %7.2f us, worst %8.2f ms%n",
+                    name, n, n / seconds, seconds * 1e6 / n, worst / 1e6);
+    }
+}
@@ -0,0 +1,283 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.Entry;
+import net.datastructures.SpatialTreeMap;
+import net.datastructures.TreeMap;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A benchmark suite for SpatialTreeMap (put, get hit, get miss, entrySet
+ * iteration, range queries) and TreeMap (put, get, subMap), over several sizes
+ * and key distributions: uniform, Gaussian clusters, sorted (monotone in X and
+ * Y) and the coordinates of earthquakes.csv.
+ *
+ * Each benchmark runs in the manner of JMH: warmup iterations, then measured
+ * iterations of a fixed duration, each calling the operation as often as it
+ * can. The clock is read once per batch of calls, the batch being large enough
+ * (up to MAX_BATCH calls) that reading the clock costs little next to it; times
+ * are divided by the operations in the batch. It reports the mean time per
+ * operation with its standard deviation across iterations, the bytes allocated
+ * per operation and the allocation rate (as read from the JVM's per-thread
+ * allocation counter, like the JMH GC profiler's gc.alloc.rate.norm and
+ * gc.alloc.rate), and the number of collections during measurement. Results of
+ * every operation feed a sink so the JIT cannot drop them.
+ *
+ * Sorted keys turn both trees into chains, so that distribution is capped at
+ * SORTED_LIMIT entries (TreeMap searches such a chain by recursion, one stack
+ * frame per entry); the earthquake distribution always has every located
+ * quake (about 4000). Sizes up to 10M need a larger heap, e.g. -Xmx8g.
+ * Usage: MapBenchmarks [sizes, e.g. 1000,100000]
+ *                      [distributions, e.g. uniform,quakes] [benchmark name filter]
+ */
+public class MapBenchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200_000_000L;
+    private static final long BATCH_NANOS = 100_000L;    // the least time between two clock reads
+    private static final int MAX_BATCH = 1024;
+    private static final int SORTED_LIMIT = 5000;
+    private static final int RANGE_HITS = 64;          // expected entries per range query on uniform keys
+    private static final int QUERIES = 4096;           // distinct range query boxes
+
+    private static final String[] ALL_DISTRIBUTIONS = { "uniform", "clusters", "sorted", "quakes" };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;                          // consumes every result
+
+    /** One call of a benchmarked operation, returning how many operations it performed. */
+    private interface Operation {
+        long run();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length > 0 ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+                                      : new int[] { 1000, 100000, 1000000 };
+        String[] distributions = args.length > 1 ? args[1].split(",") : ALL_DISTRIBUTIONS;
+        String filter = args.length > 2 ? args[2] : "";
+        if (!THREADS.isThreadAllocatedMemorySupported())
+            System.out.println("this JVM does not count allocated bytes; B/op and MB/s are not measured");
+        else
+            THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.printf("%-24s %-9s %9s %12s %10s %12s %10s %4s%n",
+                "benchmark", "keys", "n", "ns/op", "+- sd", "B/op", "MB/s", "gcs");
+        for (String distribution : distributions) {
+            List<Integer> done = new ArrayList<>();
+            for (int size : sizes) {
+                List<Coord<Double, Double>> keys = keys(distribution, size);
+                if (done.contains(keys.size())) continue;       // quakes and sorted ignore larger sizes
+                done.add(keys.size());
+                runAll(distribution, keys, filter);
+            }
+        }
+        if (sink == 42) System.out.println();            // keeps the sink alive
+    }
+
+    /** Returns the keys of a distribution, in the order they are inserted. */
+    private static List<Coord<Double, Double>> keys(String distribution, int n) throws IOException {
+        Random r = new Random(2230);
+        List<Coord<Double, Double>> keys = new ArrayList<>();
+        switch (distribution) {
+            case "uniform":
+                for (int i = 0; i < n; i++)
+                    keys.add(new Coord<>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90));
+                break;
+            case "clusters":
+                double[][] centres = new double[20][2];
+                for (double[] c : centres) {
+                    c[0] = r.nextDouble() * 360 - 180;
+                    c[1] = r.nextDouble() * 180 - 90;
+                }
+                for (int i = 0; i < n; i++) {
+                    double[] c = centres[r.nextInt(centres.length)];
+                    keys.add(new Coord<>(c[0] + r.nextGaussian() * 2, c[1] + r.nextGaussian() * 2));
+                }
+                break;
+            case "sorted":
+                n = Math.min(n, SORTED_LIMIT);
+                for (int i = 0; i < n; i++)
+                    keys.add(new Coord<>(360.0 * i / n - 180, 180.0 * i / n - 90));
+                break;
+            case "quakes":
+                SpatialTreeMap<Double, Double, CSVRecord> quakes = new SpatialTreeMap<>();
+                EarthquakeData.readDataIntoMap(quakes);
+                for (Entry<Coord<Double, Double>, CSVRecord> e : quakes.entrySet())
+                    keys.add(e.getKey());
+                Collections.shuffle(keys, r);              // the tree's preorder is not an arrival order
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution
+                        + "; expected one of " + Arrays.toString(ALL_DISTRIBUTIONS));
+        }
+        return keys;
+    }
+
+    private static void runAll(String distribution, List<Coord<Double, Double>> keys, String filter) {
+        int n = keys.size();
+        Random r = new Random(2230);
+        SpatialTreeMap<Double, Double, Integer> spatial = new SpatialTreeMap<>();
+        TreeMap<Double, Integer> tree = new TreeMap<>();
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Coord<Double, Double> k = keys.get(i);
+            spatial.put(k, i);
+            tree.put(k.getX(), i);
+            minX = Math.min(minX, k.getX());
+            maxX = Math.max(maxX, k.getX());
+            minY = Math.min(minY, k.getY());
+            maxY = Math.max(maxY, k.getY());
+        }
+
+        List<Coord<Double, Double>> hits = new ArrayList<>(keys);
+        Collections.shuffle(hits, r);
+        List<Coord<Double, Double>> misses = new ArrayList<>(n);
+        for (Coord<Double, Double> k : hits)               // next to a key, so on a realistic path
+            misses.add(new Coord<>(Math.nextUp(k.getX()), k.getY()));
+
+        // boxes around random keys, sized to hold about RANGE_HITS uniform keys
+        double fraction = Math.min(1, Math.sqrt((double) RANGE_HITS / n));
+        double w = (maxX - minX) * fraction, h = (maxY - minY) * fraction;
+        List<Coord<Double, Double>> corners = new ArrayList<>(2 * QUERIES);
+        double[] from = new double[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            Coord<Double, Double> c = hits.get(r.nextInt(n));
+            corners.add(new Coord<>(c.getX() - w / 2, c.getY() + h / 2));
+            corners.add(new Coord<>(c.getX() + w / 2, c.getY() - h / 2));
+            from[q] = c.getX();
+        }
+        double span = (maxX - minX) * Math.min(1, (double) RANGE_HITS / n);
+
+        int[] cursor = new int[1];
+        measure("SpatialTreeMap.put", distribution, n, filter, () -> {
+            SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+            for (int i = 0; i < n; i++)
+                m.put(keys.get(i), i);
+            sink += m.size();
+            return n;
+        });
+        measure("SpatialTreeMap.getHit", distribution, n, filter, () -> {
+            Integer v = spatial.get(hits.get(cursor[0]++ % n));
+            sink += v;
+            return 1;
+        });
+        measure("SpatialTreeMap.getMiss", distribution, n, filter, () -> {
+            if (spatial.get(misses.get(cursor[0]++ % n)) == null) sink++;
+            return 1;
+        });
+        measure("SpatialTreeMap.entrySet", distribution, n, filter, () -> {
+            for (Entry<Coord<Double, Double>, Integer> e : spatial.entrySet())
+                sink += e.getValue();
+            return n;
+        });
+        measure("SpatialTreeMap.subMap", distribution, n, filter, () -> {
+            int q = cursor[0]++ % QUERIES;
+            for (Entry<Coord<Double, Double>, Integer> e : spatial.subMap(corners.get(2 * q), corners.get(2 * q + 1)))
+                sink += e.getValue();
+            return 1;
+        });
+        measure("TreeMap.put", distribution, n, filter, () -> {
+            TreeMap<Double, Integer> m = new TreeMap<>();
+            for (int i = 0; i < n; i++)
+                m.put(keys.get(i).getX(), i);
+            sink += m.size();
+            return n;
+        });
+        measure("TreeMap.get", distribution, n, filter, () -> {
+            Integer v = tree.get(hits.get(cursor[0]++ % n).getX());
+            sink += v;
+            return 1;
+        });
+        measure("TreeMap.subMap", distribution, n, filter, () -> {
+            int q = cursor[0]++ % QUERIES;
+            for (Entry<Double, Integer> e : tree.subMap(from[q], from[q] + span))
+                sink += e.getValue();
+            return 1;
+        });
+    }
+
+    /** Runs the warmup and measured iterations of one benchmark, and prints a line of results. */
+    private static void measure(String name, String distribution, int n, String filter, Operation op) {
+        if (!name.contains(filter)) return;
+        int batch = batchSize(op);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            iterate(op, batch, null);
+        double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+        long ops = 0, nanos = 0, bytes = 0, gcs = gcCount();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long[] result = new long[3];
+            iterate(op, batch, result);
+            nanosPerOp[i] = (double) result[1] / result[0];
+            ops += result[0];
+            nanos += result[1];
+            bytes += result[2];
+        }
+        gcs = gcCount() - gcs;
+        double mean = Arrays.stream(nanosPerOp).average().orElse(0);
+        double sd = Math.sqrt(Arrays.stream(nanosPerOp).map(t -> (t - mean) * (t - mean)).sum()
+                / Math.max(1, MEASURED_ITERATIONS - 1));
+        System.out.printf("%-24s %-9s %9d %12.1f %10.1f %12.1f %10.1f %4d%n", name, distribution, n, mean, sd,
+                (double) bytes / ops, bytes / (nanos / 1e9) / (1 << 20), gcs);
+    }
+
+    /**
+     * Returns the number of calls of the operation to make between two clock
+     * reads: doubled from 1 until a batch takes BATCH_NANOS, or MAX_BATCH.
+     */
+    private static int batchSize(Operation op) {
+        int batch = 1;
+        while (batch < MAX_BATCH) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++)
+                op.run();
+            if (System.nanoTime() - start >= BATCH_NANOS) break;
+            batch *= 2;
+        }
+        return batch;
+    }
+
+    /**
+     * Calls the operation, a batch at a time, until an iteration's time is up.
+     * If result is not null, stores the operations done, the nanoseconds taken
+     * and the bytes allocated.
+     */
+    private static void iterate(Operation op, int batch, long[] result) {
+        long thread = Thread.currentThread().getId();
+        long allocated = allocatedBytes(thread);
+        long start = System.nanoTime();
+        long ops = 0;
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++)
+                ops += op.run();
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        if (result != null) {
+            result[0] = ops;
+            result[1] = elapsed;
+            result[2] = allocatedBytes(thread) - allocated;
+        }
+    }
+
+    private static long allocatedBytes(long thread) {
+        return THREADS.isThreadAllocatedMemorySupported() ? THREADS.getThreadAllocatedBytes(thread) : 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.DefaultComparator;
+import net.datastructures.Entry;
+import net.datastructures.SpatialTreeMap;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the build time of SpatialTreeMap by repeated put, by bulkLoad, and
+ * by parallelBulkLoad on fork/join pools of 1, 2, 4, ... threads, for random
+ * points and for the earthquake data. Threads beyond the number of cores of
+ * the machine cannot speed anything up. A run with 10M points needs a heap
+ * of several gigabytes (-Xmx).
+ * Usage: ParallelBuildBenchmark [number of random points] [max threads]
+ */
+public class ParallelBuildBenchmark {
+    public static void main(String[] args) throws IOException {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int MAX_THREADS = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+
+        Random r = new Random(2230);
+        List<Entry<Coord<Double, Double>, Integer>> random = new ArrayList<>(N);
+        for (int i = 0; i < N; i++)
+            random.add(new Point<>(new Coord<>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90), i));
+
+        SpatialTreeMap<Double, Double, CSVRecord> quakes = new SpatialTreeMap<>();
+        EarthquakeData.readDataIntoMap(quakes);
+        List<Entry<Coord<Double, Double>, CSVRecord>> quakeList = new ArrayList<>();
+        for (Entry<Coord<Double, Double>, CSVRecord> e : quakes.entrySet())
+            quakeList.add(e);
+
+        for (int round = 0; round < 2; round++) {      // the first round warms up the JIT
+            run(N + " random points", random, MAX_THREADS, round == 1);
+            run(quakeList.size() + " earthquakes", quakeList, MAX_THREADS, round == 1);
+        }
+    }
+
+    private static <V> void run(String name, List<Entry<Coord<Double, Double>, V>> entries, int maxThreads,
+                                boolean print) {
+        long start = System.nanoTime();
+        SpatialTreeMap<Double, Double, V> m = new SpatialTreeMap<>();
+        for (Entry<Coord<Double, Double>, V> e : entries)
+            m.put(e.getKey(), e.getValue());
+        double putMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        SpatialTreeMap<Double, Double, V> b = SpatialTreeMap.bulkLoad(entries);
+        double bulkMillis = (System.nanoTime() - start) / 1e6;
+        if (print) {
+            System.out.printf("%s: put %.0f ms (height %d), bulkLoad %.0f ms (height %d)%n",
+                    name, putMillis, m.treeHeight(), bulkMillis, b.treeHeight());
+        }
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.nanoTime();
+            SpatialTreeMap<Double, Double, V> p = SpatialTreeMap.parallelBulkLoad(entries,
+                    new DefaultComparator<Double>(), new DefaultComparator<Double>(), pool);
+            double millis = (System.nanoTime() - start) / 1e6;
+            pool.shutdown();
+            if (print)
+                System.out.printf("  parallelBulkLoad %2d threads: %6.0f ms (%.2fx bulkLoad, %d entries)%n",
+                        threads, millis, bulkMillis / millis, p.size());
+        }
+    }
+
+    /** An entry of the random data set. */
+    private static class Point<V> implements Entry<Coord<Double, Double>, V> {
+        private final Coord<Double, Double> key;
+        private final V value;
+        Point(Coord<Double, Double> key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+        public Coord<Double, Double> getKey() { return key; }
+        public V getValue() { return value; }
+    }
+}
@@ -0,0 +1,90 @@
+package apps;
+
+import net.datastructures.ArrayQuadTree;
+import net.datastructures.Coord;
+import net.datastructures.DefaultComparator;
+import net.datastructures.Entry;
+import net.datastructures.LinkedQuadTree;
+import net.datastructures.MortonIndexMap;
+import net.datastructures.MutableQuadTree;
+import net.datastructures.SpatialTreeMap;
+
+import java.util.Random;
+
+/**
+ * Compares the linked and array-based node storage engines of SpatialTreeMap,
+ * and the frozen MortonIndexMap: retained heap per entry and average get latency.
+ * Usage: QuadTreeStorageBenchmark [number of entries]
+ */
+public class QuadTreeStorageBenchmark {
+    public static void main(String[] args) {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Random r = new Random(2230);
+        double[] xs = new double[N];
+        double[] ys = new double[N];
+        for (int i = 0; i < N; i++) {
+            xs[i] = r.nextDouble() * 360 - 180;
+            ys[i] = r.nextDouble() * 180 - 90;
+        }
+        // the keys are shared by both maps, so only the storage itself is measured
+        @SuppressWarnings("unchecked")
+        Coord<Double, Double>[] keys = (Coord<Double, Double>[]) new Coord<?, ?>[N];
+        for (int i = 0; i < N; i++)
+            keys[i] = new Coord<>(xs[i], ys[i]);
+
+        for (int round = 0; round < 3; round++) {  // the first rounds warm up the JIT
+            report("linked", keys, new LinkedQuadTree<Entry<Coord<Double, Double>, Integer>>(), round == 2);
+            report("array ", keys, new ArrayQuadTree<Entry<Coord<Double, Double>, Integer>>(), round == 2);
+            reportFrozen(keys, round == 2);
+        }
+    }
+
+    private static void report(String name, Coord<Double, Double>[] keys,
+                               MutableQuadTree<Entry<Coord<Double, Double>, Integer>> storage, boolean print) {
+        long before = usedHeap();
+        SpatialTreeMap<Double, Double, Integer> m =
+                new SpatialTreeMap<>(new DefaultComparator<Double>(), new DefaultComparator<Double>(), storage);
+        for (int i = 0; i < keys.length; i++)
+            m.put(keys[i], i);
+        long bytes = usedHeap() - before;
+
+        long start = System.nanoTime();
+        long found = 0;
+        for (int pass = 0; pass < 5; pass++)
+            for (Coord<Double, Double> k : keys)
+                if (m.get(k) != null) found++;
+        long nanos = System.nanoTime() - start;
+
+        if (print)
+            System.out.printf("%s  entries: %d  heap bytes/entry: %d  get: %.1f ns/op  height: %d%n",
+                    name, found / 5, bytes / keys.length, (double) nanos / (5L * keys.length), m.treeHeight());
+    }
+
+    private static void reportFrozen(Coord<Double, Double>[] keys, boolean print) {
+        SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+        for (int i = 0; i < keys.length; i++)
+            m.put(keys[i], i);
+        long before = usedHeap();
+        MortonIndexMap<Double, Double, Integer> frozen = m.freeze();
+        long bytes = usedHeap() - before;       // the tree is still reachable, so only the copy counts
+        if (frozen.size() != m.size())
+            throw new IllegalStateException("frozen copy lost entries");
+
+        long start = System.nanoTime();
+        long found = 0;
+        for (int pass = 0; pass < 5; pass++)
+            for (Coord<Double, Double> k : keys)
+                if (frozen.get(k) != null) found++;
+        long nanos = System.nanoTime() - start;
+
+        if (print)
+            System.out.printf("frozen  entries: %d  heap bytes/entry: %d  get: %.1f ns/op%n",
+                    found / 5, bytes / keys.length, (double) nanos / (5L * keys.length));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -38,5 +38,6 @@ public class RandomDataPointQueries {
         System.out.println("size: " + m.size() + ", expected: " + N);
         System.out.println("actual height: " + m.treeHeight());
         System.out.println("minimum possible height: " + Math.ceil(Math.log(m.size()) / Math.log(4)));
+        System.out.println("bulk-loaded height: " + SpatialTreeMap.bulkLoad(m.entrySet()).treeHeight());
     }
 }
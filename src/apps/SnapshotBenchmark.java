@@ -0,0 +1,88 @@
+package apps;
+
+import net.datastructures.Coord;
+import net.datastructures.MappedSpatialIndex;
+import net.datastructures.SpatialTreeMap;
+import net.datastructures.SpatialTreeSnapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares two ways to get a ready quad tree at startup: parsing the CSV and
+ * inserting each quake with put, restoring a binary snapshot of the tree, or
+ * mapping a read-only index file and answering a first lookup from it.
+ * The first round is what a fresh JVM sees; later rounds are warmed up.
+ * The same comparison is made for a large synthetic map, rebuilt by put.
+ * Usage: SnapshotBenchmark [number of random points]
+ */
+public class SnapshotBenchmark {
+    public static void main(String[] args) throws IOException {
+        final int N = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path file = Files.createTempFile("quakes", ".sqts");
+        Path indexFile = Files.createTempFile("quakes", ".sqtm");
+        try {
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                EarthquakeTable table = new EarthquakeTable();
+                SpatialTreeMap<Double, Double, Integer> quakes = new SpatialTreeMap<>();
+                EarthquakeData.readDataIntoTable(EarthquakeData.DEFAULT_FILE, table, quakes);
+                double csvMillis = (System.nanoTime() - start) / 1e6;
+
+                double[] times = saveAndRestore(quakes, file);
+                double mapMillis = writeAndMap(quakes, indexFile);
+                System.out.printf("round %d, %d quakes: CSV + put %6.1f ms, snapshot write %5.1f ms, restore %5.1f ms (%d bytes), map + get %5.2f ms (%d bytes)%n",
+                        round, quakes.size(), csvMillis, times[0], times[1], Files.size(file), mapMillis, Files.size(indexFile));
+            }
+
+            Random r = new Random(2230);
+            long start = System.nanoTime();
+            SpatialTreeMap<Double, Double, Integer> big = new SpatialTreeMap<>();
+            for (int i = 0; i < N; i++)
+                big.put(new Coord<>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90), i);
+            double putMillis = (System.nanoTime() - start) / 1e6;
+            double[] times = saveAndRestore(big, file);
+            double mapMillis = writeAndMap(big, indexFile);
+            System.out.printf("%d random points: put %.0f ms, snapshot write %.0f ms, restore %.0f ms (%d bytes), map + get %.2f ms (%d bytes)%n",
+                    N, putMillis, times[0], times[1], Files.size(file), mapMillis, Files.size(indexFile));
+        } finally {
+            Files.delete(file);
+            Files.delete(indexFile);
+        }
+    }
+
+    /** Saves the map to the file and restores it, returning both times in milliseconds. */
+    private static double[] saveAndRestore(SpatialTreeMap<Double, Double, Integer> map, Path file) throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            SpatialTreeSnapshot.write(map, out, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE,
+                                      SpatialTreeSnapshot.INTEGER);
+        }
+        double writeMillis = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        SpatialTreeMap<Double, Double, Integer> copy;
+        try (InputStream in = Files.newInputStream(file)) {
+            copy = SpatialTreeSnapshot.read(in, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE,
+                                            SpatialTreeSnapshot.INTEGER);
+        }
+        double readMillis = (System.nanoTime() - start) / 1e6;
+        if (copy.size() != map.size()) throw new IllegalStateException("restore lost entries");
+        return new double[] { writeMillis, readMillis };
+    }
+
+    /** Writes the map as a mapped index, then returns the time to open it and look up its root key. */
+    private static double writeAndMap(SpatialTreeMap<Double, Double, Integer> map, Path file) throws IOException {
+        MappedSpatialIndex.write(map, file);
+        Coord<Double, Double> first = map.entrySet().iterator().next().getKey();
+        long start = System.nanoTime();
+        MappedSpatialIndex index = MappedSpatialIndex.open(file);
+        Integer found = index.get(first);
+        double millis = (System.nanoTime() - start) / 1e6;
+        if (found == null || index.size() != map.size()) throw new IllegalStateException("index lost entries");
+        return millis;
+    }
+}
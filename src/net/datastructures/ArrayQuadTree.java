@@ -0,0 +1,453 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * Concrete implementation of a quad tree whose nodes are stored in parallel
+ * arrays rather than as separate objects.
+ *
+ * Node i keeps its element in elements[i] and the indices of its parent and
+ * children in parent[i], nw[i], ne[i], sw[i] and se[i] (NONE if absent). The
+ * Positions handed out are small wrappers around an index, created on demand.
+ * The slots of removed nodes are kept on a free list and reused by later
+ * insertions; each slot has a generation, bumped when its node is removed, so
+ * a Position of the old node never stands for the node that reuses the slot.
+ */
+public class ArrayQuadTree<E> extends AbstractQuadTree<E> implements MutableQuadTree<E> {
+  /** Index used for a missing parent or child. */
+  protected static final int NONE = -1;
+
+  /** Default number of nodes the arrays can hold before growing. */
+  public static final int CAPACITY = 16;
+
+  //---------------- nested Slot class ----------------
+  /** A Position identifying a node of this tree by its index. */
+  protected class Slot implements Position<E> {
+    private final int index;
+    private final int generation;                 // of the slot when this node held it
+
+    Slot(int index) {
+      this.index = index;
+      this.generation = generations[index];
+    }
+
+    /** Returns true if the node of this position has been removed. */
+    boolean defunct() { return generations[index] != generation; }
+
+    @Override
+    public E getElement() throws IllegalStateException {
+      if (defunct())
+        throw new IllegalStateException("Position is no longer in the tree");
+      return element(index);
+    }
+
+    ArrayQuadTree<E> tree() { return ArrayQuadTree.this; }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ArrayQuadTree.Slot && ((ArrayQuadTree<?>.Slot) o).tree() == tree()
+              && ((ArrayQuadTree<?>.Slot) o).index == index
+              && ((ArrayQuadTree<?>.Slot) o).generation == generation;
+    }
+
+    @Override
+    public int hashCode() { return 31 * index + generation; }
+  } //----------- end of nested Slot class -----------
+
+  // ArrayQuadTree instance variables
+  private Object[] elements;
+  private int[] parent;
+  private int[] nw;
+  private int[] ne;
+  private int[] sw;
+  private int[] se;
+  private int[] generations;                      // bumped each time a slot's node is removed
+
+  /** The index of the root (or NONE if the tree is empty). */
+  protected int root = NONE;
+
+  /** The number of nodes in the tree. */
+  private int size = 0;
+
+  /** The number of slots ever used; slots at or above it have never held a node. */
+  private int used = 0;
+
+  /** The first slot of the free list, chained through nw (or NONE if empty). */
+  private int free = NONE;
+
+  /** Constructs an empty tree with the default capacity. */
+  public ArrayQuadTree() { this(CAPACITY); }
+
+  /**
+   * Constructs an empty tree whose arrays initially hold the given number of nodes.
+   * @param capacity  initial number of nodes (the arrays grow as needed)
+   */
+  public ArrayQuadTree(int capacity) {
+    capacity = Math.max(capacity, 1);
+    elements = new Object[capacity];
+    parent = new int[capacity];
+    nw = new int[capacity];
+    ne = new int[capacity];
+    sw = new int[capacity];
+    se = new int[capacity];
+    generations = new int[capacity];
+  }
+
+  // nonpublic utilities
+  @SuppressWarnings({"unchecked"})
+  private E element(int i) { return (E) elements[i]; }
+
+  /** Returns the Position for index i (or null if i is NONE). */
+  protected Position<E> position(int i) { return (i == NONE ? null : new Slot(i)); }
+
+  /**
+   * Verifies that a Position is a Slot of this tree that has not been removed.
+   *
+   * @param p   a Position (that should belong to this tree)
+   * @return    the index of the node for the position
+   * @throws IllegalArgumentException if an invalid position is detected
+   */
+  protected int validate(Position<E> p) throws IllegalArgumentException {
+    if (!(p instanceof ArrayQuadTree.Slot))
+      throw new IllegalArgumentException("Not valid position type: " + p);
+    ArrayQuadTree<?>.Slot slot = (ArrayQuadTree<?>.Slot) p;
+    if (slot.tree() != this)
+      throw new IllegalArgumentException("p does not belong to this tree");
+    if (slot.defunct())                         // removed, and perhaps its slot reused since
+      throw new IllegalArgumentException("p is no longer in the tree");
+    return slot.index;
+  }
+
+  /** Stores a new node in a free slot, growing the arrays if needed. */
+  private int createNode(E e, int above) {
+    int i;
+    if (free != NONE) {                           // reuse the slot of a removed node
+      i = free;
+      free = nw[i];
+    } else {
+      if (used == elements.length) {
+        int capacity = 2 * elements.length;
+        elements = Arrays.copyOf(elements, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        nw = Arrays.copyOf(nw, capacity);
+        ne = Arrays.copyOf(ne, capacity);
+        sw = Arrays.copyOf(sw, capacity);
+        se = Arrays.copyOf(se, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+      }
+      i = used++;
+    }
+    size++;
+    elements[i] = e;
+    parent[i] = above;
+    nw[i] = ne[i] = sw[i] = se[i] = NONE;
+    return i;
+  }
+
+  // accessor methods (not already implemented in AbstractQuadTree)
+  /**
+   * Returns the number of nodes in the tree.
+   * @return number of nodes in the tree
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Returns the root Position of the tree (or null if tree is empty).
+   * @return root Position of the tree (or null if tree is empty)
+   */
+  @Override
+  public Position<E> root() { return position(root); }
+
+  /**
+   * Returns the Position of p's parent (or null if p is root).
+   *
+   * @param p    A valid Position within the tree
+   * @return Position of p's parent (or null if p is root)
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  @Override
+  public Position<E> parent(Position<E> p) throws IllegalArgumentException {
+    return position(parent[validate(p)]);
+  }
+
+  /**
+   * Returns the Position of p's NW child (or null if no child exists).
+   *
+   * @param p A valid Position within the tree
+   * @return the Position of the nw child (or null if no child exists)
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   */
+  @Override
+  public Position<E> nw(Position<E> p) throws IllegalArgumentException {
+    return position(nw[validate(p)]);
+  }
+
+  /**
+   * Returns the Position of p's NE child (or null if no child exists).
+   *
+   * @param p A valid Position within the tree
+   * @return the Position of the ne child (or null if no child exists)
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   */
+  @Override
+  public Position<E> ne(Position<E> p) throws IllegalArgumentException {
+    return position(ne[validate(p)]);
+  }
+
+  /**
+   * Returns the Position of p's SW child (or null if no child exists).
+   *
+   * @param p A valid Position within the tree
+   * @return the Position of the sw child (or null if no child exists)
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   */
+  @Override
+  public Position<E> sw(Position<E> p) throws IllegalArgumentException {
+    return position(sw[validate(p)]);
+  }
+
+  /**
+   * Returns the Position of p's SE child (or null if no child exists).
+   *
+   * @param p A valid Position within the tree
+   * @return the Position of the se child (or null if no child exists)
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   */
+  @Override
+  public Position<E> se(Position<E> p) throws IllegalArgumentException {
+    return position(se[validate(p)]);
+  }
+
+  /**
+   * Returns true if Position p represents the root of the tree. Positions are
+   * created on demand, so they are compared by index rather than identity.
+   *
+   * @param p    A valid Position within the tree
+   * @return true if p is the root of the tree, false otherwise
+   */
+  @Override
+  public boolean isRoot(Position<E> p) { return validate(p) == root; }
+
+  /**
+   * Returns the number of children of Position p, reading the index arrays
+   * directly rather than creating a Position for each child.
+   *
+   * @param p    A valid Position within the tree
+   * @return number of children of Position p
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  @Override
+  public int numChildren(Position<E> p) throws IllegalArgumentException {
+    int i = validate(p);
+    return (nw[i] != NONE ? 1 : 0) + (ne[i] != NONE ? 1 : 0)
+         + (sw[i] != NONE ? 1 : 0) + (se[i] != NONE ? 1 : 0);
+  }
+
+  /**
+   * Returns the Position of p's child in the given quadrant (or null if no
+   * child exists), without validating p.
+   *
+   * @param p  a Position obtained from this tree
+   * @param quadrant  one of NW, NE, SW or SE
+   * @return the Position of the child (or null if no child exists)
+   */
+  @Override
+  public Position<E> child(Position<E> p, int quadrant) {
+    int i = ((Slot) p).index;
+    switch (quadrant) {
+      case NW: return position(nw[i]);
+      case NE: return position(ne[i]);
+      case SW: return position(sw[i]);
+      default: return position(se[i]);
+    }
+  }
+
+  /**
+   * Walks down from the root as directed by step, following child indices
+   * directly, so that only the Position returned is created.
+   *
+   * @param step  given the element of a node, returns NW, NE, SW, SE or a negative number to stop
+   * @return the Position where the walk stopped (or null if it left the tree)
+   */
+  @Override
+  public Position<E> descend(ToIntFunction<E> step) {
+    int i = root;
+    while (i != NONE) {
+      int q = step.applyAsInt(element(i));
+      if (q < 0) return position(i);
+      switch (q) {
+        case NW: i = nw[i]; break;
+        case NE: i = ne[i]; break;
+        case SW: i = sw[i]; break;
+        default: i = se[i];
+      }
+    }
+    return null;
+  }
+
+  // update methods supported by this class
+  /**
+   * Places element e at the root of an empty tree and returns its new Position.
+   *
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalStateException if the tree is not empty
+   */
+  @Override
+  public Position<E> addRoot(E e) throws IllegalStateException {
+    if (!isEmpty()) throw new IllegalStateException("Tree is not empty");
+    root = createNode(e, NONE);
+    return position(root);
+  }
+
+  /**
+   * Creates a new NW child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a nw child
+   */
+  @Override
+  public Position<E> addNW(Position<E> p, E e) throws IllegalArgumentException {
+    int i = validate(p);
+    if (nw[i] != NONE)
+      throw new IllegalArgumentException("p already has a nw child");
+    int child = createNode(e, i);
+    nw[i] = child;
+    return position(child);
+  }
+
+  /**
+   * Creates a new NE child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a ne child
+   */
+  @Override
+  public Position<E> addNE(Position<E> p, E e) throws IllegalArgumentException {
+    int i = validate(p);
+    if (ne[i] != NONE)
+      throw new IllegalArgumentException("p already has a ne child");
+    int child = createNode(e, i);
+    ne[i] = child;
+    return position(child);
+  }
+
+  /**
+   * Creates a new SW child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a sw child
+   */
+  @Override
+  public Position<E> addSW(Position<E> p, E e) throws IllegalArgumentException {
+    int i = validate(p);
+    if (sw[i] != NONE)
+      throw new IllegalArgumentException("p already has a sw child");
+    int child = createNode(e, i);
+    sw[i] = child;
+    return position(child);
+  }
+
+  /**
+   * Creates a new SE child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a se child
+   */
+  @Override
+  public Position<E> addSE(Position<E> p, E e) throws IllegalArgumentException {
+    int i = validate(p);
+    if (se[i] != NONE)
+      throw new IllegalArgumentException("p already has a se child");
+    int child = createNode(e, i);
+    se[i] = child;
+    return position(child);
+  }
+
+  /**
+   * Replaces the element at Position p with element e and returns the replaced element.
+   *
+   * @param p   the relevant Position
+   * @param e   the new element
+   * @return the replaced element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  @Override
+  public E set(Position<E> p, E e) throws IllegalArgumentException {
+    int i = validate(p);
+    E temp = element(i);
+    elements[i] = e;
+    return temp;
+  }
+
+  /**
+   * Removes the node at Position p and replaces it with its child, if any.
+   *
+   * @param p   the relevant Position
+   * @return element that was removed
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   * @throws IllegalArgumentException if p has more than one child.
+   */
+  @Override
+  public E remove(Position<E> p) throws IllegalArgumentException {
+    int i = validate(p);
+    if (numChildren(p) > 1)
+      throw new IllegalArgumentException("p has more than one child");
+    int child = nw[i];
+    if (child == NONE) child = ne[i];
+    if (child == NONE) child = sw[i];
+    if (child == NONE) child = se[i];
+    if (child != NONE)
+      parent[child] = parent[i];                  // child's grandparent becomes its parent
+    if (i == root)
+      root = child;                               // child becomes root
+    else {
+      int above = parent[i];
+      if (nw[above] == i)
+        nw[above] = child;
+      else if (ne[above] == i)
+        ne[above] = child;
+      else if (sw[above] == i)
+        sw[above] = child;
+      else
+        se[above] = child;
+    }
+    size--;
+    E temp = element(i);
+    elements[i] = null;                           // help garbage collection
+    parent[i] = i;                                // our convention for defunct node
+    generations[i]++;                             // outstanding positions of the node go stale
+    ne[i] = sw[i] = se[i] = NONE;
+    nw[i] = free;                                 // the slot joins the free list
+    free = i;
+    return temp;
+  }
+} //----------- end of ArrayQuadTree class -----------
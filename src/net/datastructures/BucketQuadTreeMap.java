@@ -0,0 +1,466 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map using a bucketed point-region (PR) quad tree
+ * over a fixed rectangle of double coordinates.
+ *
+ * Unlike SpatialTreeMap, which splits on the inserted keys, each node of this
+ * tree covers a fixed region that is split at its midpoint into four equal
+ * quadrants. Entries are kept in leaf buckets of a configurable capacity, and
+ * a leaf is only split when an insertion overflows its bucket. The shape of
+ * the tree therefore depends on where the keys lie, not on the order in which
+ * they were inserted. Buckets at depth MAX_DEPTH are never split; they grow
+ * instead, which bounds the height even for very dense clusters.
+ *
+ * As in SpatialTreeMap, a key on a dividing line belongs to the east (for X)
+ * or north (for Y) quadrant.
+ */
+public class BucketQuadTreeMap<V> extends AbstractMap<Coord<Double,Double>,V>
+                                  implements Sorted2DMap<Double,Double,V> {
+
+  /** The deepest level at which a bucket may still be split. */
+  public static final int MAX_DEPTH = 32;
+
+  /** The bucket capacity used by the constructors that do not take one. */
+  public static final int DEFAULT_CAPACITY = 32;
+
+  //---------------- nested Node class ----------------
+  /**
+   * A node of the tree, covering a fixed region. A leaf keeps its entries in
+   * parallel arrays; an internal node keeps its four quadrants instead.
+   */
+  private static class Node<V> {
+    private final double west, north, east, south;
+    private final double midX, midY;
+    private final int depth;
+    private Node<V>[] children;       // indexed NW, NE, SW, SE (or null for a leaf)
+    private double[] xs;              // the bucket of a leaf (or null for an internal node)
+    private double[] ys;
+    private Object[] values;
+    private int count;                // the number of entries in the bucket
+
+    Node(double west, double north, double east, double south, int depth, int capacity) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      this.midX = west + (east - west) / 2;
+      this.midY = south + (north - south) / 2;
+      this.depth = depth;
+      xs = new double[capacity];
+      ys = new double[capacity];
+      values = new Object[capacity];
+    }
+
+    boolean isLeaf() { return children == null; }
+
+    /** Returns the quadrant of this node's region containing (x,y). */
+    int quadrant(double x, double y) {
+      if (y >= midY)
+        return (x >= midX ? MutableQuadTree.NE : MutableQuadTree.NW);
+      else
+        return (x >= midX ? MutableQuadTree.SE : MutableQuadTree.SW);
+    }
+
+    /** Returns the index of (x,y) in the bucket of this leaf (or -1 if absent). */
+    int indexOf(double x, double y) {
+      for (int i = 0; i < count; i++)
+        if (Double.compare(xs[i], x) == 0 && Double.compare(ys[i], y) == 0)
+          return i;
+      return -1;
+    }
+
+    /** Appends an entry to the bucket of this leaf, growing it if need be. */
+    void append(double x, double y, Object value) {
+      if (count == xs.length) {
+        int capacity = 2 * count;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      xs[count] = x;
+      ys[count] = y;
+      values[count++] = value;
+    }
+
+    /** Removes the entry at index i of the bucket of this leaf. */
+    void removeAt(int i) {
+      count--;
+      xs[i] = xs[count];              // move the last entry into the gap
+      ys[i] = ys[count];
+      values[i] = values[count];
+      values[count] = null;           // help garbage collection
+    }
+  } //----------- end of nested Node class -----------
+
+  /** The region covered by the map. */
+  private final double west, north, east, south;
+
+  /** The number of entries a bucket holds before it is split. */
+  private final int capacity;
+
+  /** The root of the tree. */
+  private Node<V> root;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /**
+   * Constructs an empty map covering the given rectangle (edges inclusive),
+   * with buckets of the default capacity.
+   * @param west   the least X coordinate of a key
+   * @param north  the greatest Y coordinate of a key
+   * @param east   the greatest X coordinate of a key
+   * @param south  the least Y coordinate of a key
+   * @throws IllegalArgumentException if the rectangle is empty or not finite
+   */
+  public BucketQuadTreeMap(double west, double north, double east, double south) {
+    this(west, north, east, south, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs an empty map covering the given rectangle (edges inclusive),
+   * with buckets of the given capacity.
+   * @param west      the least X coordinate of a key
+   * @param north     the greatest Y coordinate of a key
+   * @param east      the greatest X coordinate of a key
+   * @param south     the least Y coordinate of a key
+   * @param capacity  the number of entries a bucket holds before it is split
+   * @throws IllegalArgumentException if the rectangle is empty or not finite, or capacity is not positive
+   */
+  public BucketQuadTreeMap(double west, double north, double east, double south, int capacity) {
+    if (!(west <= east && south <= north) || Double.isInfinite(east - west) || Double.isInfinite(north - south))
+      throw new IllegalArgumentException("Invalid bounds");
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be positive");
+    this.west = west;
+    this.north = north;
+    this.east = east;
+    this.south = south;
+    this.capacity = capacity;
+    root = new Node<>(west, north, east, south, 0, capacity);
+  }
+
+  /** Determines whether a key is valid. */
+  protected void checkKey(Coord<Double,Double> key) throws IllegalArgumentException {
+    if (key == null || key.getX() == null || key.getY() == null)
+      throw new IllegalArgumentException("Incompatible key");
+  }
+
+  /** Determines whether the given coordinates lie inside the map's rectangle. */
+  private void checkBounds(double x, double y) throws IllegalArgumentException {
+    if (!(west <= x && x <= east && south <= y && y <= north))
+      throw new IllegalArgumentException("Key outside the map's bounds");
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /** Returns the leaf whose region contains (x,y). */
+  private Node<V> leaf(double x, double y) {
+    Node<V> walk = root;
+    while (!walk.isLeaf())
+      walk = walk.children[walk.quadrant(x, y)];
+    return walk;
+  }
+
+  /**
+   * Returns the value associated with the given coordinates, or null if no such entry exists.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the associated value, or null if no such entry exists
+   */
+  @SuppressWarnings({"unchecked"})
+  public V get(double x, double y) {
+    if (!(west <= x && x <= east && south <= y && y <= north))
+      return null;                              // cannot be in the map
+    Node<V> leaf = leaf(x, y);
+    int i = leaf.indexOf(x, y);
+    return (i < 0 ? null : (V) leaf.values[i]);
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public V get(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return get(key.getX(), key.getY());
+  }
+
+  /**
+   * Associates the given value with the given coordinates. If an entry with
+   * the same coordinates was already in the map, this replaces the previous
+   * value with the new one and returns the old value. Otherwise, a new entry
+   * is added and null is returned.
+   * @param x      the X coordinate of the key
+   * @param y      the Y coordinate of the key
+   * @param value  value to be associated with the key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if (x,y) lies outside the map's rectangle
+   */
+  @SuppressWarnings({"unchecked"})
+  public V put(double x, double y, V value) throws IllegalArgumentException {
+    checkBounds(x, y);
+    Node<V> leaf = leaf(x, y);
+    int i = leaf.indexOf(x, y);
+    if (i >= 0) {                               // replacing existing key
+      V old = (V) leaf.values[i];
+      leaf.values[i] = value;
+      return old;
+    }
+    while (leaf.count == capacity && leaf.depth < MAX_DEPTH) {
+      split(leaf);                              // the entries may all land in one quadrant,
+      leaf = leaf.children[leaf.quadrant(x, y)];  // so keep splitting until there is room
+    }
+    leaf.append(x, y, value);
+    size++;
+    return null;
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if the key lies outside the map's rectangle
+   */
+  @Override
+  public V put(Coord<Double,Double> key, V value) throws IllegalArgumentException {
+    checkKey(key);
+    return put(key.getX(), key.getY(), value);
+  }
+
+  /** Turns a full leaf into an internal node, moving its entries into four new leaves. */
+  @SuppressWarnings({"unchecked"})
+  private void split(Node<V> leaf) {
+    int d = leaf.depth + 1;
+    Node<V>[] children = (Node<V>[]) new Node<?>[4];
+    children[MutableQuadTree.NW] = new Node<>(leaf.west, leaf.north, leaf.midX, leaf.midY, d, capacity);
+    children[MutableQuadTree.NE] = new Node<>(leaf.midX, leaf.north, leaf.east, leaf.midY, d, capacity);
+    children[MutableQuadTree.SW] = new Node<>(leaf.west, leaf.midY, leaf.midX, leaf.south, d, capacity);
+    children[MutableQuadTree.SE] = new Node<>(leaf.midX, leaf.midY, leaf.east, leaf.south, d, capacity);
+    for (int i = 0; i < leaf.count; i++)
+      children[leaf.quadrant(leaf.xs[i], leaf.ys[i])].append(leaf.xs[i], leaf.ys[i], leaf.values[i]);
+    leaf.children = children;
+    leaf.xs = leaf.ys = null;
+    leaf.values = null;
+    leaf.count = 0;
+  }
+
+  /**
+   * Removes the entry with the given coordinates, if present, and returns its
+   * associated value. Otherwise does nothing and returns null. Quadrants that
+   * together fit in one bucket again are merged back into their parent.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @SuppressWarnings({"unchecked"})
+  public V remove(double x, double y) {
+    if (!(west <= x && x <= east && south <= y && y <= north))
+      return null;                              // cannot be in the map
+    ArrayList<Node<V>> path = new ArrayList<>();
+    Node<V> walk = root;
+    while (!walk.isLeaf()) {
+      path.add(walk);
+      walk = walk.children[walk.quadrant(x, y)];
+    }
+    int i = walk.indexOf(x, y);
+    if (i < 0)                                  // key not found
+      return null;
+    V old = (V) walk.values[i];
+    walk.removeAt(i);
+    size--;
+    for (int k = path.size() - 1; k >= 0 && merge(path.get(k)); k--)
+      ;                                         // merge upward while the buckets fit
+    return old;
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @Override
+  public V remove(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return remove(key.getX(), key.getY());
+  }
+
+  /**
+   * Turns internal node p back into a leaf if its children are all leaves
+   * whose entries fit in a single bucket. Returns whether it did so.
+   */
+  private boolean merge(Node<V> p) {
+    int total = 0;
+    for (Node<V> c : p.children) {
+      if (!c.isLeaf()) return false;
+      total += c.count;
+    }
+    if (total > capacity) return false;
+    Node<V>[] children = p.children;
+    p.children = null;
+    p.xs = new double[capacity];
+    p.ys = new double[capacity];
+    p.values = new Object[capacity];
+    for (Node<V> c : children)
+      for (int i = 0; i < c.count; i++)
+        p.append(c.xs[i], c.ys[i], c.values[i]);
+    return true;
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> entrySet() {
+    return subMap(west, north, east, south);
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(Coord<Double,Double> nwCorner,
+                                                      Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    return subMap(nwCorner.getX(), nwCorner.getY(), seCorner.getX(), seCorner.getY());
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the given
+   * rectangle (edges inclusive).
+   * @param west   the least X coordinate of the rectangle
+   * @param north  the greatest Y coordinate of the rectangle
+   * @param east   the greatest X coordinate of the rectangle
+   * @param south  the least Y coordinate of the rectangle
+   * @return iterable with keys in desired range
+   */
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(double west, double north, double east, double south) {
+    return () -> new RangeIterator(west, north, east, south);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /**
+   * Iterator reporting the entries inside a rectangle. Quadrants outside the
+   * rectangle are pruned, and the bucket of a leaf lying entirely inside it is
+   * reported without comparing each entry.
+   */
+  private class RangeIterator implements Iterator<Entry<Coord<Double,Double>,V>> {
+    private final double west, north, east, south;
+    private final ArrayList<Node<V>> stack = new ArrayList<>();
+    private Node<V> leaf;                       // the leaf being scanned (or null)
+    private boolean covered;                    // whether that leaf lies inside the rectangle
+    private int index;                          // the next bucket index to look at
+    private int next = -1;                      // bucket index of the next entry to report (or -1 if done)
+
+    RangeIterator(double west, double north, double east, double south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (west <= east && south <= north && overlaps(root))
+        stack.add(root);                        // otherwise there is nothing to report
+      advance();
+    }
+
+    private boolean overlaps(Node<V> p) {
+      return west <= p.east && p.west <= east && south <= p.north && p.south <= north;
+    }
+
+    private void advance() {
+      next = -1;
+      while (true) {
+        if (leaf != null) {
+          while (index < leaf.count) {
+            int i = index++;
+            if (covered || (west <= leaf.xs[i] && leaf.xs[i] <= east
+                            && south <= leaf.ys[i] && leaf.ys[i] <= north)) {
+              next = i;
+              return;
+            }
+          }
+          leaf = null;
+        }
+        if (stack.isEmpty()) return;
+        Node<V> p = stack.remove(stack.size() - 1);
+        if (p.isLeaf()) {
+          leaf = p;
+          index = 0;
+          covered = west <= p.west && p.east <= east && south <= p.south && p.north <= north;
+        } else {
+          // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+          for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--)
+            if (overlaps(p.children[q])) stack.add(p.children[q]);
+        }
+      }
+    }
+
+    public boolean hasNext() { return next >= 0; }
+
+    @SuppressWarnings({"unchecked"})
+    public Entry<Coord<Double,Double>,V> next() {
+      if (next < 0) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<Double,Double>,V> answer =
+          new MapEntry<>(new Coord<>(leaf.xs[next], leaf.ys[next]), (V) leaf.values[next]);
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /** Returns the number of levels of nodes in the tree (a single leaf has height 1). */
+  /*protected*/ public int treeHeight() {
+    int height = 0;
+    ArrayList<Node<V>> stack = new ArrayList<>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Node<V> p = stack.remove(stack.size() - 1);
+      height = Math.max(height, p.depth + 1);
+      if (!p.isLeaf())
+        for (Node<V> c : p.children)
+          stack.add(c);
+    }
+    return height;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The distinct values taken by one component (X or Y) of a set of keys, in
+ * increasing order. The packed index maps use it to quantize keys: a component
+ * is replaced by its rank, which keeps the order of the axis whatever the
+ * comparator, and is turned back into the component when an entry is reported.
+ */
+class ComponentRanks<T> {
+  private final List<T> sorted;
+  private final Comparator<T> comp;
+
+  /**
+   * Collects the distinct values among the given components.
+   * @throws ClassCastException if the components cannot be compared
+   */
+  ComponentRanks(List<T> components, Comparator<T> comp) {
+    this.comp = comp;
+    List<T> all = new ArrayList<>(components);
+    Collections.sort(all, comp);
+    sorted = new ArrayList<>();
+    for (T t : all)
+      if (sorted.isEmpty() || comp.compare(sorted.get(sorted.size() - 1), t) != 0)
+        sorted.add(t);
+  }
+
+  /** Returns the number of distinct values. */
+  int size() { return sorted.size(); }
+
+  /** Returns the value of the given rank. */
+  T get(int rank) { return sorted.get(rank); }
+
+  /** Returns the rank of t (or -1 if no key has that component). */
+  int rankOf(T t) {
+    int rank = Collections.binarySearch(sorted, t, comp);
+    return (rank < 0 ? -1 : rank);
+  }
+
+  /** Returns the number of values less than t (or, if inclusive, no greater than t). */
+  int countBelow(T t, boolean inclusive) {
+    int lo = 0, hi = sorted.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = comp.compare(sorted.get(mid), t);
+      if (c < 0 || (inclusive && c == 0)) lo = mid + 1; else hi = mid;
+    }
+    return lo;
+  }
+}
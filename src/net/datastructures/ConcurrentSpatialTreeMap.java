@@ -0,0 +1,388 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe quad search tree map, in which readers never take a lock.
+ *
+ * The tree has the same shape and tie-breaking as SpatialTreeMap. The child
+ * links and the value of every node are volatile, and a node is fully built
+ * before the single volatile write that links it into the tree, so get, subMap
+ * and entrySet may run concurrently with any writer without locking.
+ *
+ * Writers (put and remove) are serialized by a lock. A remove never unlinks
+ * nodes that a reader may be walking: the entries below the removed node are
+ * copied into a fresh subtree off to the side, which then replaces the old one
+ * with a single volatile write. A reader that was already inside the old
+ * subtree simply finishes its walk over the tree as it was.
+ *
+ * Iterators are weakly consistent: they never throw
+ * ConcurrentModificationException, report each entry at most once, and may or
+ * may not reflect changes made after they were created.
+ */
+public class ConcurrentSpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V> {
+
+  //---------------- nested Node class ----------------
+  /** A node of the tree; the key is fixed, the value and the children may change. */
+  private static class Node<X,Y,V> {
+    private final Coord<X,Y> key;
+    private volatile V value;
+    private volatile Node<X,Y,V> nw, ne, sw, se;   // children (null if absent)
+
+    Node(Coord<X,Y> key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    /** Returns the child in the given quadrant (or null). */
+    Node<X,Y,V> child(int quadrant) {
+      switch (quadrant) {
+        case MutableQuadTree.NW: return nw;
+        case MutableQuadTree.NE: return ne;
+        case MutableQuadTree.SW: return sw;
+        default: return se;
+      }
+    }
+
+    /** Links a child into the given quadrant; this publishes the child to readers. */
+    void setChild(int quadrant, Node<X,Y,V> child) {
+      switch (quadrant) {
+        case MutableQuadTree.NW: nw = child; break;
+        case MutableQuadTree.NE: ne = child; break;
+        case MutableQuadTree.SW: sw = child; break;
+        default: se = child;
+      }
+    }
+  } //----------- end of nested Node class -----------
+
+  /** The root of the tree (or null if the map is empty). */
+  private volatile Node<X,Y,V> root = null;
+
+  /** The number of entries in the map. */
+  private volatile int size = 0;
+
+  /** Serializes the writers; readers never take it. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /** The comparators defining the ordering of keys in the map. */
+  private final Comparator<X> compX;
+  private final Comparator<Y> compY;
+
+  /** Constructs an empty map */
+  public ConcurrentSpatialTreeMap() {
+    this(new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  public ConcurrentSpatialTreeMap(Comparator<X> cx, Comparator<Y> cy) {
+    compX = cx;
+    compY = cy;
+  }
+
+  /** Determines whether a key is valid. */
+  protected boolean checkKey(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return (compX.compare(key.getX(),key.getX())==0) && (compY.compare(key.getY(),key.getY())==0);   // see if key can be compared to itself
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Returns the node in p's subtree having the given key (or null if there is none).
+   * @throws IllegalArgumentException if the key cannot be compared with those in the map
+   */
+  private Node<X,Y,V> treeSearch(Node<X,Y,V> p, Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      while (p != null) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0)
+          return p;                         // key found
+        p = p.child(MutableQuadTree.quadrant(x, y));
+      }
+      return null;                          // key not found
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * Never blocks.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public V get(Coord<X,Y> key) throws IllegalArgumentException {
+    Node<X,Y,V> r = root;
+    if (r == null) checkKey(key);           // otherwise treeSearch rejects incompatible keys
+    Node<X,Y,V> p = treeSearch(r, key);
+    return (p == null ? null : p.value);
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) throws IllegalArgumentException {
+    writeLock.lock();
+    try {
+      if (root == null) {
+        checkKey(key);                      // later keys are checked by the comparisons below
+        root = new Node<>(key, value);
+        size = 1;
+        return null;
+      }
+      Node<X,Y,V> p = root;
+      while (true) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0) {             // replacing existing key
+          V old = p.value;
+          p.value = value;
+          return old;
+        }
+        int q = MutableQuadTree.quadrant(x, y);
+        Node<X,Y,V> child = p.child(q);
+        if (child == null) {                // key is new
+          p.setChild(q, new Node<>(key, value));
+          size = size + 1;                  // only the writer holding the lock updates size
+          return null;
+        }
+        p = child;
+      }
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @Override
+  public V remove(Coord<X,Y> key) throws IllegalArgumentException {
+    writeLock.lock();
+    try {
+      if (root == null) {
+        checkKey(key);
+        return null;
+      }
+      Node<X,Y,V> above = null;             // parent of p
+      int q = 0;                            // quadrant of above holding p
+      Node<X,Y,V> p = root;
+      while (p != null) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0) break;
+        above = p;
+        q = MutableQuadTree.quadrant(x, y);
+        p = p.child(q);
+      }
+      if (p == null)                        // key not found
+        return null;
+      // the entries below p lie in the region its ancestors assign to p, so
+      // they can be rebuilt in p's place; inserting them in preorder gives
+      // the new subtree much the same shape as the old one
+      Node<X,Y,V> rebuilt = null;
+      for (Node<X,Y,V> n : preorder(p))
+        if (n != p)
+          rebuilt = insertDetached(rebuilt, n.key, n.value);
+      if (above == null)
+        root = rebuilt;                     // publishes the new subtree
+      else
+        above.setChild(q, rebuilt);
+      size = size - 1;
+      return p.value;
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Inserts a new entry into a subtree that readers cannot reach yet, and
+   * returns the root of the subtree. The key must not already be there.
+   */
+  private Node<X,Y,V> insertDetached(Node<X,Y,V> top, Coord<X,Y> key, V value) {
+    Node<X,Y,V> node = new Node<>(key, value);
+    if (top == null) return node;
+    Node<X,Y,V> p = top;
+    while (true) {
+      int q = MutableQuadTree.quadrant(compX.compare(key.getX(), p.key.getX()),
+                                       compY.compare(key.getY(), p.key.getY()));
+      Node<X,Y,V> child = p.child(q);
+      if (child == null) {
+        p.setChild(q, node);
+        return top;
+      }
+      p = child;
+    }
+  }
+
+  /** Returns the nodes of p's subtree in preorder (NW, NE, SW, SE), walking it without recursion. */
+  private List<Node<X,Y,V>> preorder(Node<X,Y,V> p) {
+    List<Node<X,Y,V>> nodes = new ArrayList<>();
+    ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    if (p != null) stack.add(p);
+    while (!stack.isEmpty()) {
+      Node<X,Y,V> walk = stack.remove(stack.size() - 1);
+      nodes.add(walk);
+      for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--) {
+        Node<X,Y,V> c = walk.child(q);
+        if (c != null) stack.add(c);
+      }
+    }
+    return nodes;
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map. The
+   * entries are found lazily as the result is iterated, without locking; like
+   * every iterator of this map, it is weakly consistent, so it may or may not
+   * report changes made while it runs.
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
+    return () -> new RangeIterator(null, null);
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated, without locking.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);                               // may throw IllegalArgumentException
+    checkKey(seCorner);                               // may throw IllegalArgumentException
+    return () -> new RangeIterator(nwCorner, seCorner);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /**
+   * Iterator reporting the entries whose keys lie inside a rectangle. It keeps a
+   * stack of subtrees still to be explored and only pushes the children whose
+   * quadrant can overlap the rectangle (or all of them, if the rectangle is the
+   * whole plane). Each child link is read once, so no entry is reported twice
+   * even if a writer replaces a subtree meanwhile.
+   */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+    private final ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    private Entry<Coord<X,Y>,V> next;                 // next entry to report (or null if done)
+
+    /** Creates an iterator over a rectangle, or over the whole plane if both corners are null. */
+    RangeIterator(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+      Node<X,Y,V> r = root;
+      if (r != null && (nwCorner == null || compX.compare(nwCorner.getX(), seCorner.getX()) <= 0
+          && compY.compare(seCorner.getY(), nwCorner.getY()) <= 0))
+        stack.add(r);                                 // otherwise the rectangle is empty
+      advance();
+    }
+
+    /** Moves to the next entry inside the rectangle, pruning quadrants outside it. */
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Node<X,Y,V> p = stack.remove(stack.size() - 1);
+        if (p == null) continue;                       // no child in that quadrant
+        Coord<X,Y> e = p.key;
+        if (nwCorner == null) {                        // the whole plane
+          stack.add(p.se);
+          stack.add(p.sw);
+          stack.add(p.ne);
+          stack.add(p.nw);
+          next = new MapEntry<>(e, p.value);
+          continue;
+        }
+        int west = compX.compare(nwCorner.getX(), e.getX());
+        int east = compX.compare(seCorner.getX(), e.getX());
+        int north = compY.compare(nwCorner.getY(), e.getY());
+        int south = compY.compare(seCorner.getY(), e.getY());
+        // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+        if (east >= 0 && south < 0) stack.add(p.se);
+        if (west < 0 && south < 0) stack.add(p.sw);
+        if (east >= 0 && north >= 0) stack.add(p.ne);
+        if (west < 0 && north >= 0) stack.add(p.nw);
+        if (west <= 0 && east >= 0 && south <= 0 && north >= 0)
+          next = new MapEntry<>(e, p.value);          // p itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /*protected*/ public int treeHeight() {
+    int height = 0;
+    ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    ArrayList<Integer> depths = new ArrayList<>();
+    stack.add(root);                        // may be null, for an empty map
+    depths.add(0);
+    while (!stack.isEmpty()) {
+      Node<X,Y,V> p = stack.remove(stack.size() - 1);
+      int depth = depths.remove(depths.size() - 1);
+      if (p == null) continue;              // no child in that quadrant
+      height = Math.max(height, depth + 1);
+      for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++) {
+        stack.add(p.child(q));
+        depths.add(depth + 1);
+      }
+    }
+    return height;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+/**
+ * A measure of distance between keys of a Sorted2DMap, used by nearest-neighbour
+ * searches. Besides the distance between two keys, an implementation must give
+ * a lower bound on the distance from a key to any key inside an axis-aligned
+ * region, which lets a search skip regions that cannot hold a closer key.
+ */
+public interface DistanceFunction<X,Y> {
+
+  /**
+   * Returns the distance between two keys.
+   * @param a  a key
+   * @param b  another key
+   * @return a non-negative distance
+   */
+  double distance(Coord<X,Y> a, Coord<X,Y> b);
+
+  /**
+   * Returns a lower bound on the distance from q to any key whose X lies within
+   * [minX, maxX] and whose Y lies within [minY, maxY]. A null bound means the
+   * region is unbounded on that side. Returning 0 is always correct, but prunes nothing.
+   * @param q  the query key
+   * @return a value no greater than the distance from q to any key in the region
+   */
+  double distanceToRegion(Coord<X,Y> q, X minX, X maxX, Y minY, Y maxY);
+}
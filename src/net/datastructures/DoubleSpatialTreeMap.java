@@ -0,0 +1,417 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map using a quad search tree, specialized for keys
+ * whose coordinates are doubles.
+ *
+ * The tree has the same shape and ordering as a SpatialTreeMap with the default
+ * comparators, but each node stores its coordinates as primitive fields and
+ * missing children are simply null. The get and put overloads that take the
+ * coordinates directly neither box them nor allocate a Coord.
+ */
+public class DoubleSpatialTreeMap<V> extends AbstractMap<Coord<Double,Double>,V>
+                                     implements Sorted2DMap<Double,Double,V> {
+
+  //---------------- nested Node class ----------------
+  /**
+   * A node of the tree, which also serves as the map entry it holds. Its key
+   * is only boxed into a Coord when requested through getKey.
+   */
+  protected static class Node<V> implements Entry<Coord<Double,Double>,V> {
+    private final double x;
+    private final double y;
+    private V value;
+    private Node<V> nw;
+    private Node<V> ne;
+    private Node<V> sw;
+    private Node<V> se;
+
+    public Node(double x, double y, V value) {
+      this.x = x;
+      this.y = y;
+      this.value = value;
+    }
+
+    // public methods of the Entry interface
+    public Coord<Double,Double> getKey() { return new Coord<>(x, y); }
+    public V getValue() { return value; }
+
+    /** Returns string representation (for debugging only) */
+    public String toString() { return "<" + getKey() + ", " + value + ">"; }
+  } //----------- end of nested Node class -----------
+
+  /** The root of the tree (or null if the map is empty). */
+  protected Node<V> root = null;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /** Constructs an empty map. */
+  public DoubleSpatialTreeMap() { }
+
+  /** Determines whether a key is valid. */
+  protected void checkKey(Coord<Double,Double> key) throws IllegalArgumentException {
+    if (key == null || key.getX() == null || key.getY() == null)
+      throw new IllegalArgumentException("Incompatible key");
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Returns the node holding the given coordinates (or null if there is none).
+   * Ties are broken as in SpatialTreeMap: an equal X goes east, an equal Y north.
+   */
+  private Node<V> treeSearch(double x, double y) {
+    Node<V> walk = root;
+    while (walk != null) {
+      int cx = Double.compare(x, walk.x);
+      int cy = Double.compare(y, walk.y);
+      if (cx == 0 && cy == 0)
+        return walk;
+      if (cy >= 0)
+        walk = (cx >= 0 ? walk.ne : walk.nw);
+      else
+        walk = (cx >= 0 ? walk.se : walk.sw);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value associated with the given coordinates, or null if no such entry exists.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the associated value, or null if no such entry exists
+   */
+  public V get(double x, double y) {
+    Node<V> node = treeSearch(x, y);
+    return (node == null ? null : node.value);
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public V get(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return get(key.getX(), key.getY());
+  }
+
+  /**
+   * Associates the given value with the given coordinates. If an entry with
+   * the same coordinates was already in the map, this replaces the previous
+   * value with the new one and returns the old value. Otherwise, a new entry
+   * is added and null is returned.
+   * @param x      the X coordinate of the key
+   * @param y      the Y coordinate of the key
+   * @param value  value to be associated with the key
+   * @return the previous value associated with the key (or null, if no such entry)
+   */
+  public V put(double x, double y, V value) {
+    if (root == null) {
+      root = new Node<>(x, y, value);
+      size++;
+      return null;
+    }
+    Node<V> walk = root;
+    while (true) {
+      int cx = Double.compare(x, walk.x);
+      int cy = Double.compare(y, walk.y);
+      if (cx == 0 && cy == 0) {                 // replacing existing key
+        V old = walk.value;
+        walk.value = value;
+        return old;
+      }
+      Node<V> child;
+      if (cy >= 0) {
+        child = (cx >= 0 ? walk.ne : walk.nw);
+        if (child == null) {                    // key is new
+          child = new Node<>(x, y, value);
+          if (cx >= 0) walk.ne = child; else walk.nw = child;
+          size++;
+          return null;
+        }
+      } else {
+        child = (cx >= 0 ? walk.se : walk.sw);
+        if (child == null) {                    // key is new
+          child = new Node<>(x, y, value);
+          if (cx >= 0) walk.se = child; else walk.sw = child;
+          size++;
+          return null;
+        }
+      }
+      walk = child;
+    }
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   */
+  @Override
+  public V put(Coord<Double,Double> key, V value) throws IllegalArgumentException {
+    checkKey(key);
+    return put(key.getX(), key.getY(), value);
+  }
+
+  /**
+   * Removes the entry with the given coordinates, if present, and returns its
+   * associated value. Otherwise does nothing and returns null. As in
+   * SpatialTreeMap, only the subtree below the removed node is rebuilt, in
+   * its place; every entry there lies in the region of the removed node.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  public V remove(double x, double y) {
+    Node<V> above = null;
+    Node<V> walk = root;
+    while (walk != null) {
+      int cx = Double.compare(x, walk.x);
+      int cy = Double.compare(y, walk.y);
+      if (cx == 0 && cy == 0)
+        break;
+      above = walk;
+      if (cy >= 0)
+        walk = (cx >= 0 ? walk.ne : walk.nw);
+      else
+        walk = (cx >= 0 ? walk.se : walk.sw);
+    }
+    if (walk == null)                           // key not found
+      return null;
+    ArrayList<Node<V>> rest = new ArrayList<>();
+    ArrayList<Node<V>> stack = new ArrayList<>();
+    stack.add(walk);
+    while (!stack.isEmpty()) {                  // detach every node below walk
+      Node<V> p = stack.remove(stack.size() - 1);
+      if (p != walk) rest.add(p);
+      if (p.nw != null) stack.add(p.nw);
+      if (p.ne != null) stack.add(p.ne);
+      if (p.sw != null) stack.add(p.sw);
+      if (p.se != null) stack.add(p.se);
+      p.nw = p.ne = p.sw = p.se = null;
+    }
+    rest.sort((a, b) -> {
+      int c = Double.compare(a.x, b.x);
+      return (c != 0 ? c : Double.compare(a.y, b.y));
+    });
+    Node<V> rebuilt = buildSubtree(rest);
+    if (above == null)
+      root = rebuilt;
+    else if (above.nw == walk)
+      above.nw = rebuilt;
+    else if (above.ne == walk)
+      above.ne = rebuilt;
+    else if (above.sw == walk)
+      above.sw = rebuilt;
+    else
+      above.se = rebuilt;
+    size--;
+    return walk.value;
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @Override
+  public V remove(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return remove(key.getX(), key.getY());
+  }
+
+  /**
+   * Links the given detached nodes, ordered by X then Y, into a subtree and
+   * returns its root. Each node takes the median by X as its pivot, so every
+   * quadrant holds at most half the nodes and the recursion depth is logarithmic.
+   */
+  private Node<V> buildSubtree(List<Node<V>> byX) {
+    if (byX.isEmpty()) return null;
+    Node<V> pivot = byX.get(byX.size() / 2);
+    List<Node<V>> nw = new ArrayList<>(), ne = new ArrayList<>(), sw = new ArrayList<>(), se = new ArrayList<>();
+    for (Node<V> p : byX) {                     // the quadrants stay ordered by X
+      if (p == pivot) continue;
+      int cx = Double.compare(p.x, pivot.x);
+      if (Double.compare(p.y, pivot.y) >= 0)
+        (cx >= 0 ? ne : nw).add(p);
+      else
+        (cx >= 0 ? se : sw).add(p);
+    }
+    pivot.nw = buildSubtree(nw);
+    pivot.ne = buildSubtree(ne);
+    pivot.sw = buildSubtree(sw);
+    pivot.se = buildSubtree(se);
+    return pivot;
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map. The
+   * whole tree is walked, so keys with NaN coordinates (which Double.compare
+   * orders above every other value, outside any rectangle) are reported too.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> entrySet() {
+    return () -> new EntryIterator();
+  }
+
+  //---------------- nested EntryIterator class ----------------
+  /** Iterator walking the whole tree depth-first with an explicit stack. */
+  private class EntryIterator implements Iterator<Entry<Coord<Double,Double>,V>> {
+    private final ArrayList<Node<V>> stack = new ArrayList<>();
+
+    EntryIterator() {
+      if (root != null) stack.add(root);
+    }
+
+    public boolean hasNext() { return !stack.isEmpty(); }
+
+    public Entry<Coord<Double,Double>,V> next() {
+      if (stack.isEmpty()) throw new NoSuchElementException("No more entries");
+      Node<V> p = stack.remove(stack.size() - 1);
+      // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+      if (p.se != null) stack.add(p.se);
+      if (p.sw != null) stack.add(p.sw);
+      if (p.ne != null) stack.add(p.ne);
+      if (p.nw != null) stack.add(p.nw);
+      return p;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested EntryIterator class -----------
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(Coord<Double,Double> nwCorner,
+                                                      Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    return subMap(nwCorner.getX(), nwCorner.getY(), seCorner.getX(), seCorner.getY());
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the given
+   * rectangle (edges inclusive).
+   * @param west   the least X coordinate of the rectangle
+   * @param north  the greatest Y coordinate of the rectangle
+   * @param east   the greatest X coordinate of the rectangle
+   * @param south  the least Y coordinate of the rectangle
+   * @return iterable with keys in desired range
+   */
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(double west, double north, double east, double south) {
+    return () -> new RangeIterator(west, north, east, south);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /** Iterator reporting the entries inside a rectangle, pruning quadrants outside it. */
+  private class RangeIterator implements Iterator<Entry<Coord<Double,Double>,V>> {
+    private final double west, north, east, south;
+    private final ArrayList<Node<V>> stack = new ArrayList<>();
+    private Node<V> next;                       // next entry to report (or null if done)
+
+    RangeIterator(double west, double north, double east, double south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (root != null && Double.compare(west, east) <= 0 && Double.compare(south, north) <= 0)
+        stack.add(root);                        // otherwise there is nothing to report
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Node<V> p = stack.remove(stack.size() - 1);
+        int w = Double.compare(west, p.x);
+        int e = Double.compare(east, p.x);
+        int n = Double.compare(north, p.y);
+        int s = Double.compare(south, p.y);
+        // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+        if (p.se != null && e >= 0 && s < 0) stack.add(p.se);
+        if (p.sw != null && w < 0 && s < 0) stack.add(p.sw);
+        if (p.ne != null && e >= 0 && n >= 0) stack.add(p.ne);
+        if (p.nw != null && w < 0 && n >= 0) stack.add(p.nw);
+        if (w <= 0 && e >= 0 && s <= 0 && n >= 0)
+          next = p;                             // p itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<Double,Double>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Node<V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /**
+   * Returns the number of entry levels in the tree, counted the same way as
+   * SpatialTreeMap.treeHeight.
+   */
+  /*protected*/ public int treeHeight() {
+    int height = 0;
+    ArrayList<Node<V>> stack = new ArrayList<>();
+    ArrayList<Integer> depths = new ArrayList<>();
+    stack.add(root);                        // may be null, for an empty map
+    depths.add(0);
+    while (!stack.isEmpty()) {
+      Node<V> p = stack.remove(stack.size() - 1);
+      int depth = depths.remove(depths.size() - 1);
+      if (p == null) continue;              // no child in that quadrant
+      height = Math.max(height, depth + 1);
+      stack.add(p.nw);
+      stack.add(p.ne);
+      stack.add(p.sw);
+      stack.add(p.se);
+      for (int q = 0; q < 4; q++)
+        depths.add(depth + 1);
+    }
+    return height;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+
+import net.datastructures.SpatialTreeSnapshot.Codec;
+
+/**
+ * A SpatialTreeMap whose changes survive a crash. Opening the map restores the
+ * last snapshot (if any) and replays the write-ahead log on top of it; from
+ * then on every put and remove is recorded in the log before it returns.
+ * A checkpoint writes a new snapshot and empties the log.
+ *
+ * How much a crash can lose is set by the Sync policy of the log; call commit
+ * to make every change so far durable. Like SpatialTreeMap, the map is not
+ * thread-safe.
+ */
+public class DurableSpatialTreeMap<X,Y,V> extends SpatialTreeMap<X,Y,V> implements Closeable {
+
+  private final Path snapshot;
+  private final Codec<X> cx;
+  private final Codec<Y> cy;
+  private final Codec<V> cv;
+  private final SpatialTreeLog<X,Y,V> log;
+  private final long replayed;
+
+  /**
+   * Opens a map with the natural ordering of the key components.
+   * See {@link #DurableSpatialTreeMap(Path, Path, Codec, Codec, Codec, SpatialTreeLog.Sync, int, Comparator, Comparator)}.
+   */
+  public DurableSpatialTreeMap(Path snapshot, Path log, Codec<X> cx, Codec<Y> cy, Codec<V> cv,
+                               SpatialTreeLog.Sync sync, int groupSize) throws IOException {
+    this(snapshot, log, cx, cy, cv, sync, groupSize, new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Opens a map, restoring the snapshot if the file exists and replaying the log if it exists.
+   * @param snapshot  the file holding the last snapshot of the map
+   * @param log       the file holding the changes made since then
+   * @param cx    the codec for X components
+   * @param cy    the codec for Y components
+   * @param cv    the codec for values
+   * @param sync  when changes are written to the log and forced to the disk
+   * @param groupSize  the number of changes written to the log at a time (ignored by Sync.ALWAYS)
+   * @param compX  comparator defining the order of X components
+   * @param compY  comparator defining the order of Y components
+   * @throws IOException if either file cannot be read, or is damaged beyond a torn log tail
+   */
+  public DurableSpatialTreeMap(Path snapshot, Path log, Codec<X> cx, Codec<Y> cy, Codec<V> cv,
+                               SpatialTreeLog.Sync sync, int groupSize,
+                               Comparator<X> compX, Comparator<Y> compY) throws IOException {
+    super(compX, compY);
+    this.snapshot = snapshot;
+    this.cx = cx;
+    this.cy = cy;
+    this.cv = cv;
+    if (Files.exists(snapshot))
+      try (InputStream in = Files.newInputStream(snapshot)) {
+        tree = SpatialTreeSnapshot.read(in, cx, cy, cv, compX, compY).tree;
+      }
+    // the log is still null, so the replayed changes are not logged again
+    replayed = (Files.exists(log) ? SpatialTreeLog.replay(log, this, cx, cy, cv) : 0);
+    this.log = new SpatialTreeLog<>(log, cx, cy, cv, sync, groupSize);
+  }
+
+  /** Returns the number of logged changes that were replayed when the map was opened. */
+  public long replayed() { return replayed; }
+
+  /**
+   * Associates the given value with the given key, then logs the change. The
+   * map is changed first so that a key it rejects never reaches the log; the
+   * change is durable once the log is written (and forced, as the Sync policy says).
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   * @throws UncheckedIOException if the log cannot be written (the map then holds a change the log lacks)
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) throws IllegalArgumentException {
+    V old = super.put(key, value);
+    if (log != null)                        // null while the log is being replayed
+      try {
+        log.put(key, value);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    return old;
+  }
+
+  /**
+   * Removes the entry with the given key, if present, then logs the change.
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   * @throws UncheckedIOException if the log cannot be written (the map then holds a change the log lacks)
+   */
+  @Override
+  public V remove(Coord<X,Y> key) throws IllegalArgumentException {
+    V old = super.remove(key);
+    if (log != null)
+      try {
+        log.remove(key);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    return old;
+  }
+
+  /**
+   * Forces every change made so far to the disk, whatever the Sync policy.
+   * @throws IOException if the log cannot be written
+   */
+  public void commit() throws IOException {
+    log.commit();
+  }
+
+  /**
+   * Writes a snapshot of the map and empties the log. The snapshot is forced
+   * to the disk, then replaces the old one in a single rename, and the
+   * directory holding it is forced before the log is emptied, so that the
+   * emptied log can never outlive a rename lost in a crash. A crash thus
+   * leaves either the old snapshot and the full log, or the new snapshot and
+   * a log whose changes it already holds (replaying them again gives the
+   * same map).
+   * @throws IOException if the snapshot, its directory or the log cannot be written
+   */
+  public void checkpoint() throws IOException {
+    log.commit();
+    Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      SpatialTreeSnapshot.write(this, out, cx, cy, cv);
+    }
+    try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      c.force(true);
+    }
+    Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Path dir = snapshot.toAbsolutePath().getParent();
+    try (FileChannel c = FileChannel.open(dir, StandardOpenOption.READ)) {
+      c.force(true);                        // makes the rename durable
+    }
+    log.reset();
+  }
+
+  /**
+   * Commits the changes made so far and closes the log; the map must not be changed afterwards.
+   * @throws IOException if the log cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+/**
+ * Straight-line distance between keys whose components are numbers.
+ */
+public class EuclideanDistance<X extends Number, Y extends Number> implements DistanceFunction<X,Y> {
+
+  @Override
+  public double distance(Coord<X,Y> a, Coord<X,Y> b) {
+    double dx = a.getX().doubleValue() - b.getX().doubleValue();
+    double dy = a.getY().doubleValue() - b.getY().doubleValue();
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  @Override
+  public double distanceToRegion(Coord<X,Y> q, X minX, X maxX, Y minY, Y maxY) {
+    double dx = gap(q.getX().doubleValue(), minX, maxX);
+    double dy = gap(q.getY().doubleValue(), minY, maxY);
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Returns how far v lies outside [min, max] (0 if inside; null bounds are open). */
+  private static double gap(double v, Number min, Number max) {
+    if (min != null && v < min.doubleValue()) return min.doubleValue() - v;
+    if (max != null && v > max.doubleValue()) return v - max.doubleValue();
+    return 0;
+  }
+}
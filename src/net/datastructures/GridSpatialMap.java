@@ -0,0 +1,433 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map using a uniform grid of square cells over a fixed
+ * rectangle of double coordinates.
+ *
+ * The cell holding a key is found by arithmetic alone, with no tree to descend,
+ * and each cell keeps its entries in a bucket of primitive arrays, so small
+ * window queries only scan the few cells they overlap. Cells are allocated on
+ * their first entry.
+ *
+ * Optionally, a cell whose bucket grows past a split threshold is turned into
+ * a BucketQuadTreeMap covering the cell, so that a hot spot in the data does
+ * not degrade into a long linear scan.
+ *
+ * A key on the boundary between two cells belongs to the cell east (for X) or
+ * north (for Y) of it, matching the way SpatialTreeMap breaks ties.
+ */
+public class GridSpatialMap<V> extends AbstractMap<Coord<Double,Double>,V>
+                               implements Sorted2DMap<Double,Double,V> {
+
+  //---------------- nested Cell class ----------------
+  /** A cell of the grid: a bucket of entries, or a tree once the cell has been split. */
+  private static class Cell<V> {
+    private double[] xs = new double[4];
+    private double[] ys = new double[4];
+    private Object[] values = new Object[4];
+    private int count;                    // the number of entries in the bucket
+    private BucketQuadTreeMap<V> split;   // the entries of a hot cell (or null)
+
+    /** Returns the index of (x,y) in the bucket (or -1 if absent). */
+    int indexOf(double x, double y) {
+      for (int i = 0; i < count; i++)
+        if (Double.compare(xs[i], x) == 0 && Double.compare(ys[i], y) == 0)
+          return i;
+      return -1;
+    }
+
+    /** Appends an entry to the bucket, growing it if need be. */
+    void append(double x, double y, Object value) {
+      if (count == xs.length) {
+        xs = Arrays.copyOf(xs, 2 * count);
+        ys = Arrays.copyOf(ys, 2 * count);
+        values = Arrays.copyOf(values, 2 * count);
+      }
+      xs[count] = x;
+      ys[count] = y;
+      values[count++] = value;
+    }
+
+    /** Removes the entry at index i of the bucket. */
+    void removeAt(int i) {
+      count--;
+      xs[i] = xs[count];                  // move the last entry into the gap
+      ys[i] = ys[count];
+      values[i] = values[count];
+      values[count] = null;               // help garbage collection
+    }
+  } //----------- end of nested Cell class -----------
+
+  /** The region covered by the map, and the side of a cell. */
+  private final double west, north, east, south;
+  private final double cellSize;
+
+  /** The number of columns and rows of cells. */
+  private final int columns, rows;
+
+  /** The cells, row by row from the south (null for a cell never used). */
+  private final Cell<V>[] cells;
+
+  /** The number of entries above which a cell is split (Integer.MAX_VALUE if never). */
+  private final int splitThreshold;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /**
+   * Constructs an empty map covering the given rectangle (edges inclusive)
+   * with square cells of the given side, which are never split.
+   * @param west      the least X coordinate of a key
+   * @param north     the greatest Y coordinate of a key
+   * @param east      the greatest X coordinate of a key
+   * @param south     the least Y coordinate of a key
+   * @param cellSize  the side of a cell
+   * @throws IllegalArgumentException if the rectangle is empty or not finite, or cellSize is not positive
+   */
+  public GridSpatialMap(double west, double north, double east, double south, double cellSize) {
+    this(west, north, east, south, cellSize, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Constructs an empty map covering the given rectangle (edges inclusive)
+   * with square cells of the given side. A cell holding more than
+   * splitThreshold entries is split into a BucketQuadTreeMap.
+   * @param west            the least X coordinate of a key
+   * @param north           the greatest Y coordinate of a key
+   * @param east            the greatest X coordinate of a key
+   * @param south           the least Y coordinate of a key
+   * @param cellSize        the side of a cell
+   * @param splitThreshold  the number of entries above which a cell is split
+   * @throws IllegalArgumentException if the rectangle is empty or not finite, cellSize is not
+   *         positive, splitThreshold is not positive, or the grid would have too many cells
+   */
+  @SuppressWarnings({"unchecked"})
+  public GridSpatialMap(double west, double north, double east, double south, double cellSize, int splitThreshold) {
+    if (!(west <= east && south <= north) || Double.isInfinite(east - west) || Double.isInfinite(north - south))
+      throw new IllegalArgumentException("Invalid bounds");
+    if (!(cellSize > 0))
+      throw new IllegalArgumentException("Cell size must be positive");
+    if (splitThreshold < 1)
+      throw new IllegalArgumentException("Split threshold must be positive");
+    double c = Math.max(1, Math.ceil((east - west) / cellSize));
+    double r = Math.max(1, Math.ceil((north - south) / cellSize));
+    if (c * r > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException("Too many cells");
+    this.west = west;
+    this.north = north;
+    this.east = east;
+    this.south = south;
+    this.cellSize = cellSize;
+    this.splitThreshold = splitThreshold;
+    columns = (int) c;
+    rows = (int) r;
+    cells = (Cell<V>[]) new Cell<?>[columns * rows];
+  }
+
+  /** Determines whether a key is valid. */
+  protected void checkKey(Coord<Double,Double> key) throws IllegalArgumentException {
+    if (key == null || key.getX() == null || key.getY() == null)
+      throw new IllegalArgumentException("Incompatible key");
+  }
+
+  /** Returns whether (x,y) lies inside the map's rectangle. */
+  private boolean inBounds(double x, double y) {
+    return west <= x && x <= east && south <= y && y <= north;
+  }
+
+  /** Returns the column of cells containing X coordinate x, which must lie inside the map. */
+  private int column(double x) {
+    return Math.min(columns - 1, (int) ((x - west) / cellSize));   // x == east joins the last column
+  }
+
+  /** Returns the row of cells containing Y coordinate y, which must lie inside the map. */
+  private int row(double y) {
+    return Math.min(rows - 1, (int) ((y - south) / cellSize));
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Returns the value associated with the given coordinates, or null if no such entry exists.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the associated value, or null if no such entry exists
+   */
+  @SuppressWarnings({"unchecked"})
+  public V get(double x, double y) {
+    if (!inBounds(x, y))
+      return null;                            // cannot be in the map
+    Cell<V> cell = cells[row(y) * columns + column(x)];
+    if (cell == null)
+      return null;
+    if (cell.split != null)
+      return cell.split.get(x, y);
+    int i = cell.indexOf(x, y);
+    return (i < 0 ? null : (V) cell.values[i]);
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public V get(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return get(key.getX(), key.getY());
+  }
+
+  /**
+   * Associates the given value with the given coordinates. If an entry with
+   * the same coordinates was already in the map, this replaces the previous
+   * value with the new one and returns the old value. Otherwise, a new entry
+   * is added and null is returned.
+   * @param x      the X coordinate of the key
+   * @param y      the Y coordinate of the key
+   * @param value  value to be associated with the key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if (x,y) lies outside the map's rectangle
+   */
+  @SuppressWarnings({"unchecked"})
+  public V put(double x, double y, V value) throws IllegalArgumentException {
+    if (!inBounds(x, y))
+      throw new IllegalArgumentException("Key outside the map's bounds");
+    int c = column(x), r = row(y);
+    Cell<V> cell = cells[r * columns + c];
+    if (cell == null)
+      cell = cells[r * columns + c] = new Cell<>();
+    if (cell.split != null) {
+      int before = cell.split.size();
+      V old = cell.split.put(x, y, value);
+      size += cell.split.size() - before;
+      return old;
+    }
+    int i = cell.indexOf(x, y);
+    if (i >= 0) {                             // replacing existing key
+      V old = (V) cell.values[i];
+      cell.values[i] = value;
+      return old;
+    }
+    cell.append(x, y, value);
+    size++;
+    if (cell.count > splitThreshold)
+      split(cell, c, r);
+    return null;
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if the key lies outside the map's rectangle
+   */
+  @Override
+  public V put(Coord<Double,Double> key, V value) throws IllegalArgumentException {
+    checkKey(key);
+    return put(key.getX(), key.getY(), value);
+  }
+
+  /** Moves the entries of the hot cell in column c and row r into a tree covering the cell. */
+  @SuppressWarnings({"unchecked"})
+  private void split(Cell<V> cell, int c, int r) {
+    // the tree reaches half a cell past each edge, so that keys rounded into
+    // this cell by column and row are always inside it
+    double margin = cellSize / 2;
+    double cellWest = Math.max(west, west + c * cellSize - margin);
+    double cellSouth = Math.max(south, south + r * cellSize - margin);
+    double cellEast = Math.min(east, west + (c + 1) * cellSize + margin);
+    double cellNorth = Math.min(north, south + (r + 1) * cellSize + margin);
+    cell.split = new BucketQuadTreeMap<>(cellWest, cellNorth, cellEast, cellSouth);
+    for (int i = 0; i < cell.count; i++)
+      cell.split.put(cell.xs[i], cell.ys[i], (V) cell.values[i]);
+    cell.xs = cell.ys = null;
+    cell.values = null;
+    cell.count = 0;
+  }
+
+  /**
+   * Removes the entry with the given coordinates, if present, and returns its
+   * associated value. Otherwise does nothing and returns null.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @SuppressWarnings({"unchecked"})
+  public V remove(double x, double y) {
+    if (!inBounds(x, y))
+      return null;                            // cannot be in the map
+    Cell<V> cell = cells[row(y) * columns + column(x)];
+    if (cell == null)
+      return null;
+    if (cell.split != null) {
+      int before = cell.split.size();
+      V old = cell.split.remove(x, y);
+      size -= before - cell.split.size();
+      return old;
+    }
+    int i = cell.indexOf(x, y);
+    if (i < 0)                                // key not found
+      return null;
+    V old = (V) cell.values[i];
+    cell.removeAt(i);
+    size--;
+    return old;
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @Override
+  public V remove(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return remove(key.getX(), key.getY());
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> entrySet() {
+    return subMap(west, north, east, south);
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(Coord<Double,Double> nwCorner,
+                                                      Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    return subMap(nwCorner.getX(), nwCorner.getY(), seCorner.getX(), seCorner.getY());
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the given
+   * rectangle (edges inclusive).
+   * @param west   the least X coordinate of the rectangle
+   * @param north  the greatest Y coordinate of the rectangle
+   * @param east   the greatest X coordinate of the rectangle
+   * @param south  the least Y coordinate of the rectangle
+   * @return iterable with keys in desired range
+   */
+  public Iterable<Entry<Coord<Double,Double>,V>> subMap(double west, double north, double east, double south) {
+    return () -> new RangeIterator(west, north, east, south);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /** Iterator reporting the entries inside a rectangle, visiting only the cells it overlaps. */
+  private class RangeIterator implements Iterator<Entry<Coord<Double,Double>,V>> {
+    private final double qWest, qNorth, qEast, qSouth;
+    private int firstColumn, lastColumn, lastRow;
+    private int column, row;                  // the cell being scanned
+    private Cell<V> cell;                     // that cell (or null)
+    private Iterator<Entry<Coord<Double,Double>,V>> inSplit;   // entries of a split cell (or null)
+    private int index;                        // the next bucket index to look at
+    private Entry<Coord<Double,Double>,V> next;   // next entry to report (or null if done)
+
+    RangeIterator(double west, double north, double east, double south) {
+      qWest = west;
+      qNorth = north;
+      qEast = east;
+      qSouth = south;
+      if (west <= east && south <= north && west <= GridSpatialMap.this.east && GridSpatialMap.this.west <= east
+          && south <= GridSpatialMap.this.north && GridSpatialMap.this.south <= north) {
+        firstColumn = column(Math.max(west, GridSpatialMap.this.west));
+        lastColumn = column(Math.min(east, GridSpatialMap.this.east));
+        row = row(Math.max(south, GridSpatialMap.this.south));
+        lastRow = row(Math.min(north, GridSpatialMap.this.north));
+        column = firstColumn - 1;             // advance moves to the first cell
+      } else
+        row = lastRow + 1;                    // there is nothing to report
+      advance();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void advance() {
+      next = null;
+      while (true) {
+        if (inSplit != null) {
+          if (inSplit.hasNext()) {
+            next = inSplit.next();
+            return;
+          }
+          inSplit = null;
+        } else if (cell != null) {
+          while (index < cell.count) {
+            int i = index++;
+            double x = cell.xs[i], y = cell.ys[i];
+            if (qWest <= x && x <= qEast && qSouth <= y && y <= qNorth) {
+              next = new MapEntry<>(new Coord<>(x, y), (V) cell.values[i]);
+              return;
+            }
+          }
+          cell = null;
+        }
+        if (++column > lastColumn) {          // move on to the next cell
+          column = firstColumn;
+          row++;
+        }
+        if (row > lastRow)
+          return;
+        Cell<V> c = cells[row * columns + column];
+        if (c == null)
+          continue;
+        if (c.split != null)
+          inSplit = c.split.subMap(qWest, qNorth, qEast, qSouth).iterator();
+        else {
+          cell = c;
+          index = 0;
+        }
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<Double,Double>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<Double,Double>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+}
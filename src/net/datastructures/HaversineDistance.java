@@ -0,0 +1,48 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+/**
+ * Great-circle distance in kilometres between keys holding a longitude (X) and
+ * a latitude (Y) in degrees, as used for the earthquake data.
+ */
+public class HaversineDistance implements DistanceFunction<Double,Double> {
+  /** Mean radius of the Earth in kilometres. */
+  public static final double EARTH_RADIUS = 6371.0088;
+
+  @Override
+  public double distance(Coord<Double,Double> a, Coord<Double,Double> b) {
+    double lat1 = Math.toRadians(a.getY());
+    double lat2 = Math.toRadians(b.getY());
+    double sinLat = Math.sin((lat2 - lat1) / 2);
+    double sinLon = Math.sin(Math.toRadians(b.getX() - a.getX()) / 2);
+    double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+
+  /**
+   * Any path to the region has to cover at least the difference in latitude,
+   * so that arc length is used as the bound. Longitude is ignored, since
+   * meridians converge towards the poles.
+   */
+  @Override
+  public double distanceToRegion(Coord<Double,Double> q, Double minX, Double maxX, Double minY, Double maxY) {
+    double lat = q.getY();
+    double gap = 0;
+    if (minY != null && lat < minY) gap = minY - lat;
+    else if (maxY != null && lat > maxY) gap = lat - maxY;
+    return EARTH_RADIUS * Math.toRadians(gap);
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map whose entries are packed into arrays in Hilbert-curve order
+ * and grouped into fixed-size blocks.
+ *
+ * As in MortonIndexMap, keys are quantized by their ranks among the distinct X
+ * and Y components (see ComponentRanks), so any comparators can be used. The
+ * entries are sorted by the Hilbert key of their ranks, which, unlike the
+ * Morton order, never jumps across the grid: consecutive entries are always
+ * neighbours, so each block of consecutive entries covers a compact area even
+ * where a query straddles a quadrant boundary.
+ *
+ * Every block records the least and greatest X and Y rank of its entries. A
+ * subMap looks at these bounding boxes first: a block outside the rectangle is
+ * skipped, a block inside it is reported whole, and only the blocks crossing
+ * its edge have their entries tested one by one. A get is a binary search for
+ * each rank, then one for the Hilbert key.
+ *
+ * The map cannot be modified: put and remove throw UnsupportedOperationException.
+ */
+public class HilbertIndexMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V> {
+
+  /** The number of entries per block used by the constructors that do not take one. */
+  public static final int DEFAULT_BLOCK_SIZE = 64;
+
+  /** The comparators defining the ordering of keys along each axis. */
+  private final Comparator<X> compX;
+  private final Comparator<Y> compY;
+
+  /** The distinct X and Y components of the keys, in increasing order. */
+  private final ComponentRanks<X> xs;
+  private final ComponentRanks<Y> ys;
+
+  /** The number of bits of a rank (the grid is 2^order wide). */
+  private final int order;
+
+  /** The Hilbert key and ranks of each entry, in increasing key order, and the matching values. */
+  private final long[] keys;
+  private final int[] xRanks;
+  private final int[] yRanks;
+  private final Object[] values;
+
+  /** The number of entries per block (only the last block may hold fewer). */
+  private final int blockSize;
+
+  /** The bounding box of each block, in ranks. */
+  private final int[] blockWest, blockEast, blockSouth, blockNorth;
+
+  /**
+   * Constructs a map holding the given entries, using the natural ordering of
+   * the key components and blocks of DEFAULT_BLOCK_SIZE entries. If several
+   * entries share a key, the last one wins, as it would with put.
+   * @param entries  the entries to be stored in the map
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public HilbertIndexMap(Iterable<? extends Entry<Coord<X,Y>,V>> entries) throws IllegalArgumentException {
+    this(entries, new DefaultComparator<X>(), new DefaultComparator<Y>(), DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Constructs a map holding the given entries, using the given comparators to
+   * order keys. If several entries share a key, the last one wins, as it would
+   * with put.
+   * @param entries  the entries to be stored in the map
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @param blockSize  the number of entries per block
+   * @throws IllegalArgumentException if a key is not compatible with the map, or blockSize is not positive
+   */
+  public HilbertIndexMap(Iterable<? extends Entry<Coord<X,Y>,V>> entries, Comparator<X> cx, Comparator<Y> cy,
+                         int blockSize) throws IllegalArgumentException {
+    if (blockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive");
+    compX = cx;
+    compY = cy;
+    this.blockSize = blockSize;
+    List<Entry<Coord<X,Y>,V>> all = new ArrayList<>();
+    List<X> allX = new ArrayList<>();
+    List<Y> allY = new ArrayList<>();
+    for (Entry<Coord<X,Y>,V> e : entries) {
+      all.add(e);
+      allX.add(e.getKey().getX());
+      allY.add(e.getKey().getY());
+    }
+    try {
+      xs = new ComponentRanks<>(allX, cx);
+      ys = new ComponentRanks<>(allY, cy);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+    int bits = 1;
+    while ((1L << bits) < Math.max(xs.size(), ys.size()))
+      bits++;
+    order = bits;
+
+    int[] xr = new int[all.size()], yr = new int[all.size()];
+    long[] unsorted = new long[all.size()];
+    List<Integer> byKey = new ArrayList<>(all.size());
+    for (int i = 0; i < all.size(); i++) {
+      Coord<X,Y> k = all.get(i).getKey();
+      xr[i] = xs.rankOf(k.getX());
+      yr[i] = ys.rankOf(k.getY());
+      unsorted[i] = hilbertKey(xr[i], yr[i]);
+      byKey.add(i);
+    }
+    Collections.sort(byKey, (a, b) -> Long.compare(unsorted[a], unsorted[b]));   // stable
+    int n = 0;
+    long[] k = new long[all.size()];
+    int[] x = new int[all.size()], y = new int[all.size()];
+    Object[] v = new Object[all.size()];
+    for (int i : byKey) {
+      if (n > 0 && k[n - 1] == unsorted[i])
+        n--;                                  // a later duplicate replaces the earlier one
+      k[n] = unsorted[i];
+      x[n] = xr[i];
+      y[n] = yr[i];
+      v[n++] = all.get(i).getValue();
+    }
+    keys = Arrays.copyOf(k, n);
+    xRanks = Arrays.copyOf(x, n);
+    yRanks = Arrays.copyOf(y, n);
+    values = Arrays.copyOf(v, n);
+
+    int blocks = (n + blockSize - 1) / blockSize;
+    blockWest = new int[blocks];
+    blockEast = new int[blocks];
+    blockSouth = new int[blocks];
+    blockNorth = new int[blocks];
+    for (int b = 0; b < blocks; b++) {
+      int west = Integer.MAX_VALUE, east = -1, south = Integer.MAX_VALUE, north = -1;
+      for (int i = b * blockSize; i < Math.min(n, (b + 1) * blockSize); i++) {
+        west = Math.min(west, xRanks[i]);
+        east = Math.max(east, xRanks[i]);
+        south = Math.min(south, yRanks[i]);
+        north = Math.max(north, yRanks[i]);
+      }
+      blockWest[b] = west;
+      blockEast[b] = east;
+      blockSouth[b] = south;
+      blockNorth[b] = north;
+    }
+  }
+
+  /**
+   * Returns the position of cell (x,y) along the Hilbert curve filling the
+   * 2^order by 2^order grid of ranks.
+   */
+  private long hilbertKey(int x, int y) {
+    long n = 1L << order;
+    long px = x, py = y;
+    long d = 0;
+    for (long s = n >> 1; s > 0; s >>= 1) {
+      int rx = (px & s) != 0 ? 1 : 0;
+      int ry = (py & s) != 0 ? 1 : 0;
+      d += s * s * ((3 * rx) ^ ry);
+      if (ry == 0) {                          // rotate the quadrant so the curve stays connected
+        if (rx == 1) {
+          px = n - 1 - px;
+          py = n - 1 - py;
+        }
+        long t = px;
+        px = py;
+        py = t;
+      }
+    }
+    return d;
+  }
+
+  /** Determines whether a key is valid. */
+  protected boolean checkKey(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return (compX.compare(key.getX(),key.getX())==0) && (compY.compare(key.getY(),key.getY())==0);   // see if key can be compared to itself
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return keys.length; }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   */
+  @Override
+  @SuppressWarnings({"unchecked"})
+  public V get(Coord<X,Y> key) throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    try {
+      int xRank = xs.rankOf(key.getX());
+      int yRank = ys.rankOf(key.getY());
+      if (xRank < 0 || yRank < 0)
+        return null;                          // no key has that X or that Y
+      int i = Arrays.binarySearch(keys, hilbertKey(xRank, yRank));
+      return (i >= 0 ? (V) values[i] : null);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Not supported, as the map is immutable.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) {
+    throw new UnsupportedOperationException("Put not supported in a frozen Map");
+  }
+
+  /**
+   * Not supported, as the map is immutable.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public V remove(Coord<X,Y> key) {
+    throw new UnsupportedOperationException("Remove not supported in a frozen Map");
+  }
+
+  /** Returns the entry at index i of the arrays. */
+  @SuppressWarnings({"unchecked"})
+  private Entry<Coord<X,Y>,V> entryAt(int i) {
+    return new MapEntry<>(new Coord<>(xs.get(xRanks[i]), ys.get(yRanks[i])), (V) values[i]);
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map, in Hilbert order.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
+    return () -> new RangeIterator(0, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive),
+   * in Hilbert order. The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner)
+          throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    try {
+      // the rectangle in rank space: ranks of the keys that can lie inside it
+      int west = xs.countBelow(nwCorner.getX(), false);
+      int east = xs.countBelow(seCorner.getX(), true) - 1;
+      int south = ys.countBelow(seCorner.getY(), false);
+      int north = ys.countBelow(nwCorner.getY(), true) - 1;
+      return () -> new RangeIterator(west, north, east, south);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /** Iterator reporting the entries inside a rectangle of ranks, skipping blocks outside it. */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final int west, north, east, south;
+    private int block = -1;                   // the block being scanned
+    private int end;                          // the index just past that block
+    private boolean covered;                  // whether that block lies inside the rectangle
+    private int i;                            // index of next entry to report (or keys.length if done)
+
+    RangeIterator(int west, int north, int east, int south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (west > east || south > north)
+        block = blockWest.length;             // there is nothing to report
+      advance();
+    }
+
+    /** Moves i forward to the next entry inside the rectangle, if any. */
+    private void advance() {
+      while (true) {
+        for (; i < end; i++)
+          if (covered || (west <= xRanks[i] && xRanks[i] <= east && south <= yRanks[i] && yRanks[i] <= north))
+            return;
+        if (++block >= blockWest.length) {
+          i = keys.length;
+          return;
+        }
+        if (blockEast[block] < west || east < blockWest[block]
+            || blockNorth[block] < south || north < blockSouth[block])
+          continue;                           // the whole block lies outside the rectangle
+        covered = west <= blockWest[block] && blockEast[block] <= east
+                  && south <= blockSouth[block] && blockNorth[block] <= north;
+        i = block * blockSize;
+        end = Math.min(keys.length, i + blockSize);
+      }
+    }
+
+    public boolean hasNext() { return i < keys.length; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (i == keys.length) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = entryAt(i++);
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+}
@@ -0,0 +1,462 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map using a two-dimensional k-d tree.
+ *
+ * Each node splits on a single axis, alternating between X (at even depths)
+ * and Y (at odd depths). A key whose component on the splitting axis is less
+ * than the node's goes to the low child; an equal or greater one goes to the
+ * high child, matching the way SpatialTreeMap sends ties east and north.
+ * Because each split only has to balance one axis, a median split halves
+ * clustered data much more evenly than a single four-way pivot can.
+ */
+public class KdTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V> {
+
+  //---------------- nested Node class ----------------
+  /** A node of the tree, holding one entry and its low and high children. */
+  private static class Node<E> {
+    private E element;
+    private Node<E> low;              // keys less than this one on the splitting axis
+    private Node<E> high;             // keys equal or greater on the splitting axis
+    Node(E element) { this.element = element; }
+  } //----------- end of nested Node class -----------
+
+  /** The comparators defining the ordering of keys along each axis. */
+  private Comparator<X> compX;
+  private Comparator<Y> compY;
+
+  /** The root of the tree (or null if the map is empty). */
+  private Node<Entry<Coord<X,Y>,V>> root = null;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /** Constructs an empty map using the natural ordering of keys. */
+  public KdTreeMap() {
+    this(new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Constructs an empty map using the given comparators to order keys.
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   */
+  public KdTreeMap(Comparator<X> cx, Comparator<Y> cy) {
+    compX = cx;
+    compY = cy;
+  }
+
+  /**
+   * Constructs a map holding the given entries, using the natural ordering of
+   * the key components. See {@link #bulkLoad(Iterable, Comparator, Comparator)}.
+   * @param entries  the entries to be stored in the map
+   * @return a new map whose tree is balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> KdTreeMap<X,Y,V> bulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries)
+          throws IllegalArgumentException {
+    return bulkLoad(entries, new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Constructs a map holding the given entries. The tree is built top-down,
+   * each node splitting its entries at the median along its axis, so the
+   * height is about log2(n) whatever the order of the input. If several
+   * entries share a key, the last one wins, as it would with put.
+   * @param entries  the entries to be stored in the map
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @return a new map whose tree is balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> KdTreeMap<X,Y,V> bulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries,
+                                                  Comparator<X> cx, Comparator<Y> cy)
+          throws IllegalArgumentException {
+    KdTreeMap<X,Y,V> map = new KdTreeMap<>(cx, cy);
+    List<Entry<Coord<X,Y>,V>> all = new ArrayList<>();
+    for (Entry<Coord<X,Y>,V> e : entries) {
+      map.checkKey(e.getKey());               // may throw IllegalArgumentException
+      all.add(new MapEntry<>(e.getKey(), e.getValue()));
+    }
+    map.sortByX(all);                         // stable, so later duplicates stay later
+    List<Entry<Coord<X,Y>,V>> byX = new ArrayList<>(all.size());
+    for (Entry<Coord<X,Y>,V> e : all) {
+      int last = byX.size() - 1;
+      if (last >= 0 && map.sameKey(byX.get(last).getKey(), e.getKey()))
+        byX.set(last, e);                     // a later duplicate replaces the earlier one
+      else
+        byX.add(e);
+    }
+    map.root = map.buildSubtree(byX, 0);
+    map.size = byX.size();
+    return map;
+  }
+
+  /** Determines whether a key is valid. */
+  protected boolean checkKey(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return (compX.compare(key.getX(),key.getX())==0) && (compY.compare(key.getY(),key.getY())==0);   // see if key can be compared to itself
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Compares key with the key of a node at the given depth along that node's
+   * splitting axis, returning a negative number if key belongs in the low child.
+   */
+  private int compareOnAxis(Coord<X,Y> key, Coord<X,Y> other, int depth) {
+    return (depth % 2 == 0 ? compX.compare(key.getX(), other.getX())
+                           : compY.compare(key.getY(), other.getY()));
+  }
+
+  /** Returns true if the two keys compare equal along both axes. */
+  private boolean sameKey(Coord<X,Y> a, Coord<X,Y> b) {
+    return compX.compare(a.getX(), b.getX()) == 0 && compY.compare(a.getY(), b.getY()) == 0;
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   */
+  @Override
+  public V get(Coord<X,Y> key) throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    try {
+      Node<Entry<Coord<X,Y>,V>> walk = root;
+      for (int depth = 0; walk != null; depth++) {
+        Coord<X,Y> k = walk.element.getKey();
+        if (sameKey(key, k))
+          return walk.element.getValue();
+        walk = (compareOnAxis(key, k, depth) < 0 ? walk.low : walk.high);
+      }
+      return null;
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    Node<Entry<Coord<X,Y>,V>> fresh = new Node<>(new MapEntry<>(key, value));
+    if (root == null) {
+      root = fresh;
+      size++;
+      return null;
+    }
+    try {
+      Node<Entry<Coord<X,Y>,V>> walk = root;
+      for (int depth = 0; ; depth++) {
+        Coord<X,Y> k = walk.element.getKey();
+        if (sameKey(key, k)) {                // replacing existing key
+          V old = walk.element.getValue();
+          walk.element = fresh.element;
+          return old;
+        }
+        boolean low = compareOnAxis(key, k, depth) < 0;
+        Node<Entry<Coord<X,Y>,V>> child = (low ? walk.low : walk.high);
+        if (child == null) {                  // key is new
+          if (low) walk.low = fresh; else walk.high = fresh;
+          size++;
+          return null;
+        }
+        walk = child;
+      }
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * The subtree below the removed entry is rebuilt in its place.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   */
+  @Override
+  public V remove(Coord<X,Y> key) throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    try {
+      Node<Entry<Coord<X,Y>,V>> parent = null;
+      Node<Entry<Coord<X,Y>,V>> walk = root;
+      int depth = 0;
+      while (walk != null && !sameKey(key, walk.element.getKey())) {
+        parent = walk;
+        walk = (compareOnAxis(key, walk.element.getKey(), depth) < 0 ? walk.low : walk.high);
+        depth++;
+      }
+      if (walk == null)                       // key not found
+        return null;
+      // every entry below walk lies in the region its ancestors assign to it,
+      // so they can be rebuilt in its place without touching the rest of the tree
+      List<Entry<Coord<X,Y>,V>> rest = new ArrayList<>();
+      ArrayList<Node<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+      if (walk.low != null) stack.add(walk.low);
+      if (walk.high != null) stack.add(walk.high);
+      while (!stack.isEmpty()) {
+        Node<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+        rest.add(p.element);
+        if (p.low != null) stack.add(p.low);
+        if (p.high != null) stack.add(p.high);
+      }
+      sortByX(rest);
+      Node<Entry<Coord<X,Y>,V>> replacement = buildSubtree(rest, depth);
+      if (parent == null)
+        root = replacement;
+      else if (parent.low == walk)
+        parent.low = replacement;
+      else
+        parent.high = replacement;
+      size--;
+      return walk.element.getValue();
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  //---------------- support for bulk loading ----------------
+  /** Sorts a list of entries by X, then Y (the sort is stable). */
+  private void sortByX(List<Entry<Coord<X,Y>,V>> list) {
+    Collections.sort(list, (a, b) -> {
+      int c = compX.compare(a.getKey().getX(), b.getKey().getX());
+      return c != 0 ? c : compY.compare(a.getKey().getY(), b.getKey().getY());
+    });
+  }
+
+  /**
+   * Returns a balanced subtree rooted at the given depth holding the given
+   * distinct entries, which must be ordered by X.
+   */
+  private Node<Entry<Coord<X,Y>,V>> buildSubtree(List<Entry<Coord<X,Y>,V>> byX, int depth) {
+    List<Entry<Coord<X,Y>,V>> byY = new ArrayList<>(byX);
+    Collections.sort(byY, (a, b) -> compY.compare(a.getKey().getY(), b.getKey().getY()));
+    return buildSubtree(byX, byY, depth);
+  }
+
+  /**
+   * Returns a balanced subtree rooted at the given depth holding the given
+   * distinct entries, supplied both in X order and in Y order. The pivot is
+   * the median along the node's axis, moved down past any entries tying with
+   * it so that every tie lands in the high child. Both lists are partitioned
+   * stably, so no sorting is needed below the top level.
+   */
+  private Node<Entry<Coord<X,Y>,V>> buildSubtree(List<Entry<Coord<X,Y>,V>> byX,
+                                                 List<Entry<Coord<X,Y>,V>> byY, int depth) {
+    if (byX.isEmpty())
+      return null;
+    List<Entry<Coord<X,Y>,V>> sorted = (depth % 2 == 0 ? byX : byY);
+    List<Entry<Coord<X,Y>,V>> other = (depth % 2 == 0 ? byY : byX);
+    int m = sorted.size() / 2;
+    Coord<X,Y> median = sorted.get(m).getKey();
+    while (m > 0 && compareOnAxis(sorted.get(m - 1).getKey(), median, depth) == 0)
+      m--;
+    Entry<Coord<X,Y>,V> pivot = sorted.get(m);
+    List<Entry<Coord<X,Y>,V>> sortedLow = sorted.subList(0, m);
+    List<Entry<Coord<X,Y>,V>> sortedHigh = sorted.subList(m + 1, sorted.size());
+    List<Entry<Coord<X,Y>,V>> otherLow = new ArrayList<>(m);
+    List<Entry<Coord<X,Y>,V>> otherHigh = new ArrayList<>(sorted.size() - m - 1);
+    for (Entry<Coord<X,Y>,V> e : other)
+      if (e != pivot)
+        (compareOnAxis(e.getKey(), pivot.getKey(), depth) < 0 ? otherLow : otherHigh).add(e);
+    Node<Entry<Coord<X,Y>,V>> node = new Node<>(pivot);
+    if (depth % 2 == 0) {
+      node.low = buildSubtree(sortedLow, otherLow, depth + 1);
+      node.high = buildSubtree(sortedHigh, otherHigh, depth + 1);
+    } else {
+      node.low = buildSubtree(otherLow, sortedLow, depth + 1);
+      node.high = buildSubtree(otherHigh, sortedHigh, depth + 1);
+    }
+    return node;
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
+    ArrayList<Entry<Coord<X,Y>,V>> buffer = new ArrayList<>(size());
+    ArrayList<Node<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    if (root != null)
+      stack.add(root);                        // walk the tree without recursion
+    while (!stack.isEmpty()) {
+      Node<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      buffer.add(p.element);
+      if (p.high != null) stack.add(p.high);
+      if (p.low != null) stack.add(p.low);
+    }
+    return buffer;
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner)
+          throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    return () -> new RangeIterator(nwCorner, seCorner);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /** Iterator reporting the entries inside a rectangle, pruning subtrees outside it. */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner, seCorner;
+    private final ArrayList<Node<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    private final ArrayList<Integer> depths = new ArrayList<>();
+    private Entry<Coord<X,Y>,V> next;         // next entry to report (or null if done)
+
+    RangeIterator(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+      if (root != null && compX.compare(nwCorner.getX(), seCorner.getX()) <= 0
+          && compY.compare(seCorner.getY(), nwCorner.getY()) <= 0) {
+        stack.add(root);                      // otherwise there is nothing to report
+        depths.add(0);
+      }
+      advance();
+    }
+
+    private void push(Node<Entry<Coord<X,Y>,V>> p, int depth) {
+      if (p != null) {
+        stack.add(p);
+        depths.add(depth);
+      }
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Node<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+        int depth = depths.remove(depths.size() - 1);
+        Coord<X,Y> e = p.element.getKey();
+        int w = compX.compare(nwCorner.getX(), e.getX());
+        int east = compX.compare(seCorner.getX(), e.getX());
+        int n = compY.compare(nwCorner.getY(), e.getY());
+        int s = compY.compare(seCorner.getY(), e.getY());
+        // push high first so that the low child is reported first
+        if (depth % 2 == 0) {
+          if (east >= 0) push(p.high, depth + 1);
+          if (w < 0) push(p.low, depth + 1);
+        } else {
+          if (n >= 0) push(p.high, depth + 1);
+          if (s < 0) push(p.low, depth + 1);
+        }
+        if (w <= 0 && east >= 0 && s <= 0 && n >= 0)
+          next = p.element;                   // p itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  /**
+   * Returns the k entries whose keys are closest to the given key, nearest
+   * first (fewer if the map holds fewer than k entries). The tree is searched
+   * best-first, as in SpatialTreeMap.nearest, but each node only narrows its
+   * region along its own axis.
+   * @param key  the key whose neighbours are wanted
+   * @param k  the number of neighbours wanted
+   * @param distance  the distance function used to rank keys
+   * @return iterable with up to k entries, in increasing distance from key
+   * @throws IllegalArgumentException if the key is not compatible with the map or k is negative
+   */
+  public Iterable<Entry<Coord<X,Y>,V>> nearest(Coord<X,Y> key, int k, DistanceFunction<X,Y> distance)
+          throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    NearestSearch<X,Y,V,Node<Entry<Coord<X,Y>,V>>> search = new NearestSearch<>(root, key, k, distance);
+    for (NearestSearch.Region<X,Y,Node<Entry<Coord<X,Y>,V>>> r; (r = search.next()) != null; ) {
+      Entry<Coord<X,Y>,V> e = r.node.element;
+      search.offer(e);
+      X x = e.getKey().getX();
+      Y y = e.getKey().getY();
+      if (r.depth % 2 == 0) {
+        search.explore(r.node.low, r.depth + 1, r.minX, x, r.minY, r.maxY);
+        search.explore(r.node.high, r.depth + 1, x, r.maxX, r.minY, r.maxY);
+      } else {
+        search.explore(r.node.low, r.depth + 1, r.minX, r.maxX, r.minY, y);
+        search.explore(r.node.high, r.depth + 1, r.minX, r.maxX, y, r.maxY);
+      }
+    }
+    return search.result();
+  }
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /** Returns the number of entry levels in the tree (0 for an empty map). */
+  /*protected*/ public int treeHeight() {
+    int height = 0;
+    ArrayList<Node<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    ArrayList<Integer> depths = new ArrayList<>();
+    if (root != null) {
+      stack.add(root);
+      depths.add(1);
+    }
+    while (!stack.isEmpty()) {
+      Node<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      int depth = depths.remove(depths.size() - 1);
+      height = Math.max(height, depth);
+      if (p.low != null) { stack.add(p.low); depths.add(depth + 1); }
+      if (p.high != null) { stack.add(p.high); depths.add(depth + 1); }
+    }
+    return height;
+  }
+}
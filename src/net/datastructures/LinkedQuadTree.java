@@ -18,7 +18,7 @@ package net.datastructures;
  * Concrete implementation of a quad tree using a node-based, linked structure.
  *
  */
-public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
+public class LinkedQuadTree<E> extends AbstractQuadTree<E> implements MutableQuadTree<E> {
   //---------------- nested Node class ----------------
   /** Nested static class for a quad tree node. */
   protected static class Node<E> implements Position<E> {
@@ -221,6 +221,25 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
     return node.getSe();
   }
 
+  /**
+   * Returns the Position of p's child in the given quadrant (or null if no
+   * child exists), without validating p.
+   *
+   * @param p  a Position obtained from this tree
+   * @param quadrant  one of NW, NE, SW or SE
+   * @return the Position of the child (or null if no child exists)
+   */
+  @Override
+  public Position<E> child(Position<E> p, int quadrant) {
+    Node<E> node = (Node<E>) p;
+    switch (quadrant) {
+      case NW: return node.nw;
+      case NE: return node.ne;
+      case SW: return node.sw;
+      default: return node.se;
+    }
+  }
+
   // update methods supported by this class
   /**
    * Places element e at the root of an empty tree and returns its new Position.
@@ -229,6 +248,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @return the Position of the new element
    * @throws IllegalStateException if the tree is not empty
    */
+  @Override
   public Position<E> addRoot(E e) throws IllegalStateException {
     if (!isEmpty()) throw new IllegalStateException("Tree is not empty");
     root = createNode(e, null, null, null, null, null);
@@ -245,6 +265,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @throws IllegalArgumentException if p is not a valid Position for this tree
    * @throws IllegalArgumentException if p already has a left child
    */
+  @Override
   public Position<E> addNW(Position<E> p, E e)
                           throws IllegalArgumentException {
     Node<E> parent = validate(p);
@@ -265,6 +286,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @throws IllegalArgumentException if p is not a valid Position for this tree.
    * @throws IllegalArgumentException if p already has a right child
    */
+  @Override
   public Position<E> addNE(Position<E> p, E e)
                           throws IllegalArgumentException {
     Node<E> parent = validate(p);
@@ -285,6 +307,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @throws IllegalArgumentException if p is not a valid Position for this tree
    * @throws IllegalArgumentException if p already has a left child
    */
+  @Override
   public Position<E> addSW(Position<E> p, E e)
           throws IllegalArgumentException {
     Node<E> parent = validate(p);
@@ -305,6 +328,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @throws IllegalArgumentException if p is not a valid Position for this tree.
    * @throws IllegalArgumentException if p already has a right child
    */
+  @Override
   public Position<E> addSE(Position<E> p, E e)
           throws IllegalArgumentException {
     Node<E> parent = validate(p);
@@ -325,6 +349,7 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @return the replaced element
    * @throws IllegalArgumentException if p is not a valid Position for this tree.
    */
+  @Override
   public E set(Position<E> p, E e) throws IllegalArgumentException {
     Node<E> node = validate(p);
     E temp = node.getElement();
@@ -338,9 +363,40 @@ public class LinkedQuadTree<E> extends AbstractQuadTree<E> {
    * @param p   the relevant Position
    * @return element that was removed
    * @throws IllegalArgumentException if p is not a valid Position for this tree.
-   * @throws IllegalArgumentException if p has two children.
+   * @throws IllegalArgumentException if p has more than one child.
    */
+  @Override
   public E remove(Position<E> p) throws IllegalArgumentException {
-    throw new UnsupportedOperationException("This QuadTree only supports adding not removing");
+    Node<E> node = validate(p);
+    if (numChildren(p) > 1)
+      throw new IllegalArgumentException("p has more than one child");
+    Node<E> child = node.getNw();
+    if (child == null) child = node.getNe();
+    if (child == null) child = node.getSw();
+    if (child == null) child = node.getSe();
+    if (child != null)
+      child.setParent(node.getParent());  // child's grandparent becomes its parent
+    if (node == root)
+      root = child;                       // child becomes root
+    else {
+      Node<E> parent = node.getParent();
+      if (node == parent.getNw())
+        parent.setNw(child);
+      else if (node == parent.getNe())
+        parent.setNe(child);
+      else if (node == parent.getSw())
+        parent.setSw(child);
+      else
+        parent.setSe(child);
+    }
+    size--;
+    E temp = node.getElement();
+    node.setElement(null);                // help garbage collection
+    node.setNw(null);
+    node.setNe(null);
+    node.setSw(null);
+    node.setSe(null);
+    node.setParent(node);                 // our convention for defunct node
+    return temp;
   }
-} //----------- end of LinkedBinaryTree class -----------
+} //----------- end of LinkedQuadTree class -----------
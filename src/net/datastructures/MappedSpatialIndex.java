@@ -0,0 +1,396 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only quad search tree queried directly inside a memory-mapped file.
+ *
+ * The file holds the nodes of a SpatialTreeMap with double coordinates and
+ * integer values (typically row numbers into a separate record store) as
+ * fixed-width records, so opening an index costs the same whatever its size,
+ * no object is created per node, and several processes mapping the same file
+ * share one copy of it in the page cache. Queries read the buffer with
+ * absolute gets only, so any number of threads may query an index at once.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int MAGIC, int VERSION, int number of nodes, int reserved (0)
+ *   node records in breadth-first order, the root first:
+ *     double x, double y, int nw, int ne, int sw, int se, int value
+ * </pre>
+ * A child is given by its record number, or -1 if absent; being written
+ * breadth-first, a child always comes after its parent. Queries check this
+ * for every child they follow, so a damaged file makes them throw an
+ * UncheckedIOException instead of reading past the nodes or going round a
+ * cycle for ever. One file can hold up to about 59 million nodes, the limit
+ * of a single mapped buffer.
+ */
+public class MappedSpatialIndex extends AbstractMap<Coord<Double,Double>,Integer>
+                                implements Sorted2DMap<Double,Double,Integer> {
+
+  /** The first four bytes of an index file: "SQTM". */
+  public static final int MAGIC = 0x5351544D;
+
+  /** The version of the layout written by this class. */
+  public static final int VERSION = 1;
+
+  private static final int HEADER = 16;     // bytes before the first node
+  private static final int NODE = 36;       // bytes per node
+  private static final int X = 0, Y = 8, CHILDREN = 16, VALUE = 32;   // offsets within a node
+  private static final int NONE = -1;
+
+  private final ByteBuffer buffer;
+  private final int size;
+
+  /**
+   * Writes the tree of a map to an index file, replacing the file if it exists.
+   * The map must order its keys as Double.compare does (its default comparators
+   * do) and must not hold null values.
+   * @param map   the map to be written
+   * @param file  the file receiving the index
+   * @throws IllegalArgumentException if the map has a null value, or does not order keys naturally
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(SpatialTreeMap<Double,Double,Integer> map, Path file) throws IOException {
+    try (OutputStream os = Files.newOutputStream(file)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(map.size());
+      out.writeInt(0);
+      MutableQuadTree<Entry<Coord<Double,Double>,Integer>> tree = map.tree;
+      // breadth-first, so the record number of each child is known when its parent is written
+      ArrayList<Position<Entry<Coord<Double,Double>,Integer>>> queue = new ArrayList<>();
+      if (!map.isEmpty()) queue.add(tree.root());
+      for (int head = 0; head < queue.size(); head++) {
+        Position<Entry<Coord<Double,Double>,Integer>> p = queue.get(head);
+        queue.set(head, null);                // let written positions go
+        Entry<Coord<Double,Double>,Integer> e = p.getElement();
+        double x = e.getKey().getX();
+        double y = e.getKey().getY();
+        if (e.getValue() == null)
+          throw new IllegalArgumentException("Null values cannot be indexed");
+        out.writeDouble(x);
+        out.writeDouble(y);
+        for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++) {
+          Position<Entry<Coord<Double,Double>,Integer>> c = tree.child(p, q);
+          if (c == null)
+            out.writeInt(NONE);
+          else {
+            Coord<Double,Double> k = c.getElement().getKey();
+            if (quadrant(k.getX(), k.getY(), x, y) != q)   // the queries rely on Double.compare
+              throw new IllegalArgumentException("Map does not order keys naturally");
+            out.writeInt(queue.size());
+            queue.add(c);
+          }
+        }
+        out.writeInt(e.getValue());
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Maps an index file into memory, read-only. The file must not change while it is open.
+   * @param file  a file written by write
+   * @return the index held in the file
+   * @throws IOException if the file cannot be mapped, or is not a valid index
+   */
+  public static MappedSpatialIndex open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedSpatialIndex(buffer);  // the mapping outlives the channel
+    }
+  }
+
+  /**
+   * Constructs an index over a buffer holding the bytes of an index file.
+   * @throws IOException if the buffer does not hold a valid index
+   */
+  public MappedSpatialIndex(ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC)
+      throw new IOException("Not a spatial index");
+    int version = buffer.getInt(4);
+    if (version != VERSION)
+      throw new IOException("Unsupported index version " + version);
+    int n = buffer.getInt(8);
+    if (n < 0 || buffer.capacity() != HEADER + (long) n * NODE)
+      throw new IOException("Truncated spatial index");
+    this.buffer = buffer;
+    this.size = n;
+  }
+
+  /** Returns the quadrant of pivot (px,py) in which key (x,y) belongs, breaking ties as SpatialTreeMap. */
+  private static int quadrant(double x, double y, double px, double py) {
+    if (Double.compare(y, py) >= 0)
+      return (Double.compare(x, px) >= 0 ? MutableQuadTree.NE : MutableQuadTree.NW);
+    else
+      return (Double.compare(x, px) >= 0 ? MutableQuadTree.SE : MutableQuadTree.SW);
+  }
+
+  private double x(int node) { return buffer.getDouble(HEADER + node * NODE + X); }
+  private double y(int node) { return buffer.getDouble(HEADER + node * NODE + Y); }
+
+  /**
+   * Returns the record number of a child of a node, or -1 if it is absent.
+   * @throws UncheckedIOException if the child is neither absent nor a later node of the file
+   */
+  private int child(int node, int quadrant) {
+    int c = buffer.getInt(HEADER + node * NODE + CHILDREN + 4 * quadrant);
+    if (c != NONE && (c <= node || c >= size))
+      throw new UncheckedIOException(new IOException("Damaged spatial index: node " + node + " has child " + c));
+    return c;
+  }
+
+  private int value(int node) { return buffer.getInt(HEADER + node * NODE + VALUE); }
+
+  private Entry<Coord<Double,Double>,Integer> entry(int node) {
+    return new MapEntry<>(new Coord<>(x(node), y(node)), value(node));
+  }
+
+  /** Determines whether a key is valid. */
+  protected void checkKey(Coord<Double,Double> key) throws IllegalArgumentException {
+    if (key == null || key.getX() == null || key.getY() == null)
+      throw new IllegalArgumentException("Incompatible key");
+  }
+
+  /**
+   * Returns the number of entries in the index.
+   * @return number of entries in the index
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * Returns the record number of the node with key (x,y), or -1 if there is none.
+   */
+  private int find(double x, double y) {
+    int node = (size == 0 ? NONE : 0);
+    while (node != NONE) {
+      double nx = x(node), ny = y(node);
+      if (Double.compare(x, nx) == 0 && Double.compare(y, ny) == 0)
+        return node;
+      node = child(node, quadrant(x, y, nx, ny));
+    }
+    return NONE;
+  }
+
+  /**
+   * Returns the value associated with the given coordinates, or null if no such entry exists.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @return the associated value, or null if no such entry exists
+   */
+  public Integer get(double x, double y) {
+    int node = find(x, y);
+    return (node == NONE ? null : value(node));
+  }
+
+  /**
+   * Returns the value associated with the given coordinates, or the given
+   * default if no such entry exists, without creating any object.
+   * @param x  the X coordinate of the key
+   * @param y  the Y coordinate of the key
+   * @param absent  the value returned if the key is not in the index
+   * @return the associated value, or absent if no such entry exists
+   */
+  public int getInt(double x, double y, int absent) {
+    int node = find(x, y);
+    return (node == NONE ? absent : value(node));
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public Integer get(Coord<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    return get(key.getX(), key.getY());
+  }
+
+  /**
+   * The index is read-only.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public Integer put(Coord<Double,Double> key, Integer value) {
+    throw new UnsupportedOperationException("A mapped index is read-only");
+  }
+
+  /**
+   * The index is read-only.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public Integer remove(Coord<Double,Double> key) {
+    throw new UnsupportedOperationException("A mapped index is read-only");
+  }
+
+  /**
+   * Returns an iterable collection of all key-value entries of the index, in
+   * the order of the file; entries are created as the result is iterated.
+   * @return iterable collection of the index's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,Integer>> entrySet() {
+    return () -> new Iterator<Entry<Coord<Double,Double>,Integer>>() {
+      private int node = 0;
+      public boolean hasNext() { return node < size; }
+      public Entry<Coord<Double,Double>,Integer> next() {
+        if (node >= size) throw new NoSuchElementException("No more entries");
+        return entry(node++);
+      }
+      public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+    };
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<Double,Double>,Integer>> subMap(Coord<Double,Double> nwCorner,
+                                                             Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    return subMap(nwCorner.getX(), nwCorner.getY(), seCorner.getX(), seCorner.getY());
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the given rectangle (edges inclusive).
+   * @param west   the least X coordinate of the rectangle
+   * @param north  the greatest Y coordinate of the rectangle
+   * @param east   the greatest X coordinate of the rectangle
+   * @param south  the least Y coordinate of the rectangle
+   * @return iterable with keys in desired range
+   */
+  public Iterable<Entry<Coord<Double,Double>,Integer>> subMap(double west, double north, double east, double south) {
+    return () -> new RangeIterator(west, north, east, south);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /**
+   * Iterator reporting the entries whose keys lie inside a rectangle. It keeps a
+   * stack of record numbers still to be explored and only pushes the children
+   * whose quadrant can overlap the rectangle.
+   */
+  private class RangeIterator implements Iterator<Entry<Coord<Double,Double>,Integer>> {
+    private final double west, north, east, south;
+    private int[] stack = new int[64];
+    private int depth = 0;
+    private int next = NONE;                          // next node to report (or NONE if done)
+
+    RangeIterator(double west, double north, double east, double south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (size > 0 && Double.compare(west, east) <= 0 && Double.compare(south, north) <= 0)
+        stack[depth++] = 0;                           // otherwise the rectangle is empty
+      advance();
+    }
+
+    private void push(int node) {
+      if (node == NONE) return;
+      if (depth == stack.length) stack = java.util.Arrays.copyOf(stack, 2 * depth);
+      stack[depth++] = node;
+    }
+
+    /** Moves to the next node inside the rectangle, pruning quadrants outside it. */
+    private void advance() {
+      next = NONE;
+      while (next == NONE && depth > 0) {
+        int node = stack[--depth];
+        double x = x(node), y = y(node);
+        int w = Double.compare(west, x);
+        int e = Double.compare(east, x);
+        int n = Double.compare(north, y);
+        int s = Double.compare(south, y);
+        // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+        if (e >= 0 && s < 0) push(child(node, MutableQuadTree.SE));
+        if (w < 0 && s < 0) push(child(node, MutableQuadTree.SW));
+        if (e >= 0 && n >= 0) push(child(node, MutableQuadTree.NE));
+        if (w < 0 && n >= 0) push(child(node, MutableQuadTree.NW));
+        if (w <= 0 && e >= 0 && s <= 0 && n >= 0)
+          next = node;                                // the node itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != NONE; }
+
+    public Entry<Coord<Double,Double>,Integer> next() {
+      if (next == NONE) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<Double,Double>,Integer> answer = entry(next);
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  /**
+   * Returns the k entries whose keys are closest to the given key, nearest
+   * first (fewer if the index holds fewer than k entries), searching the tree
+   * best-first as SpatialTreeMap.nearest does.
+   * @param key  the key whose neighbours are wanted
+   * @param k  the number of neighbours wanted
+   * @param distance  the distance function used to rank keys
+   * @return iterable with up to k entries, in increasing distance from key
+   * @throws IllegalArgumentException if the key is not compatible with the map or k is negative
+   */
+  public Iterable<Entry<Coord<Double,Double>,Integer>> nearest(Coord<Double,Double> key, int k,
+                                                              DistanceFunction<Double,Double> distance)
+          throws IllegalArgumentException {
+    checkKey(key);
+    NearestSearch<Double,Double,Integer,Integer> search = new NearestSearch<>(size > 0 ? 0 : null, key, k, distance);
+    for (NearestSearch.Region<Double,Double,Integer> r; (r = search.next()) != null; ) {
+      int node = r.node;
+      Entry<Coord<Double,Double>,Integer> e = entry(node);
+      search.offer(e);
+      Double x = e.getKey().getX();
+      Double y = e.getKey().getY();
+      search.explore(link(child(node, MutableQuadTree.NW)), 0, r.minX, x, y, r.maxY);
+      search.explore(link(child(node, MutableQuadTree.NE)), 0, x, r.maxX, y, r.maxY);
+      search.explore(link(child(node, MutableQuadTree.SW)), 0, r.minX, x, r.minY, y);
+      search.explore(link(child(node, MutableQuadTree.SE)), 0, x, r.maxX, r.minY, y);
+    }
+    return search.result();
+  }
+
+  /** Returns a child as a subtree of a nearest search: null if it is absent. */
+  private static Integer link(int child) {
+    return (child == NONE ? null : child);
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map whose entries are packed into arrays in Morton (Z) order.
+ *
+ * Keys are quantized by rank: the distinct X components are kept in one sorted
+ * list and the distinct Y components in another (see ComponentRanks), and each
+ * key is represented by the pair of its ranks in these lists. Interleaving the bits of the two
+ * ranks gives the key's Morton code, and the entries are stored sorted by code
+ * in a long[] with a parallel array of values. Because ranks preserve the order
+ * of each axis, this works for any comparators, not just for numbers.
+ *
+ * A get is three binary searches (the two ranks, then the code). A subMap scans
+ * the codes between the Morton codes of the rectangle's corners, and whenever
+ * it leaves the rectangle it jumps ahead to the next code inside it (BIGMIN),
+ * so it only touches runs of entries that lie in the rectangle.
+ *
+ * The map cannot be modified: put and remove throw UnsupportedOperationException.
+ * Use SpatialTreeMap.freeze to build one from an existing map.
+ */
+public class MortonIndexMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V> {
+
+  /** The bits of a Morton code that come from the X rank (Y takes the odd ones). */
+  private static final long X_BITS = 0x5555555555555555L;
+  private static final long Y_BITS = 0xAAAAAAAAAAAAAAAAL;
+
+  /** The comparators defining the ordering of keys along each axis. */
+  private final Comparator<X> compX;
+  private final Comparator<Y> compY;
+
+  /** The distinct X and Y components of the keys, in increasing order. */
+  private final ComponentRanks<X> xs;
+  private final ComponentRanks<Y> ys;
+
+  /** The Morton code of each entry's ranks, in increasing order, and the matching values. */
+  private final long[] codes;
+  private final Object[] values;
+
+  /**
+   * Constructs a map holding the given entries, using the natural ordering of
+   * the key components. If several entries share a key, the last one wins, as
+   * it would with put.
+   * @param entries  the entries to be stored in the map
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public MortonIndexMap(Iterable<? extends Entry<Coord<X,Y>,V>> entries) throws IllegalArgumentException {
+    this(entries, new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Constructs a map holding the given entries, using the given comparators to
+   * order keys. If several entries share a key, the last one wins, as it would
+   * with put.
+   * @param entries  the entries to be stored in the map
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public MortonIndexMap(Iterable<? extends Entry<Coord<X,Y>,V>> entries, Comparator<X> cx, Comparator<Y> cy)
+          throws IllegalArgumentException {
+    compX = cx;
+    compY = cy;
+    List<Entry<Coord<X,Y>,V>> all = new ArrayList<>();
+    List<X> allX = new ArrayList<>();
+    List<Y> allY = new ArrayList<>();
+    for (Entry<Coord<X,Y>,V> e : entries) {
+      all.add(e);
+      allX.add(e.getKey().getX());
+      allY.add(e.getKey().getY());
+    }
+    try {
+      xs = new ComponentRanks<>(allX, cx);
+      ys = new ComponentRanks<>(allY, cy);
+      long[] unsorted = new long[all.size()];
+      List<Integer> order = new ArrayList<>(all.size());
+      for (int i = 0; i < all.size(); i++) {
+        Coord<X,Y> k = all.get(i).getKey();
+        unsorted[i] = interleave(xs.rankOf(k.getX()), ys.rankOf(k.getY()));
+        order.add(i);
+      }
+      Collections.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));   // stable
+      int n = 0;
+      long[] packed = new long[all.size()];
+      Object[] vals = new Object[all.size()];
+      for (int i : order) {
+        if (n > 0 && packed[n - 1] == unsorted[i])
+          n--;                                // a later duplicate replaces the earlier one
+        packed[n] = unsorted[i];
+        vals[n++] = all.get(i).getValue();
+      }
+      codes = Arrays.copyOf(packed, n);
+      values = Arrays.copyOf(vals, n);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /** Returns the Morton code of the given ranks: X rank bits at even positions, Y rank bits at odd ones. */
+  private static long interleave(int xRank, int yRank) {
+    return spread(xRank) | (spread(yRank) << 1);
+  }
+
+  /** Moves bit i of v to bit 2i of the result. */
+  private static long spread(int v) {
+    long x = v & 0xFFFFFFFFL;
+    x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+    x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x << 2)) & 0x3333333333333333L;
+    x = (x | (x << 1)) & 0x5555555555555555L;
+    return x;
+  }
+
+  /** Moves bit 2i of v to bit i of the result (the inverse of spread). */
+  private static int compact(long v) {
+    long x = v & 0x5555555555555555L;
+    x = (x | (x >>> 1)) & 0x3333333333333333L;
+    x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+    x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+    return (int) x;
+  }
+
+  /** Determines whether a key is valid. */
+  protected boolean checkKey(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return (compX.compare(key.getX(),key.getX())==0) && (compY.compare(key.getY(),key.getY())==0);   // see if key can be compared to itself
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return codes.length; }
+
+  /** Returns the index of the first code that is at least the given one, searching from index lo. */
+  private int lowerBound(long code, int lo) {
+    int hi = codes.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (codes[mid] < code) lo = mid + 1; else hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not compatible with the map
+   */
+  @Override
+  @SuppressWarnings({"unchecked"})
+  public V get(Coord<X,Y> key) throws IllegalArgumentException {
+    checkKey(key);                            // may throw IllegalArgumentException
+    try {
+      int xRank = xs.rankOf(key.getX());
+      int yRank = ys.rankOf(key.getY());
+      if (xRank < 0 || yRank < 0)
+        return null;                          // no key has that X or that Y
+      long code = interleave(xRank, yRank);
+      int i = lowerBound(code, 0);
+      return (i < codes.length && codes[i] == code ? (V) values[i] : null);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Not supported, as the map is immutable.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) {
+    throw new UnsupportedOperationException("Put not supported in a frozen Map");
+  }
+
+  /**
+   * Not supported, as the map is immutable.
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public V remove(Coord<X,Y> key) {
+    throw new UnsupportedOperationException("Remove not supported in a frozen Map");
+  }
+
+  /** Returns the entry at index i of the arrays. */
+  @SuppressWarnings({"unchecked"})
+  private Entry<Coord<X,Y>,V> entryAt(int i) {
+    Coord<X,Y> key = new Coord<>(xs.get(compact(codes[i])), ys.get(compact(codes[i] >>> 1)));
+    return new MapEntry<>(key, (V) values[i]);
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map, in Morton order.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
+    return () -> new Iterator<Entry<Coord<X,Y>,V>>() {
+      private int i = 0;
+      public boolean hasNext() { return i < codes.length; }
+      public Entry<Coord<X,Y>,V> next() {
+        if (i == codes.length) throw new NoSuchElementException("No more entries");
+        return entryAt(i++);
+      }
+      public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+    };
+  }
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive),
+   * in Morton order. The entries are found lazily as the result is iterated.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner)
+          throws IllegalArgumentException {
+    checkKey(nwCorner);
+    checkKey(seCorner);
+    try {
+      // the rectangle in rank space: ranks of the keys that can lie inside it
+      int west = xs.countBelow(nwCorner.getX(), false);
+      int east = xs.countBelow(seCorner.getX(), true) - 1;
+      int south = ys.countBelow(seCorner.getY(), false);
+      int north = ys.countBelow(nwCorner.getY(), true) - 1;
+      return () -> new RangeIterator(west, north, east, south);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the least Morton code greater than code that lies inside the box whose
+   * least and greatest codes are zmin and zmax (the BIGMIN of Tropf and Herzog).
+   * The given code must lie between zmin and zmax but outside the box.
+   */
+  private static long bigmin(long code, long zmin, long zmax) {
+    long bigmin = zmax;
+    for (int bit = 63; bit >= 0; bit--) {
+      long mask = 1L << bit;
+      long below = (bit % 2 == 0 ? X_BITS : Y_BITS) & (mask - 1);   // lower bits of the same axis
+      boolean c = (code & mask) != 0, lo = (zmin & mask) != 0, hi = (zmax & mask) != 0;
+      if (!c && !lo && hi) {
+        bigmin = (zmin | mask) & ~below;      // least code in the upper half of the box
+        zmax = (zmax & ~mask) | below;        // keep searching the lower half
+      } else if (!c && lo && hi) {
+        return zmin;                          // the whole box lies above code
+      } else if (c && !lo && !hi) {
+        return bigmin;                        // the whole box lies below code
+      } else if (c && !lo && hi) {
+        zmin = (zmin | mask) & ~below;        // keep searching the upper half
+      }
+    }
+    return bigmin;
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /** Iterator reporting the entries inside a rectangle of ranks, skipping runs of codes outside it. */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final int west, north, east, south;
+    private final long zmin, zmax;
+    private int i;                            // index of next entry to report (or codes.length if done)
+
+    RangeIterator(int west, int north, int east, int south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (west <= east && south <= north) {
+        zmin = interleave(west, south);
+        zmax = interleave(east, north);
+        i = lowerBound(zmin, 0);
+      } else {
+        zmin = zmax = 0;
+        i = codes.length;                     // there is nothing to report
+      }
+      advance();
+    }
+
+    /** Moves i forward to the next entry inside the rectangle, if any. */
+    private void advance() {
+      while (i < codes.length) {
+        long code = codes[i];
+        if (code > zmax) {
+          i = codes.length;
+          return;
+        }
+        int x = compact(code), y = compact(code >>> 1);
+        if (west <= x && x <= east && south <= y && y <= north)
+          return;
+        i = lowerBound(bigmin(code, zmin, zmax), i + 1);   // skip the codes outside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return i < codes.length; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (i == codes.length) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = entryAt(i++);
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+}
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * A quad tree that also supports the update methods a search tree needs.
+ * It lets a map such as SpatialTreeMap run on top of different node storage
+ * engines (for example LinkedQuadTree or ArrayQuadTree).
+ */
+public interface MutableQuadTree<E> extends QuadTree<E> {
+  /** Quadrant numbers accepted by child, in the order NW, NE, SW, SE. */
+  int NW = 0, NE = 1, SW = 2, SE = 3;
+
+  /**
+   * Returns the quadrant of a pivot in which a key belongs, given the results
+   * of comparing the key with the pivot along X and along Y. Keys equal to the
+   * pivot along an axis go east (for X) or north (for Y).
+   */
+  static int quadrant(int x, int y) {
+    if (y >= 0)
+      return (x >= 0 ? NE : NW);
+    else
+      return (x >= 0 ? SE : SW);
+  }
+
+  /**
+   * Returns the Position of p's child in the given quadrant (or null if no child
+   * exists). Unlike nw, ne, sw and se, this does not validate p. It is meant for
+   * tight traversals that only follow positions obtained from this tree, so
+   * an invalid p may cause a ClassCastException or give a meaningless result.
+   *
+   * @param p  a Position obtained from this tree
+   * @param quadrant  one of NW, NE, SW or SE
+   * @return the Position of the child (or null if no child exists)
+   */
+  Position<E> child(Position<E> p, int quadrant);
+
+  /**
+   * Walks down from the root, asking step at each node which quadrant to
+   * follow next, and returns the Position of the node for which step answers
+   * a negative number (or null if the walk leaves the tree). Engines that do
+   * not keep a Position per node override it to walk their own storage and
+   * create only the Position returned.
+   *
+   * @param step  given the element of a node, returns NW, NE, SW, SE or a negative number to stop
+   * @return the Position where the walk stopped (or null if it left the tree)
+   */
+  default Position<E> descend(ToIntFunction<E> step) {
+    Position<E> p = root();
+    while (p != null) {
+      int q = step.applyAsInt(p.getElement());
+      if (q < 0) return p;
+      p = child(p, q);
+    }
+    return null;
+  }
+
+  /**
+   * Places element e at the root of an empty tree and returns its new Position.
+   *
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalStateException if the tree is not empty
+   */
+  Position<E> addRoot(E e) throws IllegalStateException;
+
+  /**
+   * Creates a new NW child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a nw child
+   */
+  Position<E> addNW(Position<E> p, E e) throws IllegalArgumentException;
+
+  /**
+   * Creates a new NE child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a ne child
+   */
+  Position<E> addNE(Position<E> p, E e) throws IllegalArgumentException;
+
+  /**
+   * Creates a new SW child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a sw child
+   */
+  Position<E> addSW(Position<E> p, E e) throws IllegalArgumentException;
+
+  /**
+   * Creates a new SE child of Position p storing element e and returns its Position.
+   *
+   * @param p   the Position below which the new element is inserted
+   * @param e   the new element
+   * @return the Position of the new element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree
+   * @throws IllegalArgumentException if p already has a se child
+   */
+  Position<E> addSE(Position<E> p, E e) throws IllegalArgumentException;
+
+  /**
+   * Replaces the element at Position p with element e and returns the replaced element.
+   *
+   * @param p   the relevant Position
+   * @param e   the new element
+   * @return the replaced element
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  E set(Position<E> p, E e) throws IllegalArgumentException;
+
+  /**
+   * Removes the node at Position p and replaces it with its child, if any.
+   *
+   * @param p   the relevant Position
+   * @return element that was removed
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   * @throws IllegalArgumentException if p has more than one child.
+   */
+  E remove(Position<E> p) throws IllegalArgumentException;
+}
@@ -0,0 +1,120 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The state of a best-first search for the k entries nearest to a key, shared
+ * by the trees that offer a nearest method. The tree drives the search: it
+ * takes the most promising subtree with next, offers the entry at its top,
+ * and passes each child to explore with the region its keys lie in. Subtrees
+ * are explored in order of the smallest distance their region could have to
+ * the key, and next returns null as soon as no unexplored region can beat the
+ * k-th best entry found so far.
+ *
+ * @param <X> the type of the X components of keys
+ * @param <Y> the type of the Y components of keys
+ * @param <V> the type of values
+ * @param <N> the type by which the tree designates a subtree
+ */
+class NearestSearch<X,Y,V,N> {
+
+  /** A subtree waiting to be explored, with the region its keys lie in (null bounds are open). */
+  static class Region<X,Y,N> {
+    final N node;
+    final int depth;                        // of the subtree's root, for trees that split by level
+    final X minX, maxX;
+    final Y minY, maxY;
+    private final double bound;             // lower bound on the distance to any key in the region
+    Region(N node, int depth, X minX, X maxX, Y minY, Y maxY, double bound) {
+      this.node = node;
+      this.depth = depth;
+      this.minX = minX;
+      this.maxX = maxX;
+      this.minY = minY;
+      this.maxY = maxY;
+      this.bound = bound;
+    }
+  }
+
+  /** An entry found by the search, with its distance to the query key. */
+  private static class Candidate<X,Y,V> {
+    private final Entry<Coord<X,Y>,V> entry;
+    private final double distance;
+    Candidate(Entry<Coord<X,Y>,V> entry, double distance) {
+      this.entry = entry;
+      this.distance = distance;
+    }
+  }
+
+  private final Coord<X,Y> key;
+  private final int k;
+  private final DistanceFunction<X,Y> distance;
+  // best k so far, farthest at the head so it can be evicted
+  private final PriorityQueue<Candidate<X,Y,V>> best;
+  // subtrees still to explore, most promising at the head
+  private final PriorityQueue<Region<X,Y,N>> fringe = new PriorityQueue<>((a, b) -> Double.compare(a.bound, b.bound));
+
+  /**
+   * Starts a search from the root of a tree.
+   * @param root  the root of the tree, or null if the tree is empty
+   * @param key  the key whose neighbours are wanted
+   * @param k  the number of neighbours wanted
+   * @param distance  the distance function used to rank keys
+   * @throws IllegalArgumentException if k is negative
+   */
+  NearestSearch(N root, Coord<X,Y> key, int k, DistanceFunction<X,Y> distance) throws IllegalArgumentException {
+    if (k < 0) throw new IllegalArgumentException("k must not be negative");
+    this.key = key;
+    this.k = k;
+    this.distance = distance;
+    best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distance, a.distance));
+    if (k > 0 && root != null)
+      fringe.add(new Region<>(root, 0, null, null, null, null, 0));
+  }
+
+  /** Returns the most promising subtree still to explore, or null if none can hold a closer key. */
+  Region<X,Y,N> next() {
+    Region<X,Y,N> r = fringe.poll();
+    if (r != null && best.size() == k && r.bound >= best.peek().distance)
+      return null;                          // no remaining subtree can hold a closer key
+    return r;
+  }
+
+  /** Considers an entry as one of the k nearest. */
+  void offer(Entry<Coord<X,Y>,V> e) {
+    best.add(new Candidate<>(e, distance.distance(key, e.getKey())));
+    if (best.size() > k) best.remove();
+  }
+
+  /** Adds a subtree, covering the given region, to the fringe; a null subtree is skipped. */
+  void explore(N node, int depth, X minX, X maxX, Y minY, Y maxY) {
+    if (node != null)
+      fringe.add(new Region<>(node, depth, minX, maxX, minY, maxY, distance.distanceToRegion(key, minX, maxX, minY, maxY)));
+  }
+
+  /** Returns the best entries found, nearest first. */
+  List<Entry<Coord<X,Y>,V>> result() {
+    ArrayList<Entry<Coord<X,Y>,V>> buffer = new ArrayList<>(best.size());
+    while (!best.isEmpty())
+      buffer.add(best.remove().entry);
+    Collections.reverse(buffer);            // the heap gave them farthest first
+    return buffer;
+  }
+}
@@ -0,0 +1,415 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map using a persistent quad search tree.
+ *
+ * The nodes of the tree are immutable. A put copies only the nodes on the
+ * path from the root to the changed entry and shares every other subtree
+ * with the previous version, so snapshot() is a constant-time operation: the
+ * snapshot keeps the current root, and later changes to either map build new
+ * roots without disturbing the other. Memory therefore grows with the number
+ * of changed paths, not with the number of snapshots.
+ *
+ * The tree has the same shape and tie-breaking as SpatialTreeMap. Since the
+ * nodes never change, a snapshot can be read from other threads while the
+ * original keeps changing, and an iterator always walks the version of the
+ * map that existed when it was created.
+ */
+public class PersistentSpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V> {
+
+  //---------------- nested Node class ----------------
+  /** An immutable node of the tree, holding an entry and its four children. */
+  private static class Node<X,Y,V> implements Entry<Coord<X,Y>,V> {
+    private final Coord<X,Y> key;
+    private final V value;
+    private final Node<X,Y,V> nw, ne, sw, se;     // children (null if absent)
+
+    Node(Coord<X,Y> key, V value, Node<X,Y,V> nw, Node<X,Y,V> ne, Node<X,Y,V> sw, Node<X,Y,V> se) {
+      this.key = key;
+      this.value = value;
+      this.nw = nw;
+      this.ne = ne;
+      this.sw = sw;
+      this.se = se;
+    }
+
+    public Coord<X,Y> getKey() { return key; }
+    public V getValue() { return value; }
+
+    /** Returns the child in the given quadrant (or null). */
+    Node<X,Y,V> child(int quadrant) {
+      switch (quadrant) {
+        case MutableQuadTree.NW: return nw;
+        case MutableQuadTree.NE: return ne;
+        case MutableQuadTree.SW: return sw;
+        default: return se;
+      }
+    }
+
+    /** Returns a copy of this node with the given child in the given quadrant. */
+    Node<X,Y,V> withChild(int quadrant, Node<X,Y,V> child) {
+      switch (quadrant) {
+        case MutableQuadTree.NW: return new Node<>(key, value, child, ne, sw, se);
+        case MutableQuadTree.NE: return new Node<>(key, value, nw, child, sw, se);
+        case MutableQuadTree.SW: return new Node<>(key, value, nw, ne, child, se);
+        default: return new Node<>(key, value, nw, ne, sw, child);
+      }
+    }
+
+    /** Returns a copy of this node with another value. */
+    Node<X,Y,V> withValue(V v) { return new Node<>(key, v, nw, ne, sw, se); }
+  } //----------- end of nested Node class -----------
+
+  /** The root of the current version (or null if the map is empty). */
+  private volatile Node<X,Y,V> root;
+
+  /** The number of entries in the current version. */
+  private int size;
+
+  /** The comparators defining the ordering of keys in the map. */
+  private final Comparator<X> compX;
+  private final Comparator<Y> compY;
+
+  /** Constructs an empty map */
+  public PersistentSpatialTreeMap() {
+    this(new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  public PersistentSpatialTreeMap(Comparator<X> cx, Comparator<Y> cy) {
+    this(cx, cy, null, 0);
+  }
+
+  /** Constructs a map whose current version is the given tree. */
+  private PersistentSpatialTreeMap(Comparator<X> cx, Comparator<Y> cy, Node<X,Y,V> root, int size) {
+    this.compX = cx;
+    this.compY = cy;
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns a map holding the current entries of this one, in constant time.
+   * The two maps share their nodes; changes made to either one afterwards are
+   * not seen by the other.
+   * @return a snapshot of the map
+   */
+  public PersistentSpatialTreeMap<X,Y,V> snapshot() {
+    return new PersistentSpatialTreeMap<>(compX, compY, root, size);
+  }
+
+  /** Determines whether a key is valid. */
+  protected boolean checkKey(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return (compX.compare(key.getX(),key.getX())==0) && (compY.compare(key.getY(),key.getY())==0);   // see if key can be compared to itself
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /** Returns the quadrant of pivot in which key belongs. */
+  private int quadrantOf(Coord<X,Y> key, Coord<X,Y> pivot) {
+    return MutableQuadTree.quadrant(compX.compare(key.getX(), pivot.getX()), compY.compare(key.getY(), pivot.getY()));
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   */
+  @Override
+  public V get(Coord<X,Y> key) throws IllegalArgumentException {
+    Node<X,Y,V> p = root;
+    if (p == null) checkKey(key);           // otherwise the comparisons reject incompatible keys
+    try {
+      while (p != null) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0)
+          return p.value;                   // key found
+        p = p.child(MutableQuadTree.quadrant(x, y));
+      }
+      return null;                          // key not found
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned. Only the path from the root
+   * to the entry is copied; snapshots taken earlier are not affected.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   */
+  @Override
+  public V put(Coord<X,Y> key, V value) throws IllegalArgumentException {
+    if (root == null) {
+      checkKey(key);                        // later keys are checked by the comparisons below
+      root = new Node<>(key, value, null, null, null, null);
+      size = 1;
+      return null;
+    }
+    ArrayList<Node<X,Y,V>> path = new ArrayList<>();
+    ArrayList<Integer> turns = new ArrayList<>();   // quadrant taken below each node of path
+    Node<X,Y,V> p = root;
+    Node<X,Y,V> replacement;
+    V old = null;
+    try {
+      while (true) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0) {             // replacing existing key
+          old = p.value;
+          replacement = p.withValue(value);
+          break;
+        }
+        int q = MutableQuadTree.quadrant(x, y);
+        path.add(p);
+        turns.add(q);
+        p = p.child(q);
+        if (p == null) {                    // key is new
+          replacement = new Node<>(key, value, null, null, null, null);
+          size++;
+          break;
+        }
+      }
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+    root = copyPath(path, turns, replacement);
+    return old;
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * The entries below the removed one are rebuilt into new nodes, and
+   * the path above it is copied; snapshots taken earlier are not affected.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   */
+  @Override
+  public V remove(Coord<X,Y> key) throws IllegalArgumentException {
+    if (root == null) {
+      checkKey(key);
+      return null;
+    }
+    ArrayList<Node<X,Y,V>> path = new ArrayList<>();
+    ArrayList<Integer> turns = new ArrayList<>();
+    Node<X,Y,V> p = root;
+    try {
+      while (p != null) {
+        int x = compX.compare(key.getX(), p.key.getX());
+        int y = compY.compare(key.getY(), p.key.getY());
+        if (x == 0 && y == 0) break;
+        int q = MutableQuadTree.quadrant(x, y);
+        path.add(p);
+        turns.add(q);
+        p = p.child(q);
+      }
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
+    if (p == null)                          // key not found
+      return null;
+    // the entries below p lie in the region its ancestors assign to p, so they
+    // can be rebuilt in p's place; inserting them in preorder keeps much the
+    // same shape as before
+    Node<X,Y,V> rebuilt = null;
+    ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--)
+      if (p.child(q) != null) stack.add(p.child(q));
+    while (!stack.isEmpty()) {
+      Node<X,Y,V> walk = stack.remove(stack.size() - 1);
+      rebuilt = insert(rebuilt, walk.key, walk.value);
+      for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--)
+        if (walk.child(q) != null) stack.add(walk.child(q));
+    }
+    root = copyPath(path, turns, rebuilt);
+    size--;
+    return p.value;
+  }
+
+  /**
+   * Returns the root of a new version in which the subtree below the given
+   * path is replaced, copying each node of the path from the bottom up.
+   */
+  private Node<X,Y,V> copyPath(ArrayList<Node<X,Y,V>> path, ArrayList<Integer> turns, Node<X,Y,V> replacement) {
+    Node<X,Y,V> child = replacement;
+    for (int i = path.size() - 1; i >= 0; i--)
+      child = path.get(i).withChild(turns.get(i), child);
+    return child;
+  }
+
+  /**
+   * Returns a subtree holding the entries of top plus a new entry, whose key
+   * must not already be there. Used to rebuild a subtree during a remove.
+   */
+  private Node<X,Y,V> insert(Node<X,Y,V> top, Coord<X,Y> key, V value) {
+    ArrayList<Node<X,Y,V>> path = new ArrayList<>();
+    ArrayList<Integer> turns = new ArrayList<>();
+    for (Node<X,Y,V> p = top; p != null; p = p.child(turns.get(turns.size() - 1))) {
+      path.add(p);
+      turns.add(quadrantOf(key, p.key));
+    }
+    return copyPath(path, turns, new Node<>(key, value, null, null, null, null));
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map. The
+   * entries are found lazily, in the version of the map current when this
+   * method was called.
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
+    final Node<X,Y,V> version = root;
+    return () -> new EntryIterator<>(version);
+  }
+
+  //---------------- nested EntryIterator class ----------------
+  /**
+   * Iterator reporting every entry of a version in preorder, walking the tree
+   * with a stack of subtrees still to be explored. Nodes are immutable, so they
+   * serve as the entries reported.
+   */
+  private static class EntryIterator<X,Y,V> implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+
+    EntryIterator(Node<X,Y,V> top) {
+      if (top != null) stack.add(top);
+    }
+
+    public boolean hasNext() { return !stack.isEmpty(); }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (stack.isEmpty()) throw new NoSuchElementException("No more entries");
+      Node<X,Y,V> p = stack.remove(stack.size() - 1);
+      for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--)
+        if (p.child(q) != null) stack.add(p.child(q));
+      return p;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested EntryIterator class -----------
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily, in the version of the map current when this
+   * method was called.
+   * @return iterable with keys in desired range
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);                               // may throw IllegalArgumentException
+    checkKey(seCorner);                               // may throw IllegalArgumentException
+    final Node<X,Y,V> version = root;
+    return () -> new RangeIterator(version, nwCorner, seCorner);
+  }
+
+  //---------------- nested RangeIterator class ----------------
+  /**
+   * Iterator reporting the entries whose keys lie inside a rectangle. It keeps a
+   * stack of subtrees still to be explored and only pushes the children whose
+   * quadrant can overlap the rectangle.
+   */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+    private final ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    private Entry<Coord<X,Y>,V> next;                 // next entry to report (or null if done)
+
+    RangeIterator(Node<X,Y,V> top, Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+      if (top != null && compX.compare(nwCorner.getX(), seCorner.getX()) <= 0
+          && compY.compare(seCorner.getY(), nwCorner.getY()) <= 0)
+        stack.add(top);                               // otherwise the rectangle is empty
+      advance();
+    }
+
+    /** Moves to the next entry inside the rectangle, pruning quadrants outside it. */
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Node<X,Y,V> p = stack.remove(stack.size() - 1);
+        if (p == null) continue;                       // no child in that quadrant
+        Coord<X,Y> e = p.key;
+        int west = compX.compare(nwCorner.getX(), e.getX());
+        int east = compX.compare(seCorner.getX(), e.getX());
+        int north = compY.compare(nwCorner.getY(), e.getY());
+        int south = compY.compare(seCorner.getY(), e.getY());
+        // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+        if (east >= 0 && south < 0) stack.add(p.se);
+        if (west < 0 && south < 0) stack.add(p.sw);
+        if (east >= 0 && north >= 0) stack.add(p.ne);
+        if (west < 0 && north >= 0) stack.add(p.nw);
+        if (west <= 0 && east >= 0 && south <= 0 && north >= 0)
+          next = p;                                   // p itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /*protected*/ public int treeHeight() {
+    int height = 0;
+    ArrayList<Node<X,Y,V>> stack = new ArrayList<>();
+    ArrayList<Integer> depths = new ArrayList<>();
+    stack.add(root);                        // may be null, for an empty map
+    depths.add(0);
+    while (!stack.isEmpty()) {
+      Node<X,Y,V> p = stack.remove(stack.size() - 1);
+      int depth = depths.remove(depths.size() - 1);
+      if (p == null) continue;              // no child in that quadrant
+      height = Math.max(height, depth + 1);
+      for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++) {
+        stack.add(p.child(q));
+        depths.add(depth + 1);
+      }
+    }
+    return height;
+  }
+}
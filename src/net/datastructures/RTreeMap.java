@@ -0,0 +1,609 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of a map from rectangles with double coordinates to values,
+ * using an R-tree.
+ *
+ * Every node holds between minEntries and maxEntries slots (only the root may
+ * hold fewer), each made of a bounding rectangle and either a child node or,
+ * in a leaf, an entry of the map. The bounds of the slots are kept in primitive
+ * arrays so that a window query scans each node with a tight loop. Insertion
+ * follows Guttman's algorithm with the quadratic split; removal condenses
+ * underfull nodes and reinserts their entries. bulkLoad packs a static data set
+ * with Sort-Tile-Recursive, giving full nodes with little overlap.
+ */
+public class RTreeMap<V> extends AbstractMap<Rect<Double,Double>,V> implements RectMap<Double,Double,V> {
+
+  /** The node capacity used by the constructors that do not take one. */
+  public static final int DEFAULT_MAX_ENTRIES = 16;
+
+  //---------------- nested Node class ----------------
+  /** A node of the tree: a list of slots, each with a bounding rectangle. */
+  private static class Node {
+    private final boolean leaf;
+    private int count;
+    private final double[] west, south, east, north;
+    private final Object[] slots;         // child Nodes, or the map's entries in a leaf
+
+    Node(boolean leaf, int maxEntries) {
+      this.leaf = leaf;
+      west = new double[maxEntries + 1];  // one spare slot, used until the node is split
+      south = new double[maxEntries + 1];
+      east = new double[maxEntries + 1];
+      north = new double[maxEntries + 1];
+      slots = new Object[maxEntries + 1];
+    }
+
+    void add(double w, double s, double e, double n, Object slot) {
+      west[count] = w;
+      south[count] = s;
+      east[count] = e;
+      north[count] = n;
+      slots[count++] = slot;
+    }
+
+    void setBounds(int i, double[] box) {
+      west[i] = box[0];
+      south[i] = box[1];
+      east[i] = box[2];
+      north[i] = box[3];
+    }
+
+    /** Removes slot i, moving the last slot into its place. */
+    void removeAt(int i) {
+      count--;
+      west[i] = west[count];
+      south[i] = south[count];
+      east[i] = east[count];
+      north[i] = north[count];
+      slots[i] = slots[count];
+      slots[count] = null;                // help garbage collection
+    }
+
+    /** Returns the bounding rectangle of all slots, as {west, south, east, north}. */
+    double[] bounds() {
+      double[] box = { west[0], south[0], east[0], north[0] };
+      for (int i = 1; i < count; i++) {
+        box[0] = Math.min(box[0], west[i]);
+        box[1] = Math.min(box[1], south[i]);
+        box[2] = Math.max(box[2], east[i]);
+        box[3] = Math.max(box[3], north[i]);
+      }
+      return box;
+    }
+  } //----------- end of nested Node class -----------
+
+  /** The largest and smallest number of slots in a node other than the root. */
+  private final int maxEntries;
+  private final int minEntries;
+
+  /** The root of the tree (an empty leaf if the map is empty). */
+  private Node root;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /** Constructs an empty map whose nodes hold up to DEFAULT_MAX_ENTRIES slots. */
+  public RTreeMap() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructs an empty map whose nodes hold up to the given number of slots.
+   * @param maxEntries  the capacity of a node
+   * @throws IllegalArgumentException if maxEntries is less than 4
+   */
+  public RTreeMap(int maxEntries) {
+    if (maxEntries < 4)
+      throw new IllegalArgumentException("A node must hold at least 4 entries");
+    this.maxEntries = maxEntries;
+    this.minEntries = Math.max(2, maxEntries * 2 / 5);
+    root = new Node(true, maxEntries);
+  }
+
+  /**
+   * Constructs a map holding the given entries, with nodes of the default
+   * capacity. See {@link #bulkLoad(Iterable, int)}.
+   * @param entries  the entries to be stored in the map
+   * @return a new map with packed nodes
+   * @throws IllegalArgumentException if a key is not a valid rectangle
+   */
+  public static <V> RTreeMap<V> bulkLoad(Iterable<? extends Entry<Rect<Double,Double>,V>> entries)
+          throws IllegalArgumentException {
+    return bulkLoad(entries, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructs a map holding the given entries. Rather than inserting them one
+   * at a time, the tree is packed bottom-up with Sort-Tile-Recursive: the
+   * rectangles are sorted by the X of their centres, cut into vertical slices
+   * of about sqrt(n/maxEntries) nodes each, and every slice is sorted by the Y
+   * of the centres and cut into full nodes; the nodes are then packed the same
+   * way, level by level. If several entries share a key, the last one wins, as
+   * it would with put.
+   * @param entries  the entries to be stored in the map
+   * @param maxEntries  the capacity of a node
+   * @return a new map with packed nodes
+   * @throws IllegalArgumentException if a key is not a valid rectangle or maxEntries is less than 4
+   */
+  public static <V> RTreeMap<V> bulkLoad(Iterable<? extends Entry<Rect<Double,Double>,V>> entries, int maxEntries)
+          throws IllegalArgumentException {
+    RTreeMap<V> map = new RTreeMap<>(maxEntries);
+    LinkedHashMap<Rect<Double,Double>,V> distinct = new LinkedHashMap<>();
+    for (Entry<Rect<Double,Double>,V> e : entries) {
+      map.checkKey(e.getKey());             // may throw IllegalArgumentException
+      distinct.put(e.getKey(), e.getValue());   // a later duplicate replaces the earlier one
+    }
+    List<Packed> level = new ArrayList<>(distinct.size());
+    for (java.util.Map.Entry<Rect<Double,Double>,V> e : distinct.entrySet()) {
+      Rect<Double,Double> key = e.getKey();
+      level.add(new Packed(key.getNwCorner().getX(), key.getSeCorner().getY(),
+                           key.getSeCorner().getX(), key.getNwCorner().getY(),
+                           new MapEntry<>(key, e.getValue())));
+    }
+    boolean leaf = true;
+    while (level.size() > maxEntries) {     // pack one level, then pack the nodes above it
+      level = map.pack(level, leaf);
+      leaf = false;
+    }
+    map.root = new Node(leaf, maxEntries);
+    for (Packed p : level)
+      map.root.add(p.west, p.south, p.east, p.north, p.slot);
+    map.size = distinct.size();
+    return map;
+  }
+
+  /** A slot waiting to be packed into a node, with its bounding rectangle. */
+  private static class Packed {
+    private final double west, south, east, north;
+    private final Object slot;
+    Packed(double west, double south, double east, double north, Object slot) {
+      this.west = west;
+      this.south = south;
+      this.east = east;
+      this.north = north;
+      this.slot = slot;
+    }
+  }
+
+  /** Packs the given slots into full nodes with Sort-Tile-Recursive, returning a slot for each node. */
+  private List<Packed> pack(List<Packed> items, boolean leaf) {
+    int nodes = (items.size() + maxEntries - 1) / maxEntries;
+    int slices = (int) Math.ceil(Math.sqrt(nodes));
+    int perSlice = slices * maxEntries;
+    Collections.sort(items, (a, b) -> Double.compare(a.west + a.east, b.west + b.east));
+    List<Packed> packed = new ArrayList<>(nodes);
+    for (int start = 0; start < items.size(); start += perSlice) {
+      List<Packed> slice = items.subList(start, Math.min(start + perSlice, items.size()));
+      Collections.sort(slice, (a, b) -> Double.compare(a.south + a.north, b.south + b.north));
+      for (int i = 0; i < slice.size(); i += maxEntries) {
+        Node node = new Node(leaf, maxEntries);
+        for (Packed p : slice.subList(i, Math.min(i + maxEntries, slice.size())))
+          node.add(p.west, p.south, p.east, p.north, p.slot);
+        double[] box = node.bounds();
+        packed.add(new Packed(box[0], box[1], box[2], box[3], node));
+      }
+    }
+    return packed;
+  }
+
+  /** Determines whether a key is valid. */
+  protected void checkKey(Rect<Double,Double> key) throws IllegalArgumentException {
+    if (key == null)
+      throw new IllegalArgumentException("Incompatible key");
+    checkCorners(key.getNwCorner(), key.getSeCorner());
+    if (!(key.getNwCorner().getX() <= key.getSeCorner().getX()
+          && key.getSeCorner().getY() <= key.getNwCorner().getY()))
+      throw new IllegalArgumentException("Inverted rectangle");
+  }
+
+  /** Determines whether both corners are valid coordinates. */
+  private void checkCorners(Coord<Double,Double> nwCorner, Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    if (nwCorner == null || seCorner == null || nwCorner.getX() == null || nwCorner.getY() == null
+        || seCorner.getX() == null || seCorner.getY() == null)
+      throw new IllegalArgumentException("Incompatible key");
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   * @return number of entries in the map
+   */
+  @Override
+  public int size() { return size; }
+
+  /** Returns the entry of the map with the given bounds (or null if there is none). */
+  @SuppressWarnings({"unchecked"})
+  private MapEntry<Rect<Double,Double>,V> find(double w, double s, double e, double n) {
+    ArrayList<Node> stack = new ArrayList<>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Node p = stack.remove(stack.size() - 1);
+      for (int i = 0; i < p.count; i++) {
+        if (p.leaf) {
+          if (Double.compare(p.west[i], w) == 0 && Double.compare(p.south[i], s) == 0
+              && Double.compare(p.east[i], e) == 0 && Double.compare(p.north[i], n) == 0)
+            return (MapEntry<Rect<Double,Double>,V>) p.slots[i];
+        } else if (p.west[i] <= w && s >= p.south[i] && e <= p.east[i] && n <= p.north[i])
+          stack.add((Node) p.slots[i]);     // only subtrees that contain the key can hold it
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no such entry exists.
+   * @param key  the key whose associated value is to be returned
+   * @return the associated value, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not a valid rectangle
+   */
+  @Override
+  public V get(Rect<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    MapEntry<Rect<Double,Double>,V> e = find(key.getNwCorner().getX(), key.getSeCorner().getY(),
+                                             key.getSeCorner().getX(), key.getNwCorner().getY());
+    return (e == null ? null : e.getValue());
+  }
+
+  /**
+   * Associates the given value with the given key. If an entry with
+   * the key was already in the map, this replaced the previous value
+   * with the new one and returns the old value. Otherwise, a new
+   * entry is added and null is returned.
+   * @param key    key with which the specified value is to be associated
+   * @param value  value to be associated with the specified key
+   * @return the previous value associated with the key (or null, if no such entry)
+   * @throws IllegalArgumentException if the key is not a valid rectangle
+   */
+  @Override
+  public V put(Rect<Double,Double> key, V value) throws IllegalArgumentException {
+    checkKey(key);
+    double w = key.getNwCorner().getX(), s = key.getSeCorner().getY();
+    double e = key.getSeCorner().getX(), n = key.getNwCorner().getY();
+    MapEntry<Rect<Double,Double>,V> existing = find(w, s, e, n);
+    if (existing != null)                   // replacing existing key
+      return existing.setValue(value);
+    insert(w, s, e, n, new MapEntry<>(key, value));
+    size++;
+    return null;
+  }
+
+  /** Adds a new entry with the given bounds, splitting nodes that overflow on the way back up. */
+  private void insert(double w, double s, double e, double n, Object entry) {
+    ArrayList<Node> path = new ArrayList<>();
+    ArrayList<Integer> index = new ArrayList<>();
+    Node walk = root;
+    while (!walk.leaf) {
+      int i = chooseSubtree(walk, w, s, e, n);
+      path.add(walk);
+      index.add(i);
+      walk = (Node) walk.slots[i];
+    }
+    walk.add(w, s, e, n, entry);
+    Node child = walk;
+    Node sibling = (walk.count > maxEntries ? split(walk) : null);
+    for (int k = path.size() - 1; k >= 0; k--) {
+      Node p = path.get(k);
+      p.setBounds(index.get(k), child.bounds());
+      if (sibling != null) {
+        double[] box = sibling.bounds();
+        p.add(box[0], box[1], box[2], box[3], sibling);
+        sibling = (p.count > maxEntries ? split(p) : null);
+      }
+      child = p;
+    }
+    if (sibling != null) {                  // the root was split, so the tree grows a level
+      Node grown = new Node(false, maxEntries);
+      double[] box = root.bounds();
+      grown.add(box[0], box[1], box[2], box[3], root);
+      box = sibling.bounds();
+      grown.add(box[0], box[1], box[2], box[3], sibling);
+      root = grown;
+    }
+  }
+
+  /** Returns the slot of p whose rectangle needs the least enlargement to take in the given one. */
+  private int chooseSubtree(Node p, double w, double s, double e, double n) {
+    int best = 0;
+    double bestGrowth = Double.POSITIVE_INFINITY, bestArea = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < p.count; i++) {
+      double area = area(p.west[i], p.south[i], p.east[i], p.north[i]);
+      double growth = area(Math.min(w, p.west[i]), Math.min(s, p.south[i]),
+                           Math.max(e, p.east[i]), Math.max(n, p.north[i])) - area;
+      if (growth < bestGrowth || (growth == bestGrowth && area < bestArea)) {
+        best = i;
+        bestGrowth = growth;
+        bestArea = area;
+      }
+    }
+    return best;
+  }
+
+  private static double area(double w, double s, double e, double n) {
+    return (e - w) * (n - s);
+  }
+
+  /**
+   * Splits an overflowing node with Guttman's quadratic algorithm. Node p keeps
+   * one group of slots and the other group is returned as a new node.
+   */
+  private Node split(Node p) {
+    int total = p.count;
+    double[] w = p.west.clone(), s = p.south.clone(), e = p.east.clone(), n = p.north.clone();
+    Object[] slots = p.slots.clone();
+    // the seeds are the pair that would waste the most area if put together
+    int seedA = 0, seedB = 1;
+    double worst = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < total; i++)
+      for (int j = i + 1; j < total; j++) {
+        double waste = area(Math.min(w[i], w[j]), Math.min(s[i], s[j]), Math.max(e[i], e[j]), Math.max(n[i], n[j]))
+                       - area(w[i], s[i], e[i], n[i]) - area(w[j], s[j], e[j], n[j]);
+        if (waste > worst) {
+          worst = waste;
+          seedA = i;
+          seedB = j;
+        }
+      }
+    Node other = new Node(p.leaf, maxEntries);
+    p.count = 0;
+    Arrays.fill(p.slots, null);
+    p.add(w[seedA], s[seedA], e[seedA], n[seedA], slots[seedA]);
+    other.add(w[seedB], s[seedB], e[seedB], n[seedB], slots[seedB]);
+    double[] boxA = { w[seedA], s[seedA], e[seedA], n[seedA] };
+    double[] boxB = { w[seedB], s[seedB], e[seedB], n[seedB] };
+    boolean[] assigned = new boolean[total];
+    assigned[seedA] = assigned[seedB] = true;
+    for (int left = total - 2; left > 0; left--) {
+      Node target = null;
+      int pick = -1;
+      if (p.count + left <= minEntries)
+        target = p;                         // p needs all that is left to reach minEntries
+      else if (other.count + left <= minEntries)
+        target = other;
+      // otherwise pick the slot with the strongest preference for one group
+      double strongest = -1, growA = 0, growB = 0;
+      for (int i = 0; i < total; i++) {
+        if (assigned[i]) continue;
+        double dA = area(Math.min(boxA[0], w[i]), Math.min(boxA[1], s[i]), Math.max(boxA[2], e[i]), Math.max(boxA[3], n[i]))
+                    - area(boxA[0], boxA[1], boxA[2], boxA[3]);
+        double dB = area(Math.min(boxB[0], w[i]), Math.min(boxB[1], s[i]), Math.max(boxB[2], e[i]), Math.max(boxB[3], n[i]))
+                    - area(boxB[0], boxB[1], boxB[2], boxB[3]);
+        if (Math.abs(dA - dB) > strongest) {
+          strongest = Math.abs(dA - dB);
+          pick = i;
+          growA = dA;
+          growB = dB;
+        }
+      }
+      if (target == null) {
+        if (growA != growB)
+          target = (growA < growB ? p : other);
+        else {
+          double areaA = area(boxA[0], boxA[1], boxA[2], boxA[3]), areaB = area(boxB[0], boxB[1], boxB[2], boxB[3]);
+          if (areaA != areaB)
+            target = (areaA < areaB ? p : other);
+          else
+            target = (p.count <= other.count ? p : other);
+        }
+      }
+      double[] box = (target == p ? boxA : boxB);
+      box[0] = Math.min(box[0], w[pick]);
+      box[1] = Math.min(box[1], s[pick]);
+      box[2] = Math.max(box[2], e[pick]);
+      box[3] = Math.max(box[3], n[pick]);
+      target.add(w[pick], s[pick], e[pick], n[pick], slots[pick]);
+      assigned[pick] = true;
+    }
+    return other;
+  }
+
+  /**
+   * Removes the entry with the specified key, if present, and returns
+   * its associated value. Otherwise does nothing and returns null.
+   * @param key  the key whose entry is to be removed from the map
+   * @return the previous value associated with the removed key, or null if no such entry exists
+   * @throws IllegalArgumentException if the key is not a valid rectangle
+   */
+  @Override
+  @SuppressWarnings({"unchecked"})
+  public V remove(Rect<Double,Double> key) throws IllegalArgumentException {
+    checkKey(key);
+    double w = key.getNwCorner().getX(), s = key.getSeCorner().getY();
+    double e = key.getSeCorner().getX(), n = key.getNwCorner().getY();
+    ArrayList<Node> path = new ArrayList<>();
+    ArrayList<Integer> index = new ArrayList<>();
+    if (!findLeaf(root, w, s, e, n, path, index))
+      return null;                          // key not found
+    Node leaf = path.remove(path.size() - 1);
+    int slot = index.remove(index.size() - 1);
+    V old = ((Entry<Rect<Double,Double>,V>) leaf.slots[slot]).getValue();
+    leaf.removeAt(slot);
+    size--;
+    // condense the tree: drop underfull nodes and keep their entries for reinsertion
+    List<Object> orphans = new ArrayList<>();
+    Node child = leaf;
+    for (int k = path.size() - 1; k >= 0; k--) {
+      Node p = path.get(k);
+      if (child.count < minEntries) {
+        p.removeAt(index.get(k));
+        collectEntries(child, orphans);
+      } else
+        p.setBounds(index.get(k), child.bounds());
+      child = p;
+    }
+    while (!root.leaf && root.count == 1)
+      root = (Node) root.slots[0];          // the tree shrinks a level
+    if (!root.leaf && root.count == 0)
+      root = new Node(true, maxEntries);
+    for (Object o : orphans) {
+      Rect<Double,Double> k = ((Entry<Rect<Double,Double>,V>) o).getKey();
+      insert(k.getNwCorner().getX(), k.getSeCorner().getY(), k.getSeCorner().getX(), k.getNwCorner().getY(), o);
+    }
+    return old;
+  }
+
+  /**
+   * Looks for the leaf slot with the given bounds below p. If found, the nodes
+   * from p down to the leaf and the slot taken in each are left in path and index.
+   */
+  private boolean findLeaf(Node p, double w, double s, double e, double n, List<Node> path, List<Integer> index) {
+    path.add(p);
+    for (int i = 0; i < p.count; i++) {
+      index.add(i);
+      if (p.leaf) {
+        if (Double.compare(p.west[i], w) == 0 && Double.compare(p.south[i], s) == 0
+            && Double.compare(p.east[i], e) == 0 && Double.compare(p.north[i], n) == 0)
+          return true;
+      } else if (p.west[i] <= w && s >= p.south[i] && e <= p.east[i] && n <= p.north[i]
+                 && findLeaf((Node) p.slots[i], w, s, e, n, path, index))
+        return true;
+      index.remove(index.size() - 1);
+    }
+    path.remove(path.size() - 1);
+    return false;
+  }
+
+  /** Adds all entries in the subtree of p to the given list. */
+  private void collectEntries(Node p, List<Object> entries) {
+    ArrayList<Node> stack = new ArrayList<>();
+    stack.add(p);
+    while (!stack.isEmpty()) {
+      Node walk = stack.remove(stack.size() - 1);
+      for (int i = 0; i < walk.count; i++)
+        if (walk.leaf)
+          entries.add(walk.slots[i]);
+        else
+          stack.add((Node) walk.slots[i]);
+    }
+  }
+
+  // Support for iteration
+  /**
+   * Returns an iterable collection of all key-value entries of the map.
+   *
+   * @return iterable collection of the map's entries
+   */
+  @Override
+  public Iterable<Entry<Rect<Double,Double>,V>> entrySet() {
+    return intersecting(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Returns an iterable containing all entries whose rectangle intersects the
+   * window spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated.
+   * @return iterable with the entries intersecting the window
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  @Override
+  public Iterable<Entry<Rect<Double,Double>,V>> intersecting(Coord<Double,Double> nwCorner,
+                                                           Coord<Double,Double> seCorner) throws IllegalArgumentException {
+    checkCorners(nwCorner, seCorner);
+    return intersecting(nwCorner.getX(), nwCorner.getY(), seCorner.getX(), seCorner.getY());
+  }
+
+  /**
+   * Returns an iterable containing all entries whose rectangle intersects the
+   * given window (edges inclusive).
+   * @param west   the least X coordinate of the window
+   * @param north  the greatest Y coordinate of the window
+   * @param east   the greatest X coordinate of the window
+   * @param south  the least Y coordinate of the window
+   * @return iterable with the entries intersecting the window
+   */
+  public Iterable<Entry<Rect<Double,Double>,V>> intersecting(double west, double north, double east, double south) {
+    return () -> new WindowIterator(west, north, east, south);
+  }
+
+  //---------------- nested WindowIterator class ----------------
+  /** Iterator reporting the entries intersecting a window, pruning subtrees outside it. */
+  private class WindowIterator implements Iterator<Entry<Rect<Double,Double>,V>> {
+    private final double west, north, east, south;
+    private final ArrayList<Node> stack = new ArrayList<>();
+    private Node leaf;                      // the leaf being scanned (or null)
+    private int index;                      // the next slot of that leaf to look at
+    private Entry<Rect<Double,Double>,V> next;   // next entry to report (or null if done)
+
+    WindowIterator(double west, double north, double east, double south) {
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.south = south;
+      if (west <= east && south <= north)
+        stack.add(root);                    // otherwise there is nothing to report
+      advance();
+    }
+
+    private boolean overlaps(Node p, int i) {
+      return p.west[i] <= east && west <= p.east[i] && p.south[i] <= north && south <= p.north[i];
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void advance() {
+      next = null;
+      while (true) {
+        if (leaf != null) {
+          while (index < leaf.count) {
+            int i = index++;
+            if (overlaps(leaf, i)) {
+              next = (Entry<Rect<Double,Double>,V>) leaf.slots[i];
+              return;
+            }
+          }
+          leaf = null;
+        }
+        if (stack.isEmpty()) return;
+        Node p = stack.remove(stack.size() - 1);
+        if (p.leaf) {
+          leaf = p;
+          index = 0;
+        } else {
+          for (int i = p.count - 1; i >= 0; i--)
+            if (overlaps(p, i)) stack.add((Node) p.slots[i]);
+        }
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Rect<Double,Double>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in window");
+      Entry<Rect<Double,Double>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested WindowIterator class -----------
+
+  // for debugging - ought to be protected but we want to use it in our apps
+  /** Returns the number of levels of nodes in the tree (an empty map has height 1). */
+  /*protected*/ public int treeHeight() {
+    int height = 1;
+    for (Node walk = root; !walk.leaf; walk = (Node) walk.slots[0])
+      height++;                             // all leaves are at the same depth
+    return height;
+  }
+}
@@ -0,0 +1,52 @@
+package net.datastructures;
+
+import java.util.Objects;
+
+/**
+ * An axis-aligned rectangle, given by its north-west corner (least X, greatest Y)
+ * and its south-east corner (greatest X, least Y), as in Sorted2DMap.subMap.
+ * All four edges belong to the rectangle, so a rectangle whose corners are
+ * equal is a single point.
+ */
+public class Rect<X,Y> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+
+    public Coord<X,Y> getNwCorner() {
+        return nwCorner;
+    }
+
+    public Coord<X,Y> getSeCorner() {
+        return seCorner;
+    }
+
+    public Rect(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+        this.nwCorner = nwCorner;
+        this.seCorner = seCorner;
+    }
+
+    public Rect(X west, Y north, X east, Y south) {
+        this(new Coord<>(west, north), new Coord<>(east, south));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Rect<?, ?> rect = (Rect<?, ?>) o;
+        return Objects.equals(nwCorner, rect.nwCorner) &&
+                Objects.equals(seCorner, rect.seCorner);
+    }
+
+    @Override
+    public String toString() {
+        return
+                "nw" + nwCorner +
+                "se" + seCorner;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nwCorner, seCorner);
+    }
+}
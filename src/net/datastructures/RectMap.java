@@ -0,0 +1,20 @@
+package net.datastructures;
+
+/**
+ * A map whose keys are rectangles, supporting window queries.
+ */
+public interface RectMap<X,Y,V> extends Map<Rect<X,Y>,V> {
+
+    /**
+     * Returns an iterable containing all entries whose rectangle intersects the
+     * window whose north-west corner is <code>nwCorner</code> and whose south-east
+     * corner is <code>seCorner</code>. Edges are inclusive on both sides, so a
+     * rectangle that only touches the window is reported; an inverted window
+     * intersects nothing.
+     * @param nwCorner  the north-west corner of the window
+     * @param seCorner  the south-east corner of the window
+     * @return iterable with the entries intersecting the window
+     * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+     */
+    public Iterable<Entry<Rect<X,Y>,V>> intersecting(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException;
+}
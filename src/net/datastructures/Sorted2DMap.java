@@ -13,5 +13,15 @@ package net.datastructures;
  */
 public interface Sorted2DMap<X,Y,V> extends Map<Coord<X,Y>,V>{
 
+    /**
+     * Returns an iterable containing all entries with keys inside the rectangle whose
+     * north-west corner is <code>nwCorner</code> (least X, greatest Y) and whose
+     * south-east corner is <code>seCorner</code> (greatest X, least Y). All four edges
+     * of the rectangle are inclusive; an inverted rectangle contains no entries.
+     * @param nwCorner  the north-west corner of the rectangle
+     * @param seCorner  the south-east corner of the rectangle
+     * @return iterable with keys in desired range
+     * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+     */
     public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException;
 }
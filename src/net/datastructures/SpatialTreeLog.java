@@ -0,0 +1,299 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import net.datastructures.SpatialTreeSnapshot.Codec;
+
+/**
+ * An append-only log of the puts and removes made on a spatial map, so that
+ * the changes made since the last snapshot survive a crash.
+ *
+ * Records are gathered in memory and written to the file a group at a time;
+ * the Sync policy decides when a group is written and whether the file is
+ * then forced to the disk. Replaying the log applies its records in order and
+ * stops at the first record that is incomplete or fails its checksum, which
+ * is how a write torn by a crash shows up. Opening a log for appending cuts
+ * such a tail off, so new records follow the last good one.
+ *
+ * Layout (all numbers big-endian, as by DataOutput):
+ * <pre>
+ *   int   MAGIC
+ *   int   VERSION
+ *   records: byte PUT or REMOVE, int payload length, payload, int CRC32 of the op and payload
+ *   the payload of a PUT is X, Y, value as written by the codecs; that of a REMOVE is X, Y
+ * </pre>
+ * A log is not thread-safe; it is meant to be driven by the single writer of a map.
+ */
+public class SpatialTreeLog<X,Y,V> implements Closeable {
+
+  /** The first four bytes of a log: "SQTL". */
+  public static final int MAGIC = 0x5351544C;
+
+  /** The version of the layout written by this class. */
+  public static final int VERSION = 1;
+
+  /** The op of a record made by put. */
+  public static final byte PUT = 1;
+
+  /** The op of a record made by remove. */
+  public static final byte REMOVE = 2;
+
+  private static final int HEADER = 8;                  // bytes before the first record
+
+  /** When the records of a log reach the file, and when the file is forced to the disk. */
+  public enum Sync {
+    /** Every record is written and forced before put returns: nothing acknowledged is lost. */
+    ALWAYS,
+    /** Records are written and forced once per group: a crash loses at most the last group. */
+    GROUP,
+    /** Records are written once per group and never forced (except by commit): the OS decides. */
+    NONE
+  }
+
+  /** A ByteArrayOutputStream whose bytes can be read without copying them. */
+  private static class Buffer extends ByteArrayOutputStream {
+    byte[] bytes() { return buf; }
+  }
+
+  /** Receives each good record found while scanning a log. */
+  private interface RecordSink {
+    void accept(byte op, DataInputStream payload) throws IOException;
+  }
+
+  private final FileChannel channel;
+  private final OutputStream file;                      // writes straight to the channel
+  private final Codec<X> cx;
+  private final Codec<Y> cy;
+  private final Codec<V> cv;
+  private final Sync sync;
+  private final int groupSize;
+  private final Buffer group = new Buffer();            // records not yet written
+  private final DataOutputStream groupData = new DataOutputStream(group);
+  private final Buffer record = new Buffer();           // payload of the record being made
+  private final DataOutputStream recordData = new DataOutputStream(record);
+  private final CRC32 crc = new CRC32();
+  private int pending = 0;                              // number of records in group
+
+  /**
+   * Opens a log for appending, creating it if it does not exist or is shorter
+   * than its header, and cutting off any torn records at its end.
+   * @param path  the file holding the log
+   * @param cx    the codec for X components
+   * @param cy    the codec for Y components
+   * @param cv    the codec for values (which must accept null, if the map holds any)
+   * @param sync  when records are written and forced
+   * @param groupSize  the number of records in a group (ignored by Sync.ALWAYS)
+   * @throws IllegalArgumentException if groupSize is not positive
+   * @throws IOException if the file cannot be opened, or is not a log of this version
+   */
+  public SpatialTreeLog(Path path, Codec<X> cx, Codec<Y> cy, Codec<V> cv, Sync sync, int groupSize)
+          throws IOException {
+    if (groupSize < 1) throw new IllegalArgumentException("groupSize must be positive");
+    this.cx = cx;
+    this.cy = cy;
+    this.cv = cv;
+    this.sync = sync;
+    this.groupSize = (sync == Sync.ALWAYS ? 1 : groupSize);
+    long end = (Files.exists(path) && Files.size(path) >= HEADER ? scan(path, null) : 0);
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      channel.truncate(end);
+      channel.position(end);
+      file = Channels.newOutputStream(channel);
+      if (end == 0) writeHeader();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    groupData.writeInt(MAGIC);
+    groupData.writeInt(VERSION);
+    group.writeTo(file);
+    group.reset();
+    channel.force(true);
+  }
+
+  /**
+   * Records that a key was mapped to a value.
+   * @throws IOException if the log cannot be written
+   */
+  public void put(Coord<X,Y> key, V value) throws IOException {
+    record.reset();                         // in case a codec failed halfway through the last record
+    cx.write(recordData, key.getX());
+    cy.write(recordData, key.getY());
+    cv.write(recordData, value);
+    append(PUT);
+  }
+
+  /**
+   * Records that a key was removed.
+   * @throws IOException if the log cannot be written
+   */
+  public void remove(Coord<X,Y> key) throws IOException {
+    record.reset();
+    cx.write(recordData, key.getX());
+    cy.write(recordData, key.getY());
+    append(REMOVE);
+  }
+
+  /** Frames the payload in record as a record with the given op, and adds it to the group. */
+  private void append(byte op) throws IOException {
+    crc.reset();
+    crc.update(op);
+    crc.update(record.bytes(), 0, record.size());
+    groupData.writeByte(op);
+    groupData.writeInt(record.size());
+    record.writeTo(groupData);
+    groupData.writeInt((int) crc.getValue());
+    record.reset();
+    if (++pending >= groupSize)
+      write(sync != Sync.NONE);
+  }
+
+  /** Writes the records of the group to the file, forcing them to the disk if asked. */
+  private void write(boolean force) throws IOException {
+    if (pending > 0) {
+      group.writeTo(file);
+      group.reset();
+      pending = 0;
+    }
+    if (force) channel.force(false);
+  }
+
+  /**
+   * Writes every record made so far and forces the file to the disk, whatever
+   * the Sync policy, so that none of them can be lost.
+   * @throws IOException if the log cannot be written
+   */
+  public void commit() throws IOException {
+    write(true);
+  }
+
+  /**
+   * Empties the log, once its records are part of a snapshot.
+   * @throws IOException if the log cannot be written
+   */
+  public void reset() throws IOException {
+    group.reset();
+    pending = 0;
+    channel.truncate(HEADER);
+    channel.position(HEADER);
+    channel.force(true);
+  }
+
+  /**
+   * Commits the records made so far and closes the file.
+   * @throws IOException if the log cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Applies the records of a log, in order, to a map. Records after the first
+   * incomplete or corrupt one are ignored, as a crash may have torn them; a
+   * file shorter than the header holds no records, as when opening a log.
+   * @param path  the file holding the log
+   * @param map   the map receiving the puts and removes
+   * @param cx    the codec for X components
+   * @param cy    the codec for Y components
+   * @param cv    the codec for values
+   * @return the number of records applied
+   * @throws IOException if the file cannot be read, or is not a log of this version
+   */
+  public static <X,Y,V> long replay(Path path, Map<Coord<X,Y>,V> map,
+                                    Codec<X> cx, Codec<Y> cy, Codec<V> cv) throws IOException {
+    if (Files.size(path) < HEADER) return 0;          // a log torn before its header was written
+    long[] count = new long[1];
+    scan(path, (op, payload) -> {
+      Coord<X,Y> key = new Coord<>(cx.read(payload), cy.read(payload));
+      if (op == PUT)
+        map.put(key, cv.read(payload));
+      else
+        map.remove(key);
+      count[0]++;
+    });
+    return count[0];
+  }
+
+  /**
+   * Reads the good records of a log, passing each to the sink (if not null).
+   * @return the length of the log up to the end of its last good record
+   */
+  private static long scan(Path path, RecordSink sink) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+      try {
+        if (data.readInt() != MAGIC)
+          throw new IOException("Not a SpatialTreeMap log");
+        int version = data.readInt();
+        if (version != VERSION)
+          throw new IOException("Unsupported log version " + version);
+      } catch (EOFException e) {
+        throw new IOException("Not a SpatialTreeMap log");
+      }
+      long end = HEADER;
+      CRC32 crc = new CRC32();
+      byte[] payload = new byte[64];
+      while (true) {
+        int op = data.read();
+        if (op != PUT && op != REMOVE) break;           // the end of the log, or garbage
+        int length;
+        int stored;
+        try {
+          length = data.readInt();
+          if (length < 0) break;
+          if (length > payload.length) payload = new byte[Math.max(length, 2 * payload.length)];
+          data.readFully(payload, 0, length);
+          stored = data.readInt();
+        } catch (EOFException e) {
+          break;                                          // a record torn by a crash
+        }
+        crc.reset();
+        crc.update(op);
+        crc.update(payload, 0, length);
+        if (stored != (int) crc.getValue()) break;
+        if (sink != null)
+          sink.accept((byte) op, new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+        end += 1 + 4 + length + 4;
+      }
+      return end;
+    }
+  }
+}
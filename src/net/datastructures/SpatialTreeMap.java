@@ -15,15 +15,28 @@
 package net.datastructures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An implementation of a map using a quad search tree.
  *
+ * Every node of the tree holds an entry; a missing child is simply absent
+ * (null) rather than a sentinel leaf, so the tree has one node per entry.
  */
 public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements Sorted2DMap<X,Y,V>  {
 
-  protected LinkedQuadTree<Entry<Coord<X,Y>,V>> tree = new LinkedQuadTree<>();
+  protected MutableQuadTree<Entry<Coord<X,Y>,V>> tree;
 
   /** Constructs an empty map */
   public SpatialTreeMap() {
@@ -31,9 +44,94 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
   }
 
   public SpatialTreeMap(Comparator<X> cx, Comparator<Y> cy) {
+    this(cx, cy, new LinkedQuadTree<Entry<Coord<X,Y>,V>>());
+  }
+
+  /**
+   * Constructs an empty map stored in the given quad tree, which lets the map
+   * run on a different node storage engine (e.g. an ArrayQuadTree).
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @param storage  an empty tree that will hold the entries of the map
+   * @throws IllegalArgumentException if the tree is not empty
+   */
+  public SpatialTreeMap(Comparator<X> cx, Comparator<Y> cy, MutableQuadTree<Entry<Coord<X,Y>,V>> storage)
+          throws IllegalArgumentException {
+    if (!storage.isEmpty()) throw new IllegalArgumentException("storage is not empty");
     this.compX = cx;
     this.compY = cy;
-    tree.addRoot(null);       // create a sentinel leaf as root
+    this.tree = storage;      // the tree stays empty until the first put
+  }
+
+  /**
+   * Constructs a map holding the given entries, using the natural ordering of
+   * the key components. See {@link #bulkLoad(Iterable, Comparator, Comparator)}.
+   * @param entries  the entries to be stored in the map
+   * @return a new map whose tree is close to balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> bulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries)
+          throws IllegalArgumentException {
+    return bulkLoad(entries, new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Constructs a map holding the given entries. Rather than inserting them one at
+   * a time, the tree is built top-down: each node is split on an entry lying close
+   * to the median of its subtree along both X and Y, so that the four quadrants
+   * below it receive about a quarter of the entries each. The resulting height is
+   * close to log4(n) and never more than log2(n), whatever the order of the input.
+   * If several entries share a key, the last one wins, as it would with put.
+   * @param entries  the entries to be stored in the map
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @return a new map whose tree is close to balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> bulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries,
+                                                       Comparator<X> cx, Comparator<Y> cy)
+          throws IllegalArgumentException {
+    SpatialTreeMap<X,Y,V> map = new SpatialTreeMap<>(cx, cy);
+    map.buildSubtree(null, 0, map.rankEntries(entries, false));
+    return map;
+  }
+
+  /**
+   * Constructs a map holding the given entries, using the natural ordering of
+   * the key components and the common fork/join pool. See
+   * {@link #parallelBulkLoad(Iterable, Comparator, Comparator, ForkJoinPool)}.
+   * @param entries  the entries to be stored in the map
+   * @return a new map whose tree is close to balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> parallelBulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries)
+          throws IllegalArgumentException {
+    return parallelBulkLoad(entries, new DefaultComparator<X>(), new DefaultComparator<Y>(), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructs the same map as {@link #bulkLoad(Iterable, Comparator, Comparator)},
+   * using the threads of the given pool. Once a pivot is chosen, the entries of its
+   * four quadrants are independent problems, so each is laid out by a task of its
+   * own; the layout is then attached to the tree in a single sequential pass, since
+   * the tree itself is not thread-safe. The comparators may be called from several
+   * threads at once.
+   * @param entries  the entries to be stored in the map
+   * @param cx  comparator defining the order of X components
+   * @param cy  comparator defining the order of Y components
+   * @param pool  the pool running the tasks
+   * @return a new map whose tree is close to balanced
+   * @throws IllegalArgumentException if a key is not compatible with the map
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> parallelBulkLoad(Iterable<? extends Entry<Coord<X,Y>,V>> entries,
+                                                               Comparator<X> cx, Comparator<Y> cy, ForkJoinPool pool)
+          throws IllegalArgumentException {
+    SpatialTreeMap<X,Y,V> map = new SpatialTreeMap<>(cx, cy);
+    List<Ranked<Entry<Coord<X,Y>,V>>> byX = map.rankEntries(entries, true);
+    if (byX.isEmpty()) return map;
+    List<Ranked<Entry<Coord<X,Y>,V>>> byY = map.sortedByY(byX, true);
+    map.attach(null, 0, pool.invoke(map.new LayoutTask(byX, byY)));
+    return map;
   }
 
   // instance variable for an AbstractSortedMap
@@ -56,51 +154,52 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
    */
   @Override
   public int size() {
-      // COMPLETE
-      // keep in mind only internal nodes have elements
-      return (tree.size() - 1) / 4;
+    return tree.size();                     // every node holds an entry
   }
 
-  /** Utility used when inserting a new entry at a leaf of the tree */
-  private void expandExternal(Position<Entry<Coord<X,Y>,V>> p, Entry<Coord<X,Y>,V> entry) {
-      // COMPLETE
-    tree.set(p, entry);
-    tree.addNW(p, null);
-    tree.addNE(p, null);
-    tree.addSW(p, null);
-    tree.addSE(p, null);
+  /**
+   * Utility used when inserting a new entry, which becomes the child of p in
+   * the given quadrant (or the root, if p is null).
+   */
+  private Position<Entry<Coord<X,Y>,V>> addChild(Position<Entry<Coord<X,Y>,V>> p, int quadrant,
+                                                 Entry<Coord<X,Y>,V> entry) {
+    if (p == null)
+      return tree.addRoot(entry);
+    switch (quadrant) {
+      case MutableQuadTree.NW: return tree.addNW(p, entry);
+      case MutableQuadTree.NE: return tree.addNE(p, entry);
+      case MutableQuadTree.SW: return tree.addSW(p, entry);
+      default: return tree.addSE(p, entry);
+    }
   }
 
   protected Position<Entry<Coord<X, Y>,V>> root() { return tree.root(); }
-  protected boolean isExternal(Position<Entry<Coord<X, Y>,V>> p) { return tree.isExternal(p); }
-  protected boolean isInternal(Position<Entry<Coord<X, Y>,V>> p) { return tree.isInternal(p); }
+  protected Position<Entry<Coord<X, Y>,V>> parent(Position<Entry<Coord<X, Y>,V>> p) { return tree.parent(p); }
   protected Position<Entry<Coord<X, Y>, V>> nw(Position<Entry<Coord<X, Y>, V>> p) { return tree.nw(p); }
   protected Position<Entry<Coord<X, Y>, V>> ne(Position<Entry<Coord<X, Y>, V>> p) { return tree.ne(p); }
   protected Position<Entry<Coord<X, Y>, V>> sw(Position<Entry<Coord<X, Y>, V>> p) { return tree.sw(p); }
   protected Position<Entry<Coord<X, Y>, V>> se(Position<Entry<Coord<X, Y>, V>> p) { return tree.se(p); }
 
   /**
-   * Returns the position in p's subtree having the given key (or else the terminal leaf).
+   * Returns the position having the given key (or null if there is none).
+   * The search is a loop run by tree.descend, so its depth is not limited by the
+   * call stack, and an engine can walk its own storage without creating or
+   * validating a position for every node on the way.
    * @param key  a target key
-   * @param p  a position of the tree serving as root of a subtree
-   * @return Position holding key, or last node reached during search
-   */
-  private Position<Entry<Coord<X,Y>,V>> treeSearch(Position<Entry<Coord<X,Y>,V>> p, Coord<X,Y> key) {
-    if (isExternal(p))
-      return p;
-    Coord<X, Y> e = p.getElement().getKey();
-    int x = compX.compare(key.getX(), e.getX());
-    int y = compY.compare(key.getY(), e.getY());
-    if (x == 0 && y == 0)
-      return p;
-    if (x >= 0 && y >= 0)
-      return treeSearch(ne(p), key);
-    if (x < 0 && y >= 0)
-      return treeSearch(nw(p), key);
-    if (x >= 0 && y < 0)
-      return treeSearch(se(p), key);
-    else
-      return treeSearch(sw(p), key);
+   * @return Position holding key, or null if the key is not in the map
+   * @throws IllegalArgumentException if the key cannot be compared with those in the map
+   */
+  private Position<Entry<Coord<X,Y>,V>> treeSearch(Coord<X,Y> key) throws IllegalArgumentException {
+    try {
+      return tree.descend(e -> {
+        Coord<X,Y> k = e.getKey();
+        int x = compX.compare(key.getX(), k.getX());
+        int y = compY.compare(key.getY(), k.getY());
+        return (x == 0 && y == 0 ? -1 : MutableQuadTree.quadrant(x, y));   // stop at the key, or go down
+      });
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
+    }
   }
 
   /**
@@ -110,11 +209,9 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
    */
   @Override
   public V get(Coord<X,Y> key) throws IllegalArgumentException {
-      checkKey(key);
-      Position<Entry<Coord<X, Y>, V>> p = treeSearch(root(), key);
-      if (isExternal(p))
-        return null;
-      return p.getElement().getValue();
+      if (isEmpty()) checkKey(key);         // otherwise treeSearch rejects incompatible keys
+      Position<Entry<Coord<X, Y>, V>> p = treeSearch(key);
+      return (p == null ? null : p.getElement().getValue());
   }
 
   /**
@@ -128,17 +225,33 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
    */
   @Override
   public V put(Coord<X,Y> key, V value) throws IllegalArgumentException {
-    //COMPLETE
-    checkKey(key);
     Entry<Coord<X, Y>, V> newEntry = new MapEntry<>(key, value);
-    Position<Entry<Coord<X, Y>, V>> p = treeSearch(root(), key);
-    if (isExternal(p)) {
-      expandExternal(p, newEntry);
+    if (isEmpty()) {
+      checkKey(key);                        // later keys are checked by the comparisons below
+      addChild(null, 0, newEntry);
       return null;
-    } else {
-      V old = p.getElement().getValue();
-      tree.set(p, newEntry);
-      return old;
+    }
+    try {
+      Position<Entry<Coord<X, Y>, V>> p = root();
+      while (true) {
+        Coord<X, Y> k = p.getElement().getKey();
+        int x = compX.compare(key.getX(), k.getX());
+        int y = compY.compare(key.getY(), k.getY());
+        if (x == 0 && y == 0) {             // replacing existing key
+          V old = p.getElement().getValue();
+          tree.set(p, newEntry);
+          return old;
+        }
+        int q = MutableQuadTree.quadrant(x, y);
+        Position<Entry<Coord<X, Y>, V>> child = tree.child(p, q);
+        if (child == null) {                // key is new
+          addChild(p, q, newEntry);
+          return null;
+        }
+        p = child;
+      }
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException("Incompatible key");
     }
   }
 
@@ -150,36 +263,589 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
    */
   @Override
   public V remove(Coord<X,Y> key) throws IllegalArgumentException {
-      throw new UnsupportedOperationException("Remove not supported in this Map");
+    if (isEmpty()) checkKey(key);           // otherwise treeSearch rejects incompatible keys
+    Position<Entry<Coord<X,Y>,V>> p = treeSearch(key);
+    if (p == null)                          // key not found
+      return null;
+    V old = p.getElement().getValue();
+    // every entry below p lies in the region that p's ancestors assign to p,
+    // so they can be rebuilt in p's place without touching the rest of the tree
+    List<Ranked<Entry<Coord<X,Y>,V>>> rest = new ArrayList<>();
+    for (Entry<Coord<X,Y>,V> e : pruneSubtree(p))
+      rest.add(new Ranked<>(e));
+    Position<Entry<Coord<X,Y>,V>> above = parent(p);
+    int q = (above == null ? 0 : quadrantOf(p.getElement().getKey(), above.getElement().getKey()));
+    tree.remove(p);                         // p is a leaf by now
+    sortByX(rest);
+    buildSubtree(above, q, rest);
+    return old;
+  }
+
+  /**
+   * Removes every node below p, leaving p as a leaf, and returns the entries
+   * that were stored there. Runs in time proportional to the size of the subtree.
+   */
+  private List<Entry<Coord<X,Y>,V>> pruneSubtree(Position<Entry<Coord<X,Y>,V>> p) {
+    List<Entry<Coord<X,Y>,V>> entries = new ArrayList<>();
+    List<Position<Entry<Coord<X,Y>,V>>> below = new ArrayList<>();   // in preorder
+    ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    for (Position<Entry<Coord<X,Y>,V>> c : tree.children(p))
+      stack.add(c);
+    while (!stack.isEmpty()) {
+      Position<Entry<Coord<X,Y>,V>> walk = stack.remove(stack.size() - 1);
+      below.add(walk);
+      entries.add(walk.getElement());
+      for (Position<Entry<Coord<X,Y>,V>> c : tree.children(walk))
+        stack.add(c);
+    }
+    for (int i = below.size() - 1; i >= 0; i--)
+      tree.remove(below.get(i));            // descendants go first, so each is a leaf by now
+    return entries;
+  }
+
+  //---------------- support for bulk loading ----------------
+  /** Number of entries near the medians that are tried as the pivot of each node. */
+  private static final int PIVOT_CANDIDATES = 8;
+
+  /** An entry being bulk loaded, with its current rank along each axis. */
+  private static class Ranked<E> {
+    private final E entry;
+    private int xRank;
+    private int yRank;
+    Ranked(E entry) { this.entry = entry; }
+  }
+
+  /**
+   * Copies the entries into a list ordered by X (then Y) with duplicate keys
+   * collapsed, keeping the last entry given for each key.
+   */
+  private List<Ranked<Entry<Coord<X,Y>,V>>> rankEntries(Iterable<? extends Entry<Coord<X,Y>,V>> entries,
+                                                         boolean parallel) {
+    List<Ranked<Entry<Coord<X,Y>,V>>> all = new ArrayList<>();
+    for (Entry<Coord<X,Y>,V> e : entries) {
+      checkKey(e.getKey());                     // may throw IllegalArgumentException
+      all.add(new Ranked<Entry<Coord<X,Y>,V>>(new MapEntry<>(e.getKey(), e.getValue())));
+    }
+    if (parallel)
+      all = parallelSort(all, byXThenY());      // stable as well
+    else
+      sortByX(all);                             // stable, so later duplicates stay later
+    List<Ranked<Entry<Coord<X,Y>,V>>> byX = new ArrayList<>(all.size());
+    for (Ranked<Entry<Coord<X,Y>,V>> r : all) {
+      int last = byX.size() - 1;
+      if (last >= 0 && sameKey(byX.get(last).entry.getKey(), r.entry.getKey()))
+        byX.set(last, r);                       // a later duplicate replaces the earlier one
+      else
+        byX.add(r);
+    }
+    return byX;
+  }
+
+  /** Sorts a list of entries by X, then Y (the sort is stable). */
+  private void sortByX(List<Ranked<Entry<Coord<X,Y>,V>>> list) {
+    Collections.sort(list, byXThenY());
+  }
+
+  /** Returns a comparator ordering entries by X, then Y. */
+  private Comparator<Ranked<Entry<Coord<X,Y>,V>>> byXThenY() {
+    return (a, b) -> {
+      int c = compX.compare(a.entry.getKey().getX(), b.entry.getKey().getX());
+      return c != 0 ? c : compY.compare(a.entry.getKey().getY(), b.entry.getKey().getY());
+    };
+  }
+
+  /** Returns a copy of a list sorted by Y alone, which keeps the X order among equal Ys. */
+  private List<Ranked<Entry<Coord<X,Y>,V>>> sortedByY(List<Ranked<Entry<Coord<X,Y>,V>>> byX, boolean parallel) {
+    Comparator<Ranked<Entry<Coord<X,Y>,V>>> byY = (a, b) -> compY.compare(a.entry.getKey().getY(), b.entry.getKey().getY());
+    if (parallel)
+      return parallelSort(byX, byY);
+    List<Ranked<Entry<Coord<X,Y>,V>>> list = new ArrayList<>(byX);
+    Collections.sort(list, byY);
+    return list;
+  }
+
+  /** Returns a sorted copy of a list, sorting it with the fork/join pool (the sort is stable). */
+  @SuppressWarnings({"unchecked"})
+  private static <T> List<T> parallelSort(List<T> list, Comparator<? super T> c) {
+    T[] array = (T[]) list.toArray();
+    Arrays.parallelSort(array, c);
+    return Arrays.asList(array);
+  }
+
+  /** Returns true if the two keys compare equal along both axes. */
+  private boolean sameKey(Coord<X,Y> a, Coord<X,Y> b) {
+    return compX.compare(a.getX(), b.getX()) == 0 && compY.compare(a.getY(), b.getY()) == 0;
+  }
+
+  /**
+   * Builds a subtree holding the given distinct entries, which must be ordered
+   * by X, as the child of p in the given quadrant (or as the root, if p is null).
+   */
+  private void buildSubtree(Position<Entry<Coord<X,Y>,V>> p, int quadrant, List<Ranked<Entry<Coord<X,Y>,V>>> byX) {
+    buildSubtree(p, quadrant, byX, sortedByY(byX, false));
+  }
+
+  /**
+   * Builds a subtree holding the given distinct entries, supplied both in X order
+   * and in Y order, as the child of p in the given quadrant (or as the root). Each level picks a pivot close to both medians and
+   * partitions the two lists into the pivot's four quadrants, preserving their
+   * order, so no sorting is needed below the top level.
+   */
+  private void buildSubtree(Position<Entry<Coord<X,Y>,V>> p, int quadrant, List<Ranked<Entry<Coord<X,Y>,V>>> byX,
+                            List<Ranked<Entry<Coord<X,Y>,V>>> byY) {
+    int n = byX.size();
+    if (n == 0) return;
+    for (int i = 0; i < n; i++) {
+      byX.get(i).xRank = i;
+      byY.get(i).yRank = i;
+    }
+    Ranked<Entry<Coord<X,Y>,V>> pivot = choosePivot(byX);
+    Position<Entry<Coord<X,Y>,V>> node = addChild(p, quadrant, pivot.entry);
+    List<List<Ranked<Entry<Coord<X,Y>,V>>>> xParts = partition(byX, pivot.entry.getKey());
+    List<List<Ranked<Entry<Coord<X,Y>,V>>>> yParts = partition(byY, pivot.entry.getKey());
+    for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++)
+      buildSubtree(node, q, xParts.get(q), yParts.get(q));
+  }
+
+  /** Number of entries below which a LayoutTask does its whole subtree itself. */
+  private static final int PARALLEL_THRESHOLD = 8192;
+
+  /** The shape of a subtree laid out by a LayoutTask, before it is attached to the tree. */
+  private static class Layout<E> {
+    private final E entry;
+    private final List<Layout<E>> children = new ArrayList<>(4);   // NW, NE, SW, SE (null if absent)
+    Layout(E entry) { this.entry = entry; }
+  }
+
+  //---------------- nested LayoutTask class ----------------
+  /**
+   * Lays out a subtree the way buildSubtree does, forking a task for each
+   * quadrant that is large enough to be worth it. Sibling tasks work on
+   * disjoint entries, so the ranks stored in them need no synchronization.
+   */
+  private class LayoutTask extends RecursiveTask<Layout<Entry<Coord<X,Y>,V>>> {
+    private static final long serialVersionUID = 1L;
+    private final List<Ranked<Entry<Coord<X,Y>,V>>> byX;
+    private final List<Ranked<Entry<Coord<X,Y>,V>>> byY;
+
+    LayoutTask(List<Ranked<Entry<Coord<X,Y>,V>>> byX, List<Ranked<Entry<Coord<X,Y>,V>>> byY) {
+      this.byX = byX;
+      this.byY = byY;
+    }
+
+    @Override
+    protected Layout<Entry<Coord<X,Y>,V>> compute() {
+      int n = byX.size();
+      if (n == 0) return null;
+      for (int i = 0; i < n; i++) {
+        byX.get(i).xRank = i;
+        byY.get(i).yRank = i;
+      }
+      Ranked<Entry<Coord<X,Y>,V>> pivot = choosePivot(byX);
+      Layout<Entry<Coord<X,Y>,V>> layout = new Layout<>(pivot.entry);
+      List<List<Ranked<Entry<Coord<X,Y>,V>>>> xParts = partition(byX, pivot.entry.getKey());
+      List<List<Ranked<Entry<Coord<X,Y>,V>>>> yParts = partition(byY, pivot.entry.getKey());
+      List<LayoutTask> tasks = new ArrayList<>(4);
+      for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++) {
+        tasks.add(new LayoutTask(xParts.get(q), yParts.get(q)));
+        if (xParts.get(q).size() >= PARALLEL_THRESHOLD) tasks.get(q).fork();
+      }
+      for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++)   // small quadrants are done right here
+        layout.children.add(xParts.get(q).size() >= PARALLEL_THRESHOLD ? tasks.get(q).join() : tasks.get(q).compute());
+      return layout;
+    }
+  } //----------- end of nested LayoutTask class -----------
+
+  /** Attaches a laid-out subtree as the child of p in the given quadrant (or as the root). */
+  private void attach(Position<Entry<Coord<X,Y>,V>> p, int quadrant, Layout<Entry<Coord<X,Y>,V>> layout) {
+    if (layout == null) return;
+    Position<Entry<Coord<X,Y>,V>> node = addChild(p, quadrant, layout.entry);
+    for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++)
+      attach(node, q, layout.children.get(q));
+  }
+
+  /**
+   * Picks the entry of byX that leaves the largest of its four quadrants smallest,
+   * among the X median and the few entries whose ranks are closest to both medians.
+   */
+  private Ranked<Entry<Coord<X,Y>,V>> choosePivot(List<Ranked<Entry<Coord<X,Y>,V>>> byX) {
+    int n = byX.size();
+    int mid = n / 2;
+    List<Ranked<Entry<Coord<X,Y>,V>>> closest = new ArrayList<>(PIVOT_CANDIDATES + 1);
+    for (Ranked<Entry<Coord<X,Y>,V>> r : byX) {  // keep the few closest, sorted by distance
+      int i = closest.size();
+      while (i > 0 && rankDistance(r, mid) < rankDistance(closest.get(i - 1), mid))
+        i--;
+      if (i < PIVOT_CANDIDATES) {
+        closest.add(i, r);
+        if (closest.size() > PIVOT_CANDIDATES) closest.remove(PIVOT_CANDIDATES);
+      }
+    }
+    List<Ranked<Entry<Coord<X,Y>,V>>> candidates = new ArrayList<>(closest);
+    if (!closest.contains(byX.get(mid)))
+      candidates.add(byX.get(mid));               // guarantees no quadrant exceeds half
+    Ranked<Entry<Coord<X,Y>,V>> best = null;
+    int bestLargest = Integer.MAX_VALUE;
+    for (Ranked<Entry<Coord<X,Y>,V>> c : candidates) {
+      int[] counts = new int[4];
+      Coord<X,Y> k = c.entry.getKey();
+      for (Ranked<Entry<Coord<X,Y>,V>> r : byX)
+        if (r != c) counts[quadrantOf(r.entry.getKey(), k)]++;
+      int largest = Math.max(Math.max(counts[0], counts[1]), Math.max(counts[2], counts[3]));
+      if (largest < bestLargest) {
+        best = c;
+        bestLargest = largest;
+      }
+    }
+    return best;
+  }
+
+  /** Returns how far an entry's ranks are from the medians (the larger of the two). */
+  private static int rankDistance(Ranked<?> r, int mid) {
+    return Math.max(Math.abs(r.xRank - mid), Math.abs(r.yRank - mid));
+  }
+
+  /** Splits a list (minus the pivot) into its NW, NE, SW and SE parts, preserving order. */
+  private List<List<Ranked<Entry<Coord<X,Y>,V>>>> partition(List<Ranked<Entry<Coord<X,Y>,V>>> list, Coord<X,Y> pivot) {
+    List<List<Ranked<Entry<Coord<X,Y>,V>>>> quadrants = new ArrayList<>(4);
+    for (int q = 0; q < 4; q++)
+      quadrants.add(new ArrayList<Ranked<Entry<Coord<X,Y>,V>>>());
+    for (Ranked<Entry<Coord<X,Y>,V>> r : list)
+      if (r.entry.getKey() != pivot)
+        quadrants.get(quadrantOf(r.entry.getKey(), pivot)).add(r);
+    return quadrants;
+  }
+
+  /**
+   * Returns the quadrant of pivot in which key belongs, numbered 0 to 3 for
+   * NW, NE, SW and SE, following the same tie-breaking as treeSearch.
+   */
+  private int quadrantOf(Coord<X,Y> key, Coord<X,Y> pivot) {
+    return MutableQuadTree.quadrant(compX.compare(key.getX(), pivot.getX()), compY.compare(key.getY(), pivot.getY()));
   }
 
   // Support for iteration
   /**
-   * Returns an iterable collection of all key-value entries of the map.
+   * Returns an iterable collection of all key-value entries of the map, in
+   * preorder. The entries are found lazily as the result is iterated, using
+   * memory proportional to the height of the tree rather than to its size;
+   * keySet() and values() iterate the same way. The map must not be changed
+   * while an iteration is in progress.
    *
    * @return iterable collection of the map's entries
    */
   @Override
   public Iterable<Entry<Coord<X,Y>,V>> entrySet() {
-    ArrayList<Entry<Coord<X,Y>,V>> buffer = new ArrayList<>(size());
-    for (Position<Entry<Coord<X,Y>,V>> p : tree.breadthfirst())
-      if (tree.isInternal(p)) buffer.add(p.getElement());
-    return buffer;
+    return () -> new EntryIterator();
   }
 
+  //---------------- nested EntryIterator class ----------------
   /**
-   * Returns an iterable containing all entries with keys in the range from
-   * <code>fromKey</code> inclusive to <code>toKey</code> exclusive.
+   * Iterator walking the whole tree depth-first with an explicit stack, which
+   * holds at most three pending siblings per level and is reused throughout.
+   * With linked storage no object is created per entry; ArrayQuadTree creates
+   * a position for every child it returns.
+   */
+  private class EntryIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+
+    EntryIterator() {
+      if (!isEmpty()) stack.add(root());
+    }
+
+    public boolean hasNext() { return !stack.isEmpty(); }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (stack.isEmpty()) throw new NoSuchElementException("No more entries");
+      Position<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--) {   // NW is visited first
+        Position<Entry<Coord<X,Y>,V>> c = tree.child(p, q);
+        if (c != null) stack.add(c);
+      }
+      return p.getElement();
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested EntryIterator class -----------
+
+  /**
+   * Returns an iterable containing all entries with keys inside the rectangle
+   * spanned by <code>nwCorner</code> and <code>seCorner</code> (edges inclusive).
+   * The entries are found lazily as the result is iterated, descending only into
+   * the quadrants of the tree that can overlap the rectangle.
    * @return iterable with keys in desired range
-   * @throws IllegalArgumentException if <code>fromKey</code> or <code>toKey</code> is not compatible with the map
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
    */
   @Override
   public Iterable<Entry<Coord<X,Y>,V>> subMap(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException {
-      // not part of the homework
-      // we need it here to satisfy the interface
-      return null;
+    checkKey(nwCorner);                               // may throw IllegalArgumentException
+    checkKey(seCorner);                               // may throw IllegalArgumentException
+    return new RangeIterable(nwCorner, seCorner);
   }
 
+  //---------------- nested RangeIterator class ----------------
+  /**
+   * Iterator reporting the entries whose keys lie inside a rectangle. It keeps a
+   * stack of subtrees still to be explored and only pushes the children whose
+   * quadrant can overlap the rectangle.
+   */
+  private class RangeIterator implements Iterator<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+    private final ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    private Entry<Coord<X,Y>,V> next;                 // next entry to report (or null if done)
+
+    RangeIterator(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+      if (!isEmpty() && compX.compare(nwCorner.getX(), seCorner.getX()) <= 0
+          && compY.compare(seCorner.getY(), nwCorner.getY()) <= 0)
+        stack.add(root());                            // otherwise the rectangle is empty
+      advance();
+    }
+
+    /** Moves to the next entry inside the rectangle, pruning quadrants outside it. */
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Position<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+        if (p == null) continue;                       // no child in that quadrant
+        Coord<X,Y> e = p.getElement().getKey();
+        int west = compX.compare(nwCorner.getX(), e.getX());
+        int east = compX.compare(seCorner.getX(), e.getX());
+        int north = compY.compare(nwCorner.getY(), e.getY());
+        int south = compY.compare(seCorner.getY(), e.getY());
+        // push in reverse so that quadrants are reported in NW, NE, SW, SE order
+        if (east >= 0 && south < 0) stack.add(tree.child(p, MutableQuadTree.SE));
+        if (west < 0 && south < 0) stack.add(tree.child(p, MutableQuadTree.SW));
+        if (east >= 0 && north >= 0) stack.add(tree.child(p, MutableQuadTree.NE));
+        if (west < 0 && north >= 0) stack.add(tree.child(p, MutableQuadTree.NW));
+        if (west <= 0 && east >= 0 && south <= 0 && north >= 0)
+          next = p.getElement();                      // p itself lies inside the rectangle
+      }
+    }
+
+    public boolean hasNext() { return next != null; }
+
+    public Entry<Coord<X,Y>,V> next() {
+      if (next == null) throw new NoSuchElementException("No more entries in range");
+      Entry<Coord<X,Y>,V> answer = next;
+      advance();
+      return answer;
+    }
+
+    public void remove() { throw new UnsupportedOperationException("remove not supported"); }
+  } //----------- end of nested RangeIterator class -----------
+
+  //---------------- nested RangeIterable class ----------------
+  private class RangeIterable implements Iterable<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+    RangeIterable(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+    }
+    public Iterator<Entry<Coord<X,Y>,V>> iterator() { return new RangeIterator(nwCorner, seCorner); }
+  } //----------- end of nested RangeIterable class -----------
+
+  /**
+   * Returns a sequential stream over the entries of the map, which walks the
+   * tree directly instead of copying the entries first. The map must not be
+   * changed while the stream is in use.
+   * @return a stream over the map's entries
+   */
+  public Stream<Entry<Coord<X,Y>,V>> stream() {
+    return StreamSupport.stream(new TreeSpliterator(null, null), false);
+  }
+
+  /**
+   * Returns a parallel stream over the entries of the map. The tree is split
+   * among the worker threads along its quadrant subtrees, so no entry is copied
+   * beforehand. The map must not be changed while the stream is in use.
+   * @return a parallel stream over the map's entries
+   */
+  public Stream<Entry<Coord<X,Y>,V>> parallelStream() {
+    return StreamSupport.stream(new TreeSpliterator(null, null), true);
+  }
+
+  /**
+   * Returns a sequential stream over the entries whose keys lie inside the
+   * rectangle spanned by <code>nwCorner</code> and <code>seCorner</code> (edges
+   * inclusive), pruning quadrants outside it as subMap does.
+   * @return a stream over the entries in the rectangle
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  public Stream<Entry<Coord<X,Y>,V>> stream(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);                               // may throw IllegalArgumentException
+    checkKey(seCorner);                               // may throw IllegalArgumentException
+    return StreamSupport.stream(new TreeSpliterator(nwCorner, seCorner), false);
+  }
+
+  /**
+   * Returns a parallel stream over the entries whose keys lie inside the
+   * rectangle spanned by <code>nwCorner</code> and <code>seCorner</code> (edges
+   * inclusive), with the quadrants that overlap it split among the worker threads.
+   * @return a parallel stream over the entries in the rectangle
+   * @throws IllegalArgumentException if <code>nwCorner</code> or <code>seCorner</code> is not compatible with the map
+   */
+  public Stream<Entry<Coord<X,Y>,V>> parallelStream(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) throws IllegalArgumentException {
+    checkKey(nwCorner);                               // may throw IllegalArgumentException
+    checkKey(seCorner);                               // may throw IllegalArgumentException
+    return StreamSupport.stream(new TreeSpliterator(nwCorner, seCorner), true);
+  }
+
+  //---------------- nested TreeSpliterator class ----------------
+  /**
+   * Spliterator over the entries of some subtrees, optionally restricted to a
+   * rectangle (null corners stand for the whole plane). Like RangeIterator it
+   * keeps a stack of subtrees still to be explored. Splitting hands over half
+   * of the stack; a stack holding a single subtree is first opened up into the
+   * entry at its root and its (overlapping) quadrants.
+   *
+   * Only the spliterator over the whole map, before any split, knows its exact
+   * size and reports SIZED; subtrees do not record their sizes, so the others
+   * report an estimate that is halved at each split.
+   */
+  private class TreeSpliterator implements Spliterator<Entry<Coord<X,Y>,V>> {
+    private final Coord<X,Y> nwCorner;
+    private final Coord<X,Y> seCorner;
+    private final ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    private Entry<Coord<X,Y>,V> head;                 // an entry to report before the stack (or null)
+    private long estimate;                            // estimated number of entries left
+    private boolean exact;                            // whether estimate is the exact count
+
+    TreeSpliterator(Coord<X,Y> nwCorner, Coord<X,Y> seCorner) {
+      this.nwCorner = nwCorner;
+      this.seCorner = seCorner;
+      estimate = size();
+      exact = (nwCorner == null);
+      if (!isEmpty() && (nwCorner == null || (compX.compare(nwCorner.getX(), seCorner.getX()) <= 0
+                                              && compY.compare(seCorner.getY(), nwCorner.getY()) <= 0)))
+        stack.add(root());                            // otherwise the rectangle is empty
+    }
+
+    private TreeSpliterator(TreeSpliterator from, List<Position<Entry<Coord<X,Y>,V>>> subtrees, long estimate) {
+      this.nwCorner = from.nwCorner;
+      this.seCorner = from.seCorner;
+      this.stack.addAll(subtrees);
+      this.estimate = estimate;
+    }
+
+    /**
+     * Pops a subtree, pushes its quadrants that can overlap the rectangle, and
+     * returns the entry at its root if that lies inside the rectangle (else null).
+     */
+    private Entry<Coord<X,Y>,V> open() {
+      Position<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      if (nwCorner == null) {                         // the whole plane
+        for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--) {
+          Position<Entry<Coord<X,Y>,V>> c = tree.child(p, q);
+          if (c != null) stack.add(c);
+        }
+        return p.getElement();
+      }
+      Coord<X,Y> e = p.getElement().getKey();
+      int west = compX.compare(nwCorner.getX(), e.getX());
+      int east = compX.compare(seCorner.getX(), e.getX());
+      int north = compY.compare(nwCorner.getY(), e.getY());
+      int south = compY.compare(seCorner.getY(), e.getY());
+      pushChild(p, MutableQuadTree.SE, east >= 0 && south < 0);
+      pushChild(p, MutableQuadTree.SW, west < 0 && south < 0);
+      pushChild(p, MutableQuadTree.NE, east >= 0 && north >= 0);
+      pushChild(p, MutableQuadTree.NW, west < 0 && north >= 0);
+      return (west <= 0 && east >= 0 && south <= 0 && north >= 0 ? p.getElement() : null);
+    }
+
+    /** Pushes the child of p in the given quadrant, if it exists and overlaps. */
+    private void pushChild(Position<Entry<Coord<X,Y>,V>> p, int quadrant, boolean overlaps) {
+      if (overlaps) {
+        Position<Entry<Coord<X,Y>,V>> c = tree.child(p, quadrant);
+        if (c != null) stack.add(c);
+      }
+    }
+
+    public boolean tryAdvance(Consumer<? super Entry<Coord<X,Y>,V>> action) {
+      Entry<Coord<X,Y>,V> next = head;
+      head = null;
+      while (next == null && !stack.isEmpty())
+        next = open();
+      if (next == null) return false;
+      if (estimate > 0) estimate--;
+      action.accept(next);
+      return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Entry<Coord<X,Y>,V>> action) {
+      if (head != null) action.accept(head);
+      head = null;
+      while (!stack.isEmpty()) {
+        Entry<Coord<X,Y>,V> next = open();
+        if (next != null) action.accept(next);
+      }
+      estimate = 0;
+    }
+
+    public Spliterator<Entry<Coord<X,Y>,V>> trySplit() {
+      if (stack.size() == 1 && head == null)
+        head = open();                                // open up the only subtree
+      int n = stack.size();
+      if (n < 2) return null;
+      // the bottom of the stack holds the subtrees to be explored last
+      List<Position<Entry<Coord<X,Y>,V>>> bottom = stack.subList(0, n / 2);
+      TreeSpliterator split = new TreeSpliterator(this, bottom, estimate / 2);
+      bottom.clear();
+      estimate -= estimate / 2;
+      exact = false;
+      return split;
+    }
+
+    public long estimateSize() { return estimate; }
+
+    public int characteristics() {
+      return DISTINCT | NONNULL | (exact ? SIZED : 0);
+    }
+  } //----------- end of nested TreeSpliterator class -----------
+
+
+  /**
+   * Returns the k entries whose keys are closest to the given key, nearest
+   * first (fewer if the map holds fewer than k entries). The tree is searched
+   * best-first: subtrees are explored in order of the smallest distance their
+   * quadrant could have to the key, and the search stops as soon as no
+   * unexplored quadrant can beat the k-th best entry found so far.
+   * @param key  the key whose neighbours are wanted
+   * @param k  the number of neighbours wanted
+   * @param distance  the distance function used to rank keys
+   * @return iterable with up to k entries, in increasing distance from key
+   * @throws IllegalArgumentException if the key is not compatible with the map or k is negative
+   */
+  public Iterable<Entry<Coord<X,Y>,V>> nearest(Coord<X,Y> key, int k, DistanceFunction<X,Y> distance)
+          throws IllegalArgumentException {
+    checkKey(key);                          // may throw IllegalArgumentException
+    NearestSearch<X,Y,V,Position<Entry<Coord<X,Y>,V>>> search =
+        new NearestSearch<>(isEmpty() ? null : root(), key, k, distance);
+    for (NearestSearch.Region<X,Y,Position<Entry<Coord<X,Y>,V>>> r; (r = search.next()) != null; ) {
+      Entry<Coord<X,Y>,V> e = r.node.getElement();
+      search.offer(e);
+      X x = e.getKey().getX();
+      Y y = e.getKey().getY();
+      search.explore(tree.child(r.node, MutableQuadTree.NW), 0, r.minX, x, y, r.maxY);
+      search.explore(tree.child(r.node, MutableQuadTree.NE), 0, x, r.maxX, y, r.maxY);
+      search.explore(tree.child(r.node, MutableQuadTree.SW), 0, r.minX, x, r.minY, y);
+      search.explore(tree.child(r.node, MutableQuadTree.SE), 0, x, r.maxX, r.minY, y);
+    }
+    return search.result();
+  }
+
+  /**
+   * Returns an immutable copy of the map, with its entries packed into arrays
+   * in Morton order (see MortonIndexMap). Later changes to this map are not
+   * reflected in the copy.
+   * @return a frozen copy of the map using the same comparators
+   */
+  public MortonIndexMap<X,Y,V> freeze() {
+    return new MortonIndexMap<>(entrySet(), compX, compY);
+  }
 
   // remainder of class is for debug purposes only
   /** Prints textual representation of tree structure (for debug purpose only). */
@@ -192,7 +858,7 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
   // use a XML tree viewer like https://jsonformatter.org/xml-viewer to see the nesting
   private void dumpRecurse(Position<Entry<Coord<X,Y>,V>> p, int depth, String from) {
     String indent = (depth == 0 ? "" : String.format("%" + (2*depth) + "s", ""));
-    if (tree.isExternal(p))
+    if (p == null)
       System.out.println(indent + "<leaf-"+from+"/>");
     else {
       System.out.println(indent + "<"+p.getElement().getKey()+"-"+from+">");
@@ -206,7 +872,23 @@ public class SpatialTreeMap<X,Y,V> extends AbstractMap<Coord<X,Y>,V> implements
 
   // for debugging - ought to be protected but we want to use it in our apps
   /*protected*/ public int treeHeight() {
-    return tree.height(tree.root());
+    // walk the tree without recursion, pairing each position with its depth
+    int height = 0;
+    ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    ArrayList<Integer> depths = new ArrayList<>();
+    stack.add(root());                      // may be null, for an empty map
+    depths.add(0);
+    while (!stack.isEmpty()) {
+      Position<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      int depth = depths.remove(depths.size() - 1);
+      if (p == null) continue;              // no child in that quadrant
+      height = Math.max(height, depth + 1);
+      for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++) {
+        stack.add(tree.child(p, q));
+        depths.add(depth + 1);
+      }
+    }
+    return height;
   }
 
 }
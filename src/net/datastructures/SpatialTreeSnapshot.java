@@ -0,0 +1,213 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.datastructures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes a compact binary image of a SpatialTreeMap, so that a map
+ * built once can be restored without parsing its source data again.
+ *
+ * The image lists the nodes of the tree in preorder. Each node is a byte
+ * telling which of its four children exist, followed by its key and value as
+ * written by the given codecs. Restoring replays the list into the same tree
+ * shape in a single sequential read, without comparing any keys.
+ *
+ * Layout (all numbers big-endian, as by DataOutput):
+ * <pre>
+ *   int   MAGIC
+ *   int   VERSION
+ *   int   number of nodes
+ *   nodes in preorder: byte child mask (bit q set if quadrant q has a child), X, Y, value
+ *   long  CRC32 of every byte above
+ * </pre>
+ */
+public class SpatialTreeSnapshot {
+
+  /** The first four bytes of a snapshot: "SQTS". */
+  public static final int MAGIC = 0x53515453;
+
+  /** The version of the layout written by this class. */
+  public static final int VERSION = 1;
+
+  /** Writes and reads one kind of object in a snapshot. */
+  public interface Codec<T> {
+    void write(DataOutput out, T t) throws IOException;
+    T read(DataInput in) throws IOException;
+  }
+
+  /** Codec storing a Double as 8 bytes. */
+  public static final Codec<Double> DOUBLE = new Codec<Double>() {
+    public void write(DataOutput out, Double d) throws IOException { out.writeDouble(d); }
+    public Double read(DataInput in) throws IOException { return in.readDouble(); }
+  };
+
+  /** Codec storing an Integer as 4 bytes. */
+  public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+    public void write(DataOutput out, Integer i) throws IOException { out.writeInt(i); }
+    public Integer read(DataInput in) throws IOException { return in.readInt(); }
+  };
+
+  /** Codec storing a String in modified UTF-8 (at most 65535 bytes). */
+  public static final Codec<String> STRING = new Codec<String>() {
+    public void write(DataOutput out, String s) throws IOException { out.writeUTF(s); }
+    public String read(DataInput in) throws IOException { return in.readUTF(); }
+  };
+
+  private SpatialTreeSnapshot() { }         // not instantiated
+
+  /**
+   * Writes an image of the map to a stream, which is flushed but not closed.
+   * @param map  the map to be saved
+   * @param out  the stream receiving the image
+   * @param cx   the codec for X components
+   * @param cy   the codec for Y components
+   * @param cv   the codec for values (which must accept null, if the map holds any)
+   * @throws IOException if the stream fails
+   */
+  public static <X,Y,V> void write(SpatialTreeMap<X,Y,V> map, OutputStream out,
+                                   Codec<X> cx, Codec<Y> cy, Codec<V> cv) throws IOException {
+    CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+    DataOutputStream data = new DataOutputStream(checked);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(map.size());
+    MutableQuadTree<Entry<Coord<X,Y>,V>> tree = map.tree;
+    ArrayList<Position<Entry<Coord<X,Y>,V>>> stack = new ArrayList<>();
+    if (!map.isEmpty())
+      stack.add(tree.root());               // walk the tree in preorder, without recursion
+    while (!stack.isEmpty()) {
+      Position<Entry<Coord<X,Y>,V>> p = stack.remove(stack.size() - 1);
+      int mask = 0;
+      for (int q = MutableQuadTree.SE; q >= MutableQuadTree.NW; q--) {
+        Position<Entry<Coord<X,Y>,V>> c = tree.child(p, q);
+        if (c != null) {
+          mask |= 1 << q;
+          stack.add(c);
+        }
+      }
+      Entry<Coord<X,Y>,V> e = p.getElement();
+      data.writeByte(mask);
+      cx.write(data, e.getKey().getX());
+      cy.write(data, e.getKey().getY());
+      cv.write(data, e.getValue());
+    }
+    data.flush();
+    new DataOutputStream(out).writeLong(checked.getChecksum().getValue());   // not part of the sum
+    out.flush();
+  }
+
+  /**
+   * Restores a map from an image, with the natural ordering of the key components.
+   * See {@link #read(InputStream, Codec, Codec, Codec, Comparator, Comparator)}.
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> read(InputStream in, Codec<X> cx, Codec<Y> cy, Codec<V> cv)
+          throws IOException {
+    return read(in, cx, cy, cv, new DefaultComparator<X>(), new DefaultComparator<Y>());
+  }
+
+  /**
+   * Restores a map from an image written by write. The comparators must order
+   * keys as those of the saved map did; they are only stored in the new map,
+   * never called while restoring. The stream is not closed, though it may
+   * have been read beyond the end of the image.
+   * @param in  the stream holding the image
+   * @param cx  the codec for X components
+   * @param cy  the codec for Y components
+   * @param cv  the codec for values
+   * @param compX  comparator defining the order of X components
+   * @param compY  comparator defining the order of Y components
+   * @return a map with the same entries, in the same tree shape, as the saved one
+   * @throws IOException if the stream fails, is not a snapshot, has another version,
+   *         or fails its checksum
+   */
+  public static <X,Y,V> SpatialTreeMap<X,Y,V> read(InputStream in, Codec<X> cx, Codec<Y> cy, Codec<V> cv,
+                                                   Comparator<X> compX, Comparator<Y> compY) throws IOException {
+    in = new BufferedInputStream(in);
+    CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+    DataInputStream data = new DataInputStream(checked);
+    if (data.readInt() != MAGIC)
+      throw new IOException("Not a SpatialTreeMap snapshot");
+    int version = data.readInt();
+    if (version != VERSION)
+      throw new IOException("Unsupported snapshot version " + version);
+    int n = data.readInt();
+    if (n < 0)
+      throw new IOException("Corrupt snapshot");
+
+    SpatialTreeMap<X,Y,V> map = new SpatialTreeMap<>(compX, compY);
+    MutableQuadTree<Entry<Coord<X,Y>,V>> tree = map.tree;
+    // each open node still waiting for children, with the mask of those still to come
+    ArrayList<Position<Entry<Coord<X,Y>,V>>> parents = new ArrayList<>();
+    ArrayList<Integer> pending = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int mask = data.readUnsignedByte();
+      if (mask > 0xF)
+        throw new IOException("Corrupt snapshot");
+      X x = cx.read(data);
+      Y y = cy.read(data);
+      Entry<Coord<X,Y>,V> e = new AbstractMap.MapEntry<>(new Coord<>(x, y), cv.read(data));
+      Position<Entry<Coord<X,Y>,V>> p;
+      if (i == 0)
+        p = tree.addRoot(e);
+      else {
+        if (parents.isEmpty())
+          throw new IOException("Corrupt snapshot");
+        int top = parents.size() - 1;
+        int waiting = pending.get(top);
+        int q = Integer.numberOfTrailingZeros(waiting);   // children come in NW, NE, SW, SE order
+        p = addChild(tree, parents.get(top), q, e);
+        waiting &= ~(1 << q);
+        if (waiting == 0) {
+          parents.remove(top);
+          pending.remove(top);
+        } else
+          pending.set(top, waiting);
+      }
+      if (mask != 0) {
+        parents.add(p);
+        pending.add(mask);
+      }
+    }
+    long expected = checked.getChecksum().getValue();
+    long stored = new DataInputStream(in).readLong();
+    if (!parents.isEmpty() || stored != expected)
+      throw new IOException("Snapshot checksum mismatch");
+    return map;
+  }
+
+  /** Adds an entry as the child of p in the given quadrant. */
+  private static <E> Position<E> addChild(MutableQuadTree<E> tree, Position<E> p, int quadrant, E e) {
+    switch (quadrant) {
+      case MutableQuadTree.NW: return tree.addNW(p, e);
+      case MutableQuadTree.NE: return tree.addNE(p, e);
+      case MutableQuadTree.SW: return tree.addSW(p, e);
+      default: return tree.addSE(p, e);
+    }
+  }
+}
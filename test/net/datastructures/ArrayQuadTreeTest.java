@@ -0,0 +1,114 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArrayQuadTreeTest {
+
+    @Test
+    public void addChildrenTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>(1);     // forces the arrays to grow
+        Position<String> r = qt.addRoot("H");
+        qt.addNW(r, "Y");
+        qt.addNE(r, "L");
+        qt.addSW(r, "O");
+        qt.addSE(r, "B");
+        qt.addNW(qt.nw(qt.root()), "I");
+        qt.addSE(qt.sw(qt.root()), "W");
+        qt.addNE(qt.se(qt.sw(qt.root())), "N");
+        assertEquals(8, qt.size());
+        assertEquals("H", qt.root().getElement());
+        assertEquals("Y", qt.nw(qt.root()).getElement());
+        assertEquals("L", qt.ne(qt.root()).getElement());
+        assertEquals("O", qt.sw(qt.root()).getElement());
+        assertEquals("B", qt.se(qt.root()).getElement());
+        assertEquals("I", qt.nw(qt.nw(qt.root())).getElement());
+        assertEquals("N", qt.ne(qt.se(qt.sw(qt.root()))).getElement());
+        assertEquals(null, qt.sw(qt.se(qt.sw(qt.root()))));
+        assertEquals("W", qt.parent(qt.ne(qt.se(qt.sw(qt.root())))).getElement());
+        assertEquals(3, qt.height(qt.root()));
+        assertEquals(3, qt.depth(qt.ne(qt.se(qt.sw(qt.root())))));
+        assertTrue(qt.isRoot(qt.root()));
+        assertTrue(qt.isExternal(qt.ne(qt.root())));
+        assertEquals(4, qt.numChildren(qt.root()));
+    }
+
+    @Test
+    public void setTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        qt.addNW(r, "B");
+        assertEquals("B", qt.set(qt.nw(qt.root()), "D"));
+        assertEquals("D", qt.nw(qt.root()).getElement());
+        assertEquals("A", qt.root().getElement());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignPositionTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>();
+        ArrayQuadTree<String> other = new ArrayQuadTree<>();
+        qt.addRoot("A");
+        qt.nw(other.addRoot("B"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateChildTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        qt.addSE(r, "B");
+        qt.addSE(r, "C");
+    }
+
+    @Test
+    public void removeTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>(2);
+        Position<String> r = qt.addRoot("A");
+        Position<String> b = qt.addSW(r, "B");
+        qt.addNE(b, "C");
+        assertEquals("B", qt.remove(b));             // C takes B's place
+        assertEquals(2, qt.size());
+        assertEquals("C", qt.sw(qt.root()).getElement());
+        assertEquals("A", qt.parent(qt.sw(qt.root())).getElement());
+
+        qt.addSE(qt.root(), "D");                    // reuses B's slot
+        assertEquals("D", qt.se(qt.root()).getElement());
+        assertEquals(3, qt.size());
+        assertEquals("D", qt.remove(qt.se(qt.root())));
+        assertEquals("A", qt.remove(qt.root()));      // C becomes the root
+        assertEquals("C", qt.root().getElement());
+        assertEquals(null, qt.parent(qt.root()));
+        assertEquals(1, qt.size());
+    }
+
+    @Test
+    public void stalePositionAfterReuseTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        Position<String> stale = qt.addNW(r, "B");
+        qt.remove(stale);
+        Position<String> reused = qt.addSE(r, "C");          // takes B's slot
+        assertNotEquals(stale, reused);
+        try {
+            qt.set(stale, "clobbered");
+            fail("stale position accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("C", reused.getElement());
+        }
+        try {
+            stale.getElement();
+            fail("stale position read");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeWithTwoChildrenTest() {
+        ArrayQuadTree<String> qt = new ArrayQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        qt.addNW(r, "B");
+        qt.addSE(r, "C");
+        qt.remove(r);
+    }
+}
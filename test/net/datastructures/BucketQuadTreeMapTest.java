@@ -0,0 +1,83 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class BucketQuadTreeMapTest {
+
+    private BucketQuadTreeMap<Integer> smallMap() {
+        return small(new BucketQuadTreeMap<Integer>(-16, 16, 16, -16, 2), DOUBLES);
+    }
+
+    @Test
+    public void testContract() {
+        BucketQuadTreeMap<Integer> m = smallMap();
+        checkSmall(m, DOUBLES);
+        assertEquals(4, m.treeHeight());
+        assertEquals((int) 3, (int) m.get(-5, -6));          // the overloads taking doubles
+        assertEquals((int) 6, (int) m.put(7, 7, 60));
+        assertEquals((int) 60, (int) m.get(7, 7));
+        assertEquals(null, m.get(20, 0));                   // outside the bounds
+        checkSmallChanges(smallMap(), DOUBLES);
+    }
+
+    @Test
+    public void testShapeIndependentOfOrder() {
+        BucketQuadTreeMap<Integer> sorted = new BucketQuadTreeMap<>(0, 100, 100, 0, 16);
+        BucketQuadTreeMap<Integer> shuffled = new BucketQuadTreeMap<>(0, 100, 100, 0, 16);
+        List<Integer> order = new ArrayList<>();
+        for (int n = 0; n < 10000; n++)
+            order.add(n);
+        for (int n : order)
+            sorted.put(n / 100, n % 100, n);
+        Collections.shuffle(order, new Random(2230));
+        for (int n : order)
+            shuffled.put(n / 100, n % 100, n);
+        assertEquals(sorted.size(), shuffled.size());
+        assertEquals(sorted.treeHeight(), shuffled.treeHeight());
+        assertTrue(sorted.treeHeight() <= 8);
+    }
+
+    @Test
+    public void testRandom() {
+        checkRandom(new BucketQuadTreeMap<Integer>(0, 100, 100, 0, 8), DOUBLES, 5000, 100, true);
+    }
+
+    @Test
+    public void testRemoveMerges() {
+        BucketQuadTreeMap<Integer> m = smallMap();
+        for (Entry<Coord<Double, Double>, Integer> e : smallMap().entrySet())
+            assertEquals(e.getValue(), m.remove(e.getKey()));
+        assertTrue(m.isEmpty());
+        assertEquals(1, m.treeHeight());
+        assertEquals(null, m.remove(new Coord<>(0.0, 0.0)));
+    }
+
+    @Test
+    public void testDenseCluster() {
+        BucketQuadTreeMap<Integer> m = new BucketQuadTreeMap<>(0, 1, 1, 0, 4);
+        for (int n = 0; n < 100; n++)
+            m.put(0.5, n * Math.ulp(0.5), n);
+        assertEquals(100, m.size());
+        assertTrue(m.treeHeight() <= BucketQuadTreeMap.MAX_DEPTH + 1);
+        for (int n = 0; n < 100; n++)
+            assertEquals((int) n, (int) m.get(0.5, n * Math.ulp(0.5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfBounds() {
+        smallMap().put(new Coord<>(17.0, 0.0), 7);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullCoordinate() {
+        smallMap().get(new Coord<Double, Double>(null, 1.0));
+    }
+}
@@ -0,0 +1,100 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class ConcurrentSpatialTreeMapTest {
+
+    @Test
+    public void testContract() {
+        ConcurrentSpatialTreeMap<Integer, Integer, Integer> m = small(new ConcurrentSpatialTreeMap<Integer, Integer, Integer>(), INTEGERS);
+        checkSmall(m, INTEGERS);
+        assertEquals(4, m.treeHeight());            // the same shape as SpatialTreeMap
+        checkSmallChanges(m, INTEGERS);
+        checkRandom(new ConcurrentSpatialTreeMap<Integer, Integer, Integer>(), INTEGERS, 5000, 100, true);
+    }
+
+    /**
+     * Readers look up keys that are never touched while two writers insert and
+     * remove other keys around them: every stable key must stay visible.
+     */
+    @Test
+    public void testConcurrentReadersAndWriters() throws InterruptedException {
+        final ConcurrentSpatialTreeMap<Integer, Integer, Integer> m = new ConcurrentSpatialTreeMap<>();
+        final List<Coord<Integer, Integer>> stable = new ArrayList<>();
+        Random r = new Random(2230);
+        for (int i = 0; i < 2000; i++) {
+            Coord<Integer, Integer> k = new Coord<>(2 * r.nextInt(1000), 2 * r.nextInt(1000));   // even coordinates
+            if (m.put(k, k.getX() + k.getY()) == null) stable.add(k);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            final int seed = w;
+            threads.add(new Thread(() -> {
+                Random wr = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    Coord<Integer, Integer> k = new Coord<>(2 * wr.nextInt(1000) + 1, wr.nextInt(2000));   // odd X
+                    if (wr.nextBoolean()) m.put(k, -1);
+                    else m.remove(k);
+                }
+            }));
+        }
+        for (int t = 0; t < 3; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    Random rr = new Random();
+                    while (!done.get()) {
+                        Coord<Integer, Integer> k = stable.get(rr.nextInt(stable.size()));
+                        assertEquals(k.getX() + k.getY(), (int) m.get(k));
+                        int x = k.getX(), y = k.getY();
+                        boolean seen = false;
+                        for (Entry<Coord<Integer, Integer>, Integer> e : m.subMap(new Coord<>(x - 3, y + 3), new Coord<>(x + 3, y - 3)))
+                            if (e.getKey().getX() == x && e.getKey().getY() == y) seen = true;
+                        assertTrue("lost " + k, seen);
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        threads.get(0).join();
+        threads.get(1).join();
+        done.set(true);
+        for (Thread t : threads) t.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        int odd = 0;
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet())
+            if (e.getKey().getX() % 2 != 0) odd++;
+        assertEquals(stable.size() + odd, m.size());
+        for (Coord<Integer, Integer> k : stable)
+            assertEquals(k.getX() + k.getY(), (int) m.get(k));
+    }
+
+    @Test
+    public void testIncompatibleKeyReleasesLock() throws InterruptedException {
+        final ConcurrentSpatialTreeMap<Object, Object, Integer> m = new ConcurrentSpatialTreeMap<>();
+        m.put(new Coord<Object, Object>(1, 1), 1);
+        try {
+            m.put(new Coord<Object, Object>("a", "b"), 2);
+            fail("incompatible key accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        Thread other = new Thread(() -> m.put(new Coord<Object, Object>(2, 2), 2));
+        other.start();
+        other.join(5000);                           // blocks forever if the lock was not released
+        assertFalse(other.isAlive());
+        assertEquals(2, m.size());
+    }
+}
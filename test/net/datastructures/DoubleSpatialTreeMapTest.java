@@ -0,0 +1,78 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class DoubleSpatialTreeMapTest {
+
+    @Test
+    public void testContract() {
+        DoubleSpatialTreeMap<Integer> m = small(new DoubleSpatialTreeMap<Integer>(), DOUBLES);
+        checkSmall(m, DOUBLES);
+        assertEquals(4, m.treeHeight());
+        assertEquals((int) 3, (int) m.get(-5, -6));          // the overloads taking doubles
+        assertEquals(null, m.get(0, 2));
+        assertEquals((int) 6, (int) m.put(7, 7, 60));
+        assertEquals((int) 60, (int) m.get(7, 7));
+        assertEquals((int) 0, (int) m.remove(0, 0));
+        checkSmallChanges(small(new DoubleSpatialTreeMap<Integer>(), DOUBLES), DOUBLES);
+        checkRandom(new DoubleSpatialTreeMap<Integer>(), DOUBLES, 5000, 60, true);
+    }
+
+    @Test
+    public void testSameShapeAsSpatialTreeMap() {
+        DoubleSpatialTreeMap<Integer> m = new DoubleSpatialTreeMap<>();
+        SpatialTreeMap<Double, Double, Integer> reference = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 2000; n++) {
+            double x = r.nextInt(200) / 2.0, y = r.nextInt(200) / 2.0;
+            assertEquals(reference.put(new Coord<>(x, y), n), m.put(x, y, n));
+        }
+        assertEquals(reference.size(), m.size());
+        assertEquals(reference.treeHeight(), m.treeHeight());
+        for (Entry<Coord<Double, Double>, Integer> e : reference.entrySet())
+            assertEquals(e.getValue(), m.get(e.getKey()));
+        assertEquals(values(reference.subMap(new Coord<>(10.0, 60.0), new Coord<>(40.5, 25.0))),
+                     values(m.subMap(new Coord<>(10.0, 60.0), new Coord<>(40.5, 25.0))));
+        assertEquals(values(reference.entrySet()), values(m.entrySet()));
+    }
+
+    @Test
+    public void testRemoveRoot() {
+        DoubleSpatialTreeMap<Integer> s = small(new DoubleSpatialTreeMap<Integer>(), DOUBLES);
+        assertEquals((int) 0, (int) s.remove(new Coord<>(0.0, 0.0)));   // the root
+        assertNull(s.remove(0, 0));
+        assertEquals(6, s.size());
+        assertEquals((int) 6, (int) s.get(7, 7));
+        assertEquals(3, s.treeHeight());                    // only the root's subtree was rebuilt
+    }
+
+    @Test
+    public void testNaNKeysAreIterated() {
+        DoubleSpatialTreeMap<Integer> m = small(new DoubleSpatialTreeMap<Integer>(), DOUBLES);
+        m.put(Double.NaN, 1, 7);
+        m.put(2, Double.NaN, 8);
+        assertEquals((int) 7, (int) m.get(Double.NaN, 1));
+        Set<Integer> found = values(m.entrySet());
+        assertEquals(m.size(), found.size());
+        assertTrue(found.contains(7) && found.contains(8));
+    }
+
+    @Test
+    public void testHeightOfSortedInput() {
+        DoubleSpatialTreeMap<Integer> m = new DoubleSpatialTreeMap<>();
+        for (int i = 0; i < 30000; i++)
+            m.put(i, i, i);                                 // a chain of NE children
+        assertEquals(30000, m.treeHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullCoordinate() {
+        small(new DoubleSpatialTreeMap<Integer>(), DOUBLES).get(new Coord<Double, Double>(null, 1.0));
+    }
+}
@@ -0,0 +1,113 @@
+package net.datastructures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DurableSpatialTreeMapTest {
+
+    private Path dir;
+    private Path snapshot;
+    private Path log;
+
+    @Before
+    public void createFiles() throws IOException {
+        dir = Files.createTempDirectory("durable");
+        snapshot = dir.resolve("map.sqts");
+        log = dir.resolve("map.sqtl");
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(log);
+        Files.delete(dir);
+    }
+
+    private DurableSpatialTreeMap<Double, Double, Integer> open(SpatialTreeLog.Sync sync) throws IOException {
+        return new DurableSpatialTreeMap<>(snapshot, log, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE,
+                SpatialTreeSnapshot.INTEGER, sync, 64);
+    }
+
+    @Test
+    public void testChangesSurviveACrash() throws IOException {
+        SpatialTreeMap<Double, Double, Integer> expected = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        DurableSpatialTreeMap<Double, Double, Integer> m = open(SpatialTreeLog.Sync.ALWAYS);
+        for (int i = 0; i < 300; i++) {
+            Coord<Double, Double> key = new Coord<>(r.nextInt(30) / 2.0, r.nextInt(30) / 2.0);
+            if (i == 150) m.checkpoint();
+            if (r.nextInt(5) == 0) {
+                assertEquals(expected.remove(key), m.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), m.put(key, i));
+            }
+        }
+        // no close: every change was forced as it was made
+        DurableSpatialTreeMap<Double, Double, Integer> copy = open(SpatialTreeLog.Sync.ALWAYS);
+        assertEquals(expected.size(), copy.size());
+        for (Entry<Coord<Double, Double>, Integer> e : expected.entrySet())
+            assertEquals(e.getValue(), copy.get(e.getKey()));
+        assertEquals(150, copy.replayed());                  // only the changes after the checkpoint
+        copy.close();
+        m.close();
+    }
+
+    @Test
+    public void testUncommittedGroupIsLost() throws IOException {
+        DurableSpatialTreeMap<Double, Double, Integer> m = open(SpatialTreeLog.Sync.GROUP);
+        m.put(new Coord<>(1.0, 1.0), 1);
+        m.commit();
+        m.put(new Coord<>(2.0, 2.0), 2);
+        byte[] onDisk = Files.readAllBytes(log);            // what a crash would leave
+        m.close();
+        Files.write(log, onDisk);
+        try (DurableSpatialTreeMap<Double, Double, Integer> copy = open(SpatialTreeLog.Sync.GROUP)) {
+            assertEquals(1, copy.size());
+            assertNull(copy.get(new Coord<>(2.0, 2.0)));
+        }
+    }
+
+    @Test
+    public void testLogTornBeforeItsHeaderIsEmpty() throws IOException {
+        byte[][] torn = { {}, { 'S', 'Q', 'T', 'L', 0 } };     // empty, and cut inside the header
+        for (byte[] bytes : torn) {
+            Files.write(log, bytes);
+            try (DurableSpatialTreeMap<Double, Double, Integer> m = open(SpatialTreeLog.Sync.ALWAYS)) {
+                assertTrue(m.isEmpty());
+                assertEquals(0, m.replayed());
+                m.put(new Coord<>(1.0, 1.0), 1);
+            }
+            try (DurableSpatialTreeMap<Double, Double, Integer> copy = open(SpatialTreeLog.Sync.ALWAYS)) {
+                assertEquals(1, copy.replayed());
+                assertEquals(Integer.valueOf(1), copy.get(new Coord<>(1.0, 1.0)));
+            }
+            Files.delete(log);
+        }
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testIncompatibleKeyIsNotLogged() throws IOException {
+        try (DurableSpatialTreeMap<Double, Double, Integer> m = open(SpatialTreeLog.Sync.ALWAYS)) {
+            m.put(new Coord<>(1.0, 1.0), 1);
+            long before = Files.size(log);
+            try {
+                ((Map) m).put(new Coord<>("a", "b"), 2);     // only the comparison with (1,1) fails
+                fail("incompatible key accepted");
+            } catch (IllegalArgumentException e) {
+                assertEquals(before, Files.size(log));
+            }
+        }
+        try (DurableSpatialTreeMap<Double, Double, Integer> copy = open(SpatialTreeLog.Sync.ALWAYS)) {
+            assertEquals(1, copy.replayed());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class GridSpatialMapTest {
+
+    private GridSpatialMap<Integer> smallMap() {
+        return small(new GridSpatialMap<Integer>(-16, 16, 16, -16, 5), DOUBLES);
+    }
+
+    @Test
+    public void testContract() {
+        GridSpatialMap<Integer> m = smallMap();
+        checkSmall(m, DOUBLES);
+        assertEquals((int) 3, (int) m.get(-5, -6));          // the overloads taking doubles
+        assertEquals((int) 6, (int) m.put(7, 7, 60));
+        assertEquals((int) 60, (int) m.get(7, 7));
+        assertEquals(null, m.get(20, 0));                   // outside the bounds
+        m.put(16, 16, 7);                                   // the far corner belongs to the last cell
+        assertEquals((int) 7, (int) m.get(16, 16));
+        assertTrue(values(m.subMap(new Coord<>(20.0, 30.0), new Coord<>(30.0, 20.0))).isEmpty());  // outside
+        checkSmallChanges(smallMap(), DOUBLES);
+    }
+
+    private void checkHotSpot(GridSpatialMap<Integer> m, Random r) {
+        java.util.Map<Coord<Double, Double>, Integer> reference = new HashMap<>();   // not our Map
+        for (int n = 0; n < 6000; n++) {
+            // most keys fall in a small hot spot
+            double x = (n % 4 == 0 ? r.nextInt(360) - 180 : r.nextInt(40) / 8.0 + 100);
+            double y = (n % 4 == 0 ? r.nextInt(180) - 90 : r.nextInt(40) / 8.0 + 30);
+            Coord<Double, Double> k = new Coord<>(x, y);
+            if (r.nextInt(4) == 0)
+                assertEquals(reference.remove(k), m.remove(k));
+            else
+                assertEquals(reference.put(k, n), m.put(k, n));
+            assertEquals(reference.size(), m.size());
+        }
+        checkMatches(m, reference, DOUBLES, 180, r);
+        for (int q = 0; q < 50; q++) {                      // rectangles in the hot spot
+            double x1 = 100 + r.nextInt(8) / 2.0, x2 = x1 + r.nextInt(8) / 2.0;
+            double y1 = 30 + r.nextInt(8) / 2.0, y2 = y1 + r.nextInt(8) / 2.0;
+            checkSubMap(m, reference, new Coord<>(x1, y2), new Coord<>(x2, y1));
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        checkHotSpot(new GridSpatialMap<Integer>(-180, 90, 180, -90, 7), new Random(2230));
+    }
+
+    @Test
+    public void testRandomAdaptive() {
+        checkHotSpot(new GridSpatialMap<Integer>(-180, 90, 180, -90, 7, 64), new Random(2230));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfBounds() {
+        smallMap().put(new Coord<>(0.0, -17.0), 7);
+    }
+}
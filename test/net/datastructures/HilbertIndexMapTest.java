@@ -0,0 +1,111 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class HilbertIndexMapTest {
+
+    /** Returns a map of n random keys with the given block size, and fills reference with the same entries. */
+    private HilbertIndexMap<Integer, Integer, Integer> random(int n, int blockSize,
+                                                              java.util.Map<Coord<Integer, Integer>, Integer> reference) {
+        SpatialTreeMap<Integer, Integer, Integer> tree = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int i = 0; i < n; i++)
+            tree.put(new Coord<>(r.nextInt(300), r.nextInt(300)), i);
+        for (Entry<Coord<Integer, Integer>, Integer> e : tree.entrySet())
+            reference.put(e.getKey(), e.getValue());
+        return new HilbertIndexMap<>(tree.entrySet(), new DefaultComparator<Integer>(), new DefaultComparator<Integer>(),
+                blockSize);
+    }
+
+    @Test
+    public void testContract() {
+        checkSmall(new HilbertIndexMap<>(smallEntries()), INTEGERS);
+        for (int blockSize : new int[] { 1, 2, 3, 7, 8 })                     // 3 leaves a partial last block
+            checkSmall(new HilbertIndexMap<>(smallEntries(), new DefaultComparator<Integer>(),
+                    new DefaultComparator<Integer>(), blockSize), INTEGERS);
+    }
+
+    @Test
+    public void testBlockSizes() {
+        // 1000 is a multiple of neither 16 nor 37, so their last blocks are partial
+        for (int blockSize : new int[] { 1, 16, 37, 1000, 5000 }) {
+            java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();
+            HilbertIndexMap<Integer, Integer, Integer> m = random(1000, blockSize, reference);
+            checkMatches(m, reference, INTEGERS, 300, new Random(blockSize));
+        }
+    }
+
+    @Test
+    public void testSkippedBlocks() {
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();
+        HilbertIndexMap<Integer, Integer, Integer> m = random(3000, 16, reference);
+        // small rectangles in the corners and outside the keys, where most blocks are skipped
+        checkSubMap(m, reference, new Coord<>(0, 20), new Coord<>(20, 0));
+        checkSubMap(m, reference, new Coord<>(280, 299), new Coord<>(299, 280));
+        checkSubMap(m, reference, new Coord<>(149, 151), new Coord<>(151, 149));   // where the quadrants meet
+        checkSubMap(m, reference, new Coord<>(400, 500), new Coord<>(500, 400));
+        assertFalse(m.subMap(new Coord<>(-50, -10), new Coord<>(-10, -50)).iterator().hasNext());
+    }
+
+    @Test
+    public void testCoveredBlocks() {
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();
+        HilbertIndexMap<Integer, Integer, Integer> m = random(3000, 16, reference);
+        // the bounding box of each run of 16 consecutive entries covers that block whole
+        List<Coord<Integer, Integer>> order = new ArrayList<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet())
+            order.add(e.getKey());
+        for (int b = 0; b < order.size(); b += 16 * 17) {
+            int west = Integer.MAX_VALUE, east = Integer.MIN_VALUE, south = Integer.MAX_VALUE, north = Integer.MIN_VALUE;
+            for (Coord<Integer, Integer> k : order.subList(b, Math.min(order.size(), b + 16))) {
+                west = Math.min(west, k.getX());
+                east = Math.max(east, k.getX());
+                south = Math.min(south, k.getY());
+                north = Math.max(north, k.getY());
+            }
+            checkSubMap(m, reference, new Coord<>(west, north), new Coord<>(east, south));
+        }
+        assertEquals(m.size(), values(m.subMap(new Coord<>(0, 299), new Coord<>(299, 0))).size());   // every block
+    }
+
+    @Test
+    public void testBuiltFromEntries() {
+        checkBuiltFromEntries((entries, compX) -> new HilbertIndexMap<>(entries, compX, new DefaultComparator<Integer>(), 2));
+    }
+
+    @Test
+    public void testCurveIsContinuous() {
+        SpatialTreeMap<Integer, Integer, Integer> grid = new SpatialTreeMap<>();
+        for (int x = 0; x < 16; x++)
+            for (int y = 0; y < 16; y++)
+                grid.put(new Coord<>(x * 10, y * 3), 16 * x + y);
+        Coord<Integer, Integer> last = null;
+        int count = 0;
+        for (Entry<Coord<Integer, Integer>, Integer> e : new HilbertIndexMap<>(grid.entrySet()).entrySet()) {
+            Coord<Integer, Integer> k = e.getKey();
+            if (last != null)   // neighbouring cells of the grid
+                assertEquals(1, Math.abs(k.getX() - last.getX()) / 10 + Math.abs(k.getY() - last.getY()) / 3);
+            last = k;
+            count++;
+        }
+        assertEquals(256, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockSizeMustBePositive() {
+        new HilbertIndexMap<>(smallEntries(), new DefaultComparator<Integer>(), new DefaultComparator<Integer>(), 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPut() {
+        new HilbertIndexMap<>(smallEntries()).put(new Coord<>(1, 1), 1);
+    }
+}
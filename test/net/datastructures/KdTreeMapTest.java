@@ -0,0 +1,88 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class KdTreeMapTest {
+
+    private KdTreeMap<Integer, Integer, Integer> smallMap() {
+        return small(new KdTreeMap<Integer, Integer, Integer>(), INTEGERS);
+    }
+
+    @Test
+    public void testContract() {
+        checkSmall(smallMap(), INTEGERS);
+        assertEquals(4, smallMap().treeHeight());
+        checkSmallChanges(smallMap(), INTEGERS);
+        checkRandom(new KdTreeMap<Integer, Integer, Integer>(), INTEGERS, 2000, 500, false);
+    }
+
+    @Test
+    public void testBulkLoad() {
+        KdTreeMap<Integer, Integer, Integer> m = new KdTreeMap<>();
+        for (int n = 0; n < 1000; n++)
+            m.put(new Coord<>(n % 10, n % 37), n);            // many ties on both axes
+        KdTreeMap<Integer, Integer, Integer> b = KdTreeMap.bulkLoad(m.entrySet());
+        assertEquals(m.size(), b.size());
+        assertTrue(b.treeHeight() < m.treeHeight());
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet())
+            assertEquals(e.getValue(), b.get(e.getKey()));
+        assertEquals(values(m.subMap(new Coord<>(2, 30), new Coord<>(6, 4))),
+                     values(b.subMap(new Coord<>(2, 30), new Coord<>(6, 4))));
+        assertEquals(3, KdTreeMap.bulkLoad(smallEntries()).treeHeight());
+        checkBuiltFromEntries((entries, compX) -> KdTreeMap.bulkLoad(entries, compX, new DefaultComparator<Integer>()));
+    }
+
+    @Test
+    public void testRemove() {
+        KdTreeMap<Integer, Integer, Integer> m = new KdTreeMap<>();
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = checkRandom(m, INTEGERS, 3000, 60, true);
+        for (Coord<Integer, Integer> k : new ArrayList<>(reference.keySet()))
+            assertEquals(reference.remove(k), m.remove(k));
+        assertTrue(m.isEmpty());
+        assertEquals(0, m.treeHeight());
+    }
+
+    @Test
+    public void testNearest() {
+        KdTreeMap<Integer, Integer, Integer> m = smallMap();
+        EuclideanDistance<Integer, Integer> d = new EuclideanDistance<>();
+        List<Integer> found = new ArrayList<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.nearest(new Coord<>(6, 6), 3, d))
+            found.add(e.getValue());
+        assertEquals(Arrays.asList(6, 2, 5), found);
+        assertFalse(m.nearest(new Coord<>(6, 6), 0, d).iterator().hasNext());
+
+        Random r = new Random(2230);
+        KdTreeMap<Integer, Integer, Integer> big = new KdTreeMap<>();
+        for (int n = 0; n < 2000; n++)
+            big.put(new Coord<>(r.nextInt(1000), r.nextInt(1000)), n);
+        for (int q = 0; q < 50; q++) {
+            Coord<Integer, Integer> key = new Coord<>(r.nextInt(1200) - 100, r.nextInt(1200) - 100);
+            List<Double> expected = new ArrayList<>();
+            for (Entry<Coord<Integer, Integer>, Integer> e : big.entrySet())
+                expected.add(d.distance(key, e.getKey()));
+            Collections.sort(expected);
+            List<Double> distances = new ArrayList<>();
+            for (Entry<Coord<Integer, Integer>, Integer> e : big.nearest(key, 10, d))
+                distances.add(d.distance(key, e.getKey()));
+            assertEquals(expected.subList(0, 10), distances);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleKey() {
+        KdTreeMap<Integer, Integer, Integer> m = smallMap();
+        @SuppressWarnings("unchecked")
+        Coord<Integer, Integer> bad = (Coord<Integer, Integer>) (Coord<?, ?>) new Coord<>("a", 1);
+        m.get(bad);
+    }
+}
@@ -139,4 +139,42 @@ public class LinkedQuadTreeTest {
         assertEquals("C", qt.ne(qt.se(qt.sw(qt.root()))).getElement());
         assertEquals("U", qt.se(qt.se(qt.sw(qt.root()))).getElement());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void removeTest() {
+        LinkedQuadTree<String> qt = new LinkedQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        Position<String> b = qt.addSW(r, "B");
+        qt.addNE(b, "C");
+        qt.addSE(r, "D");
+        assertEquals("B", qt.remove(b));            // C takes B's place
+        assertEquals(3, qt.size());
+        assertEquals("C", qt.sw(qt.root()).getElement());
+        assertEquals("A", qt.parent(qt.sw(qt.root())).getElement());
+
+        assertEquals("D", qt.remove(qt.se(qt.root())));
+        assertEquals(null, qt.se(qt.root()));
+        assertEquals("A", qt.remove(qt.root()));   // C becomes the root
+        assertEquals("C", qt.root().getElement());
+        assertEquals(null, qt.parent(qt.root()));
+        assertEquals(1, qt.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeWithTwoChildrenTest() {
+        LinkedQuadTree<String> qt = new LinkedQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        qt.addNW(r, "B");
+        qt.addSE(r, "C");
+        qt.remove(r);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removedPositionTest() {
+        LinkedQuadTree<String> qt = new LinkedQuadTree<>();
+        Position<String> r = qt.addRoot("A");
+        Position<String> b = qt.addNW(r, "B");
+        qt.remove(b);
+        qt.nw(b);
+    }
+}
@@ -0,0 +1,145 @@
+package net.datastructures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedSpatialIndexTest {
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("index", ".sqtm");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private SpatialTreeMap<Double, Double, Integer> random(int n) {
+        SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int i = 0; i < n; i++)
+            m.put(new Coord<>(r.nextInt(1000) / 4.0, r.nextInt(1000) / 4.0), i);
+        return m;
+    }
+
+    private List<Integer> sortedValues(Iterable<Entry<Coord<Double, Double>, Integer>> entries) {
+        List<Integer> answer = new ArrayList<>();
+        for (Entry<Coord<Double, Double>, Integer> e : entries)
+            answer.add(e.getValue());
+        Collections.sort(answer);
+        return answer;
+    }
+
+    @Test
+    public void testQueriesMatchTheMap() throws IOException {
+        SpatialTreeMap<Double, Double, Integer> m = random(3000);
+        MappedSpatialIndex.write(m, file);
+        assertEquals(16 + 36 * m.size(), Files.size(file));
+        MappedSpatialIndex index = MappedSpatialIndex.open(file);
+        assertEquals(m.size(), index.size());
+        assertEquals(sortedValues(m.entrySet()), sortedValues(index.entrySet()));
+
+        Random r = new Random(2230);
+        EuclideanDistance<Double, Double> d = new EuclideanDistance<>();
+        for (int q = 0; q < 200; q++) {
+            Coord<Double, Double> key = new Coord<>(r.nextInt(1000) / 4.0, r.nextInt(1000) / 4.0);
+            assertEquals(m.get(key), index.get(key));
+            assertEquals(m.get(key) == null ? -1 : (int) m.get(key), index.getInt(key.getX(), key.getY(), -1));
+
+            Coord<Double, Double> nw = new Coord<>(key.getX(), key.getY() + r.nextInt(100));
+            Coord<Double, Double> se = new Coord<>(key.getX() + r.nextInt(100), key.getY());
+            assertEquals(sortedValues(m.subMap(nw, se)), sortedValues(index.subMap(nw, se)));
+
+            List<Double> expected = new ArrayList<>();
+            for (Entry<Coord<Double, Double>, Integer> e : m.nearest(key, 5, d))
+                expected.add(d.distance(key, e.getKey()));
+            List<Double> found = new ArrayList<>();
+            for (Entry<Coord<Double, Double>, Integer> e : index.nearest(key, 5, d))
+                found.add(d.distance(key, e.getKey()));
+            assertEquals(expected, found);
+        }
+        assertFalse(index.subMap(new Coord<>(10.0, 0.0), new Coord<>(0.0, 10.0)).iterator().hasNext());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        MappedSpatialIndex.write(new SpatialTreeMap<Double, Double, Integer>(), file);
+        MappedSpatialIndex index = MappedSpatialIndex.open(file);
+        assertTrue(index.isEmpty());
+        assertNull(index.get(new Coord<>(0.0, 0.0)));
+        assertFalse(index.subMap(new Coord<>(-1.0, 1.0), new Coord<>(1.0, -1.0)).iterator().hasNext());
+        assertFalse(index.nearest(new Coord<>(0.0, 0.0), 3, new EuclideanDistance<>()).iterator().hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherFilesAreRejected() throws IOException {
+        Files.write(file, new byte[] { 'S', 'Q', 'T', 'S', 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0 });
+        MappedSpatialIndex.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFileIsRejected() throws IOException {
+        MappedSpatialIndex.write(random(10), file);
+        byte[] image = Files.readAllBytes(file);
+        new MappedSpatialIndex(ByteBuffer.wrap(image, 0, image.length - 1).slice());
+    }
+
+    /** Returns the index held in the file, with every child of the root set to the given record number. */
+    private MappedSpatialIndex damaged(int child) throws IOException {
+        byte[] image = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(image);
+        for (int q = 0; q < 4; q++)
+            buffer.putInt(16 + 16 + 4 * q, child);     // the children of node 0
+        return new MappedSpatialIndex(buffer);
+    }
+
+    @Test
+    public void testDamagedChildrenAreReported() throws IOException {
+        MappedSpatialIndex.write(random(10), file);
+        int size = MappedSpatialIndex.open(file).size();
+        for (int child : new int[] { 0, size, -2 }) {       // a cycle, then past the end, then garbage
+            MappedSpatialIndex index = damaged(child);
+            try {
+                index.get(new Coord<>(-1.0, -1.0));
+                fail("get followed child " + child);
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            try {
+                for (Entry<Coord<Double, Double>, Integer> e : index.subMap(new Coord<>(-1e9, 1e9), new Coord<>(1e9, -1e9)))
+                    assertNotNull(e);
+                fail("subMap followed child " + child);
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            try {
+                index.nearest(new Coord<>(0.0, 0.0), 3, new EuclideanDistance<>());
+                fail("nearest followed child " + child);
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws IOException {
+        MappedSpatialIndex.write(random(10), file);
+        MappedSpatialIndex.open(file).put(new Coord<>(0.0, 0.0), 1);
+    }
+}
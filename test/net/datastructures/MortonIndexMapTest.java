@@ -0,0 +1,39 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+
+public class MortonIndexMapTest {
+
+    @Test
+    public void testContract() {
+        checkSmall(small(new SpatialTreeMap<Integer, Integer, Integer>(), INTEGERS).freeze(), INTEGERS);
+    }
+
+    @Test
+    public void testRandom() {
+        SpatialTreeMap<Integer, Integer, Integer> tree = new SpatialTreeMap<>();
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();   // not our Map
+        Random r = new Random(2230);
+        for (int n = 0; n < 5000; n++) {
+            Coord<Integer, Integer> k = new Coord<>(r.nextInt(700), r.nextInt(700));
+            tree.put(k, n);
+            reference.put(k, n);
+        }
+        checkMatches(tree.freeze(), reference, INTEGERS, 700, r);
+    }
+
+    @Test
+    public void testBuiltFromEntries() {
+        checkBuiltFromEntries((entries, compX) -> new MortonIndexMap<>(entries, compX, new DefaultComparator<Integer>()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPut() {
+        small(new SpatialTreeMap<Integer, Integer, Integer>(), INTEGERS).freeze().put(new Coord<>(1, 1), 1);
+    }
+}
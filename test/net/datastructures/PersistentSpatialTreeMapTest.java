@@ -0,0 +1,82 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static net.datastructures.Sorted2DMapContract.*;
+import static org.junit.Assert.*;
+
+public class PersistentSpatialTreeMapTest {
+
+    private PersistentSpatialTreeMap<Integer, Integer, Integer> smallMap() {
+        return small(new PersistentSpatialTreeMap<Integer, Integer, Integer>(), INTEGERS);
+    }
+
+    @Test
+    public void testContract() {
+        PersistentSpatialTreeMap<Integer, Integer, Integer> m = smallMap();
+        checkSmall(m, INTEGERS);
+        assertEquals(4, m.treeHeight());            // the same shape as SpatialTreeMap
+        checkSmallChanges(m, INTEGERS);
+    }
+
+    @Test
+    public void testSnapshotsAreIndependent() {
+        PersistentSpatialTreeMap<Integer, Integer, Integer> m = smallMap();
+        PersistentSpatialTreeMap<Integer, Integer, Integer> before = m.snapshot();
+        Iterable<Entry<Coord<Integer, Integer>, Integer>> range = m.subMap(new Coord<>(-10, 10), new Coord<>(10, -10));
+        Iterable<Entry<Coord<Integer, Integer>, Integer>> all = m.entrySet();
+        m.put(new Coord<>(1, 1), 7);
+        m.put(new Coord<>(7, 7), 60);
+        m.remove(new Coord<>(0, 0));
+        assertEquals(7, before.size());
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 5, 6)), values(before.entrySet()));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 6)), values(range));   // the version it was made from
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 5, 6)), values(all));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3, 4, 5, 7, 60)), values(m.entrySet()));
+
+        before.put(new Coord<>(2, 2), 8);           // a snapshot can move on by itself
+        assertEquals(null, m.get(new Coord<>(2, 2)));
+        assertEquals((int) 8, (int) before.get(new Coord<>(2, 2)));
+    }
+
+    @Test
+    public void testRandomVersions() {
+        PersistentSpatialTreeMap<Integer, Integer, Integer> m = new PersistentSpatialTreeMap<>();
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();   // not our Map
+        List<PersistentSpatialTreeMap<Integer, Integer, Integer>> versions = new ArrayList<>();
+        List<java.util.Map<Coord<Integer, Integer>, Integer>> expected = new ArrayList<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 4000; n++) {
+            Coord<Integer, Integer> k = new Coord<>(r.nextInt(100), r.nextInt(100));
+            if (r.nextInt(3) == 0)
+                assertEquals(reference.remove(k), m.remove(k));
+            else
+                assertEquals(reference.put(k, n), m.put(k, n));
+            assertEquals(reference.size(), m.size());
+            if (n % 500 == 0) {
+                versions.add(m.snapshot());
+                expected.add(new HashMap<>(reference));
+            }
+        }
+        versions.add(m);
+        expected.add(reference);
+        for (int v = 0; v < versions.size(); v++) {
+            PersistentSpatialTreeMap<Integer, Integer, Integer> version = versions.get(v);
+            checkMatches(version, expected.get(v), INTEGERS, 100, r);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleKey() {
+        PersistentSpatialTreeMap<Object, Object, Integer> m = new PersistentSpatialTreeMap<>();
+        m.put(new Coord<Object, Object>(1, 1), 1);
+        m.put(new Coord<Object, Object>("a", "b"), 2);
+    }
+}
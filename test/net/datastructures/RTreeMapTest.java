@@ -0,0 +1,129 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RTreeMapTest {
+
+    private Rect<Double, Double> rect(double west, double north, double east, double south) {
+        return new Rect<>(west, north, east, south);
+    }
+
+    private RTreeMap<Integer> small() {
+        RTreeMap<Integer> m = new RTreeMap<>(4);
+        m.put(rect(0, 2, 2, 0), 0);
+        m.put(rect(-3, 4, -1, 1), 1);
+        m.put(rect(3, 3, 5, 2), 2);
+        m.put(rect(-6, -5, -4, -7), 3);
+        m.put(rect(6, -4, 8, -6), 4);
+        m.put(rect(9, 13, 11, 11), 5);
+        m.put(rect(7, 7, 7, 7), 6);             // a point
+        return m;
+    }
+
+    private Set<Integer> values(Iterable<Entry<Rect<Double, Double>, Integer>> entries) {
+        Set<Integer> found = new HashSet<>();
+        for (Entry<Rect<Double, Double>, Integer> e : entries)
+            assertTrue("reported twice: " + e, found.add(e.getValue()));
+        return found;
+    }
+
+    private boolean intersects(Rect<Double, Double> r, double west, double north, double east, double south) {
+        return r.getNwCorner().getX() <= east && west <= r.getSeCorner().getX()
+                && r.getSeCorner().getY() <= north && south <= r.getNwCorner().getY();
+    }
+
+    @Test
+    public void testSmallPutGet() {
+        RTreeMap<Integer> m = small();
+        assertEquals(7, m.size());
+        assertEquals(2, m.treeHeight());
+        assertEquals((int) 3, (int) m.get(rect(-6, -5, -4, -7)));
+        assertEquals(null, m.get(rect(-6, -5, -4, -6)));
+        assertEquals((int) 6, (int) m.put(rect(7, 7, 7, 7), 60));
+        assertEquals((int) 60, (int) m.get(rect(7, 7, 7, 7)));
+        assertEquals(7, m.size());
+    }
+
+    @Test
+    public void testSmallIntersecting() {
+        RTreeMap<Integer> m = small();
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)),
+                     values(m.intersecting(new Coord<>(-1.0, 3.0), new Coord<>(3.0, 1.0))));   // touching counts
+        assertEquals(new HashSet<>(Arrays.asList(6)),
+                     values(m.intersecting(new Coord<>(7.0, 7.0), new Coord<>(7.0, 7.0))));
+        assertTrue(values(m.intersecting(new Coord<>(3.0, 1.0), new Coord<>(-1.0, 3.0))).isEmpty());   // inverted
+        assertEquals(7, values(m.entrySet()).size());
+    }
+
+    @Test
+    public void testRandom() {
+        RTreeMap<Integer> m = new RTreeMap<>(8);
+        java.util.Map<Rect<Double, Double>, Integer> reference = new HashMap<>();   // not our Map
+        Random r = new Random(2230);
+        for (int n = 0; n < 4000; n++) {
+            double x = r.nextInt(1000), y = r.nextInt(1000);
+            Rect<Double, Double> k = rect(x, y + r.nextInt(30), x + r.nextInt(30), y);
+            if (r.nextInt(3) == 0) {
+                List<Rect<Double, Double>> keys = new ArrayList<>(reference.keySet());
+                if (!keys.isEmpty())
+                    k = keys.get(r.nextInt(keys.size()));
+                assertEquals(reference.remove(k), m.remove(k));
+            } else
+                assertEquals(reference.put(k, n), m.put(k, n));
+            assertEquals(reference.size(), m.size());
+        }
+        for (java.util.Map.Entry<Rect<Double, Double>, Integer> e : reference.entrySet())
+            assertEquals(e.getValue(), m.get(e.getKey()));
+        checkWindows(m, reference, r);
+
+        RTreeMap<Integer> b = RTreeMap.bulkLoad(m.entrySet(), 8);
+        assertEquals(m.size(), b.size());
+        assertTrue(b.treeHeight() <= m.treeHeight());
+        checkWindows(b, reference, r);
+
+        for (Rect<Double, Double> k : new ArrayList<>(reference.keySet()))
+            assertEquals(reference.remove(k), b.remove(k));
+        assertTrue(b.isEmpty());
+        assertEquals(1, b.treeHeight());
+    }
+
+    private void checkWindows(RTreeMap<Integer> m, java.util.Map<Rect<Double, Double>, Integer> reference, Random r) {
+        for (int q = 0; q < 50; q++) {
+            double west = r.nextInt(1000), south = r.nextInt(1000);
+            double east = west + r.nextInt(150), north = south + r.nextInt(150);
+            Set<Integer> expected = new HashSet<>();
+            for (java.util.Map.Entry<Rect<Double, Double>, Integer> e : reference.entrySet())
+                if (intersects(e.getKey(), west, north, east, south))
+                    expected.add(e.getValue());
+            assertEquals(expected, values(m.intersecting(new Coord<>(west, north), new Coord<>(east, south))));
+        }
+    }
+
+    @Test
+    public void testBulkLoadDuplicates() {
+        List<Entry<Rect<Double, Double>, Integer>> entries = new ArrayList<>();
+        for (Entry<Rect<Double, Double>, Integer> e : small().entrySet())
+            entries.add(e);
+        for (Entry<Rect<Double, Double>, Integer> e : small().entrySet())
+            entries.add(new AbstractMap.MapEntry<>(e.getKey(), e.getValue() + 10));
+        RTreeMap<Integer> b = RTreeMap.bulkLoad(entries, 4);
+        assertEquals(7, b.size());
+        assertEquals((int) 13, (int) b.get(rect(-6, -5, -4, -7)));   // last one wins
+        assertEquals(0, RTreeMap.bulkLoad(new ArrayList<Entry<Rect<Double, Double>, Integer>>()).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvertedKey() {
+        small().put(rect(2, 0, 0, 2), 7);
+    }
+}
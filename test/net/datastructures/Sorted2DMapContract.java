@@ -0,0 +1,160 @@
+package net.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks of the Sorted2DMap contract shared by the tests of its
+ * implementations: the small map of seven keys that every test starts from,
+ * and random puts, removes and range queries compared with a java.util.HashMap.
+ */
+class Sorted2DMapContract {
+
+    /** Makes a key of the map under test from integer components. */
+    interface Keys<X, Y> {
+        Coord<X, Y> of(int x, int y);
+    }
+
+    /** Builds a map from entries, ordering X components with the given comparator. */
+    interface Builder {
+        Sorted2DMap<Integer, Integer, Integer> build(List<Entry<Coord<Integer, Integer>, Integer>> entries,
+                                                     Comparator<Integer> compX);
+    }
+
+    static final Keys<Integer, Integer> INTEGERS = (x, y) -> new Coord<>(x, y);
+    static final Keys<Double, Double> DOUBLES = (x, y) -> new Coord<>((double) x, (double) y);
+
+    /** The keys of the small map, in the order they are put; the value of each is its index. */
+    private static final int[][] SMALL = { { 0, 0 }, { -3, 4 }, { 3, 2 }, { -5, -6 }, { 6, -5 }, { 10, 12 }, { 7, 7 } };
+
+    private Sorted2DMapContract() { }
+
+    /** Puts the keys of the small map into m and returns m. */
+    static <X, Y, M extends Map<Coord<X, Y>, Integer>> M small(M m, Keys<X, Y> keys) {
+        for (int i = 0; i < SMALL.length; i++)
+            m.put(keys.of(SMALL[i][0], SMALL[i][1]), i);
+        return m;
+    }
+
+    /** Returns the entries of the small map, for the maps that are built from entries. */
+    static Iterable<Entry<Coord<Integer, Integer>, Integer>> smallEntries() {
+        return small(new SpatialTreeMap<Integer, Integer, Integer>(), INTEGERS).entrySet();
+    }
+
+    /** Returns the values of some entries, checking that none is reported twice. */
+    static <K> Set<Integer> values(Iterable<Entry<K, Integer>> entries) {
+        Set<Integer> found = new HashSet<>();
+        for (Entry<K, Integer> e : entries)
+            assertTrue("reported twice: " + e, found.add(e.getValue()));
+        return found;
+    }
+
+    private static Set<Integer> set(Integer... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    /** Checks get, entrySet and subMap on a map holding exactly the keys of the small map. */
+    static <X, Y> void checkSmall(Sorted2DMap<X, Y, Integer> m, Keys<X, Y> keys) {
+        assertEquals(7, m.size());
+        assertEquals((int) 3, (int) m.get(keys.of(-5, -6)));
+        assertEquals((int) 6, (int) m.get(keys.of(7, 7)));
+        assertEquals((int) 0, (int) m.get(keys.of(0, 0)));
+        assertEquals(null, m.get(keys.of(0, 2)));            // both components exist, the key does not
+        assertEquals(null, m.get(keys.of(1, 1)));            // neither component exists
+        assertEquals(set(0, 1, 2, 3, 4, 5, 6), values(m.entrySet()));
+        assertEquals(set(0, 1, 2), values(m.subMap(keys.of(-3, 4), keys.of(3, 0))));
+        assertEquals(set(3, 4), values(m.subMap(keys.of(-10, -1), keys.of(10, -10))));
+        assertEquals(7, values(m.subMap(keys.of(-100, 100), keys.of(100, -100))).size());
+        assertTrue(values(m.subMap(keys.of(1, 1), keys.of(2, -1))).isEmpty());
+        assertTrue(values(m.subMap(keys.of(3, 0), keys.of(-3, 4))).isEmpty());    // inverted
+    }
+
+    /** Checks put and remove on a modifiable map holding exactly the keys of the small map. */
+    static <X, Y> void checkSmallChanges(Sorted2DMap<X, Y, Integer> m, Keys<X, Y> keys) {
+        assertEquals((int) 6, (int) m.put(keys.of(7, 7), 60));
+        assertEquals((int) 60, (int) m.get(keys.of(7, 7)));
+        assertEquals(7, m.size());
+        assertEquals(null, m.remove(keys.of(1, 1)));
+        assertEquals((int) 0, (int) m.remove(keys.of(0, 0)));  // the first key put
+        assertEquals(null, m.remove(keys.of(0, 0)));
+        assertEquals(null, m.get(keys.of(0, 0)));
+        assertEquals(6, m.size());
+        assertEquals(set(1, 2, 3, 4, 5, 60), values(m.entrySet()));
+    }
+
+    /** Checks that a map built from entries keeps the last of equal keys, and follows its comparator. */
+    static void checkBuiltFromEntries(Builder builder) {
+        List<Entry<Coord<Integer, Integer>, Integer>> entries = new ArrayList<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : smallEntries())
+            entries.add(e);
+        for (Entry<Coord<Integer, Integer>, Integer> e : smallEntries())
+            entries.add(new AbstractMap.MapEntry<>(e.getKey(), e.getValue() + 10));
+        // X runs west to east in reverse, so the corners of the rectangle swap roles
+        Sorted2DMap<Integer, Integer, Integer> m = builder.build(entries, (a, b) -> Integer.compare(b, a));
+        assertEquals(7, m.size());
+        assertEquals((int) 13, (int) m.get(new Coord<>(-5, -6)));   // last one wins
+        assertEquals(set(10, 11, 12), values(m.subMap(new Coord<>(3, 4), new Coord<>(-3, 0))));
+    }
+
+    /**
+     * Checks that a map holds exactly the entries of a reference map, and that
+     * random rectangles of it hold the same entries as in the reference.
+     */
+    static <X extends Comparable<X>, Y extends Comparable<Y>>
+            void checkMatches(Sorted2DMap<X, Y, Integer> m, java.util.Map<Coord<X, Y>, Integer> reference,
+                              Keys<X, Y> keys, int range, Random r) {
+        assertEquals(reference.size(), m.size());
+        for (java.util.Map.Entry<Coord<X, Y>, Integer> e : reference.entrySet())
+            assertEquals(e.getValue(), m.get(e.getKey()));
+        assertEquals(new HashSet<>(reference.values()), values(m.entrySet()));
+        for (int q = 0; q < 50; q++) {
+            int x1 = r.nextInt(range + 20) - 10, x2 = x1 + r.nextInt(range / 3 + 1);
+            int y1 = r.nextInt(range + 20) - 10, y2 = y1 + r.nextInt(range / 3 + 1);
+            checkSubMap(m, reference, keys.of(x1, y2), keys.of(x2, y1));
+        }
+    }
+
+    /** Checks that a rectangle of a map holds the same entries as that rectangle of a reference map. */
+    static <X extends Comparable<X>, Y extends Comparable<Y>>
+            void checkSubMap(Sorted2DMap<X, Y, Integer> m, java.util.Map<Coord<X, Y>, Integer> reference,
+                             Coord<X, Y> nwCorner, Coord<X, Y> seCorner) {
+        Set<Integer> expected = new HashSet<>();
+        for (java.util.Map.Entry<Coord<X, Y>, Integer> e : reference.entrySet()) {
+            Coord<X, Y> k = e.getKey();
+            if (k.getX().compareTo(nwCorner.getX()) >= 0 && k.getX().compareTo(seCorner.getX()) <= 0
+                    && k.getY().compareTo(seCorner.getY()) >= 0 && k.getY().compareTo(nwCorner.getY()) <= 0)
+                expected.add(e.getValue());
+        }
+        assertEquals(expected, values(m.subMap(nwCorner, seCorner)));
+    }
+
+    /**
+     * Puts (and, if asked, removes) n random keys in [0,range) squared, checking
+     * every result against a HashMap, then checks the map matches it.
+     * @return the reference map
+     */
+    static <X extends Comparable<X>, Y extends Comparable<Y>>
+            java.util.Map<Coord<X, Y>, Integer> checkRandom(Sorted2DMap<X, Y, Integer> m, Keys<X, Y> keys,
+                                                             int n, int range, boolean removes) {
+        java.util.Map<Coord<X, Y>, Integer> reference = new HashMap<>();   // not our Map
+        Random r = new Random(2230);
+        for (int i = 0; i < n; i++) {
+            Coord<X, Y> k = keys.of(r.nextInt(range), r.nextInt(range));
+            if (removes && r.nextInt(3) == 0)
+                assertEquals(reference.remove(k), m.remove(k));
+            else
+                assertEquals(reference.put(k, i), m.put(k, i));
+            assertEquals(reference.size(), m.size());
+        }
+        checkMatches(m, reference, keys, range, r);
+        return reference;
+    }
+}
@@ -0,0 +1,112 @@
+package net.datastructures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialTreeLogTest {
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("changes", ".sqtl");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private SpatialTreeLog<Double, Double, Integer> open(SpatialTreeLog.Sync sync, int groupSize) throws IOException {
+        return new SpatialTreeLog<>(file, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE,
+                SpatialTreeSnapshot.INTEGER, sync, groupSize);
+    }
+
+    private SpatialTreeMap<Double, Double, Integer> replay() throws IOException {
+        SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+        SpatialTreeLog.replay(file, m, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.INTEGER);
+        return m;
+    }
+
+    private void assertSameEntries(SpatialTreeMap<Double, Double, Integer> expected,
+                                   SpatialTreeMap<Double, Double, Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Entry<Coord<Double, Double>, Integer> e : expected.entrySet())
+            assertEquals(e.getValue(), actual.get(e.getKey()));
+    }
+
+    @Test
+    public void testReplayRepeatsPutsAndRemoves() throws IOException {
+        for (SpatialTreeLog.Sync sync : SpatialTreeLog.Sync.values()) {
+            Files.delete(file);
+            SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+            Random r = new Random(2230);
+            try (SpatialTreeLog<Double, Double, Integer> log = open(sync, 16)) {
+                for (int i = 0; i < 500; i++) {
+                    Coord<Double, Double> key = new Coord<>(r.nextInt(20) / 2.0, r.nextInt(20) / 2.0);
+                    if (r.nextInt(4) == 0) {
+                        log.remove(key);
+                        m.remove(key);
+                    } else {
+                        log.put(key, i);
+                        m.put(key, i);
+                    }
+                }
+            }
+            assertSameEntries(m, replay());
+        }
+    }
+
+    @Test
+    public void testGroupsReachTheFileWhenFullOrCommitted() throws IOException {
+        try (SpatialTreeLog<Double, Double, Integer> log = open(SpatialTreeLog.Sync.GROUP, 3)) {
+            log.put(new Coord<>(1.0, 1.0), 1);
+            log.put(new Coord<>(2.0, 2.0), 2);
+            assertEquals(0, replay().size());                 // the group is not full yet
+            log.put(new Coord<>(3.0, 3.0), 3);
+            assertEquals(3, replay().size());
+            log.put(new Coord<>(4.0, 4.0), 4);
+            log.commit();
+            assertEquals(4, replay().size());
+            log.reset();
+            assertEquals(0, replay().size());
+        }
+    }
+
+    @Test
+    public void testTornTailIsIgnoredAndCut() throws IOException {
+        try (SpatialTreeLog<Double, Double, Integer> log = open(SpatialTreeLog.Sync.ALWAYS, 1)) {
+            log.put(new Coord<>(1.0, 1.0), 1);
+            log.put(new Coord<>(2.0, 2.0), 2);
+        }
+        byte[] image = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(image, image.length - 3));   // the last record is torn
+        assertEquals(1, replay().size());
+        try (SpatialTreeLog<Double, Double, Integer> log = open(SpatialTreeLog.Sync.ALWAYS, 1)) {
+            log.put(new Coord<>(3.0, 3.0), 3);
+        }
+        SpatialTreeMap<Double, Double, Integer> m = replay();
+        assertEquals(2, m.size());
+        assertEquals((int) 3, (int) m.get(new Coord<>(3.0, 3.0)));
+
+        image = Files.readAllBytes(file);
+        image[image.length - 10] ^= 0x10;                     // corrupt a coordinate of the last record
+        Files.write(file, image);
+        assertEquals(1, replay().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherFilesAreRejected() throws IOException {
+        Files.write(file, new byte[] { 'S', 'Q', 'T', 'S', 0, 0, 0, 1, 0, 0, 0, 0 });
+        open(SpatialTreeLog.Sync.NONE, 16);
+    }
+}
@@ -2,7 +2,13 @@ package net.datastructures;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
@@ -11,7 +17,10 @@ import static org.junit.Assert.*;
 public class SpatialTreeMapTest {
 
     private SpatialTreeMap<Integer, Integer, Integer> small() {
-        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        return small(new SpatialTreeMap<Integer, Integer, Integer>());
+    }
+
+    private SpatialTreeMap<Integer, Integer, Integer> small(SpatialTreeMap<Integer, Integer, Integer> m) {
         m.put(new Coord<>(0, 0), 0);
         m.put(new Coord<>(-3, 4), 1);
         m.put(new Coord<>(3, 2), 2);
@@ -24,7 +33,10 @@ public class SpatialTreeMapTest {
     }
 
     private SpatialTreeMap<Integer, Integer, Integer> medium() {
-        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        return medium(new SpatialTreeMap<Integer, Integer, Integer>());
+    }
+
+    private SpatialTreeMap<Integer, Integer, Integer> medium(SpatialTreeMap<Integer, Integer, Integer> m) {
         Random r = new Random(2230); // deterministic
         for (int n=0; n<20; n++) {
             int i = r.nextInt(25);
@@ -59,6 +71,64 @@ public class SpatialTreeMapTest {
         assertEquals((int)0, (int)m.get(new Coord<>(0,0)));
     }
 
+    private SpatialTreeMap<Integer, Integer, Integer> arrayStored() {
+        return new SpatialTreeMap<>(new DefaultComparator<Integer>(), new DefaultComparator<Integer>(),
+                new ArrayQuadTree<Entry<Coord<Integer, Integer>, Integer>>());
+    }
+
+    @Test
+    public void testOneNodePerEntry() {
+        // on both storages: no sentinel leaves, so n nodes rather than 4n+1, and the same heights as before
+        for (SpatialTreeMap<Integer, Integer, Integer> m : Arrays.asList(small(), small(arrayStored()))) {
+            assertEquals(7, m.size());
+            assertEquals(m.size(), m.tree.size());
+            assertEquals(4, m.treeHeight());
+            m.remove(new Coord<>(0, 0));
+            assertEquals(6, m.tree.size());
+        }
+        for (SpatialTreeMap<Integer, Integer, Integer> m : Arrays.asList(medium(), medium(arrayStored()))) {
+            assertEquals(20, m.size());
+            assertEquals(m.size(), m.tree.size());
+            assertEquals(6, m.treeHeight());
+        }
+        SpatialTreeMap<Integer, Integer, Integer> empty = arrayStored();
+        assertEquals(0, empty.tree.size());
+        assertEquals(0, empty.treeHeight());
+    }
+
+    /** Adds the entries of the subtree at p to a list, in preorder (NW, NE, SW, SE), by recursion. */
+    private void preorder(SpatialTreeMap<Integer, Integer, Integer> m, Position<Entry<Coord<Integer, Integer>, Integer>> p,
+                          List<Entry<Coord<Integer, Integer>, Integer>> entries) {
+        if (p == null) return;
+        entries.add(p.getElement());
+        for (int q = MutableQuadTree.NW; q <= MutableQuadTree.SE; q++)
+            preorder(m, m.tree.child(p, q), entries);
+    }
+
+    @Test
+    public void testIterationIsPreorder() {
+        for (SpatialTreeMap<Integer, Integer, Integer> m : Arrays.asList(medium(), medium(arrayStored()))) {
+            List<Entry<Coord<Integer, Integer>, Integer>> expected = new ArrayList<>();
+            preorder(m, m.tree.root(), expected);
+            assertEquals(m.size(), expected.size());
+            Iterator<Entry<Coord<Integer, Integer>, Integer>> entries = m.entrySet().iterator();
+            Iterator<Coord<Integer, Integer>> keys = m.keySet().iterator();
+            Iterator<Integer> values = m.values().iterator();
+            for (Entry<Coord<Integer, Integer>, Integer> e : expected) {
+                assertSame(e, entries.next());
+                assertSame(e.getKey(), keys.next());
+                assertSame(e.getValue(), values.next());
+            }
+            assertFalse(entries.hasNext() || keys.hasNext() || values.hasNext());
+            try {
+                entries.next();
+                fail("next after the last entry");
+            } catch (java.util.NoSuchElementException ok) {
+            }
+        }
+        assertFalse(arrayStored().entrySet().iterator().hasNext());
+    }
+
     @Test
     public void testMediumGet() {
         SpatialTreeMap<Integer, Integer, Integer> m = medium();
@@ -69,4 +139,274 @@ public class SpatialTreeMapTest {
         assertEquals((int)12, (int)m.get(new Coord<>(1,1)));
     }
 
-}
\ No newline at end of file
+    private Set<Integer> values(Iterable<Entry<Coord<Integer, Integer>, Integer>> entries) {
+        Set<Integer> found = new HashSet<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : entries)
+            assertTrue("reported twice: " + e, found.add(e.getValue()));
+        return found;
+    }
+
+    @Test
+    public void testSmallSubMap() {
+        SpatialTreeMap<Integer, Integer, Integer> m = small();
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), values(m.subMap(new Coord<>(-3, 4), new Coord<>(3, 0))));
+        assertEquals(new HashSet<>(Arrays.asList(3, 4)), values(m.subMap(new Coord<>(-10, -1), new Coord<>(10, -10))));
+        assertEquals(7, values(m.subMap(new Coord<>(-100, 100), new Coord<>(100, -100))).size());
+        assertTrue(values(m.subMap(new Coord<>(1, 1), new Coord<>(2, -1))).isEmpty());
+        assertTrue(values(m.subMap(new Coord<>(3, 0), new Coord<>(-3, 4))).isEmpty());   // inverted
+    }
+
+    @Test
+    public void testRandomSubMap() {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 2000; n++)
+            m.put(new Coord<>(r.nextInt(500), r.nextInt(500)), n);
+        for (int q = 0; q < 50; q++) {
+            int x1 = r.nextInt(500), x2 = x1 + r.nextInt(150);
+            int y1 = r.nextInt(500), y2 = y1 + r.nextInt(150);
+            Set<Integer> expected = new HashSet<>();
+            for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet()) {
+                Coord<Integer, Integer> k = e.getKey();
+                if (k.getX() >= x1 && k.getX() <= x2 && k.getY() >= y1 && k.getY() <= y2)
+                    expected.add(e.getValue());
+            }
+            assertEquals(expected, values(m.subMap(new Coord<>(x1, y2), new Coord<>(x2, y1))));
+        }
+    }
+
+    @Test
+    public void testStreams() {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 5000; n++)
+            m.put(new Coord<>(r.nextInt(500), r.nextInt(500)), n);
+        assertEquals(values(m.entrySet()), m.stream().map(Entry::getValue).collect(java.util.stream.Collectors.toSet()));
+        assertEquals(m.size(), m.parallelStream().count());
+        assertEquals(values(m.entrySet()), m.parallelStream().map(Entry::getValue).collect(java.util.stream.Collectors.toSet()));
+        for (int q = 0; q < 20; q++) {
+            int x1 = r.nextInt(500), x2 = x1 + r.nextInt(250);
+            int y1 = r.nextInt(500), y2 = y1 + r.nextInt(250);
+            Set<Integer> expected = values(m.subMap(new Coord<>(x1, y2), new Coord<>(x2, y1)));
+            assertEquals(expected, m.stream(new Coord<>(x1, y2), new Coord<>(x2, y1))
+                    .map(Entry::getValue).collect(java.util.stream.Collectors.toSet()));
+            assertEquals(expected.size(), m.parallelStream(new Coord<>(x1, y2), new Coord<>(x2, y1)).count());
+        }
+        assertEquals(0, new SpatialTreeMap<Integer, Integer, Integer>().parallelStream().count());
+    }
+
+    @Test
+    public void testSpliteratorSplitsEveryEntryOnce() {
+        SpatialTreeMap<Integer, Integer, Integer> m = medium();
+        java.util.Spliterator<Entry<Coord<Integer, Integer>, Integer>> all = m.stream().spliterator();
+        assertTrue(all.hasCharacteristics(java.util.Spliterator.SIZED));
+        assertEquals(20, all.getExactSizeIfKnown());
+        List<java.util.Spliterator<Entry<Coord<Integer, Integer>, Integer>>> parts = new ArrayList<>();
+        parts.add(all);
+        for (int i = 0; i < parts.size() && parts.size() < 64; i++) {   // split as far as possible
+            java.util.Spliterator<Entry<Coord<Integer, Integer>, Integer>> half;
+            while ((half = parts.get(i).trySplit()) != null)
+                parts.add(half);
+        }
+        assertTrue(parts.size() > 4);
+        List<Integer> seen = new ArrayList<>();
+        for (java.util.Spliterator<Entry<Coord<Integer, Integer>, Integer>> s : parts)
+            s.forEachRemaining(e -> seen.add(e.getValue()));
+        Collections.sort(seen);
+        List<Integer> expected = new ArrayList<>(values(m.entrySet()));
+        Collections.sort(expected);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    public void testBulkLoad() {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        for (int n = 0; n < 1000; n++)
+            m.put(new Coord<>(n, n % 37), n);                 // sorted input degrades put
+        SpatialTreeMap<Integer, Integer, Integer> b = SpatialTreeMap.bulkLoad(m.entrySet());
+        assertEquals(1000, b.size());
+        assertTrue(b.treeHeight() < m.treeHeight());
+        assertTrue(b.treeHeight() <= 10);                     // at most log2(n)
+        for (int n = 0; n < 1000; n++)
+            assertEquals((int) n, (int) b.get(new Coord<>(n, n % 37)));
+        assertEquals(null, b.get(new Coord<>(1, 2)));
+        b.put(new Coord<>(1, 2), -1);
+        assertEquals(1001, b.size());
+        assertEquals((int) -1, (int) b.get(new Coord<>(1, 2)));
+    }
+
+    @Test
+    public void testBulkLoadDuplicates() {
+        List<Entry<Coord<Integer, Integer>, Integer>> entries = new ArrayList<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : small().entrySet())
+            entries.add(e);
+        for (Entry<Coord<Integer, Integer>, Integer> e : small().entrySet())
+            entries.add(new AbstractMap.MapEntry<>(e.getKey(), e.getValue() + 10));
+        SpatialTreeMap<Integer, Integer, Integer> b = SpatialTreeMap.bulkLoad(entries);
+        assertEquals(7, b.size());
+        assertEquals((int) 13, (int) b.get(new Coord<>(-5, -6)));   // last one wins
+        assertEquals((int) 16, (int) b.get(new Coord<>(7, 7)));
+        assertEquals(0, SpatialTreeMap.bulkLoad(new ArrayList<Entry<Coord<Integer, Integer>, Integer>>()).size());
+    }
+
+    @Test
+    public void testParallelBulkLoad() {
+        List<Entry<Coord<Integer, Integer>, Integer>> entries = new ArrayList<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 50000; n++)                       // large enough to fork tasks
+            entries.add(new AbstractMap.MapEntry<>(new Coord<>(r.nextInt(300), r.nextInt(300)), n));
+        SpatialTreeMap<Integer, Integer, Integer> b = SpatialTreeMap.bulkLoad(entries);
+        SpatialTreeMap<Integer, Integer, Integer> p = SpatialTreeMap.parallelBulkLoad(entries,
+                new DefaultComparator<Integer>(), new DefaultComparator<Integer>(), new java.util.concurrent.ForkJoinPool(4));
+        assertEquals(b.size(), p.size());
+        assertEquals(b.treeHeight(), p.treeHeight());
+        Iterator<Entry<Coord<Integer, Integer>, Integer>> walk = p.entrySet().iterator();
+        for (Entry<Coord<Integer, Integer>, Integer> e : b.entrySet()) {   // the very same tree
+            Entry<Coord<Integer, Integer>, Integer> f = walk.next();
+            assertEquals(e.getKey(), f.getKey());
+            assertEquals(e.getValue(), f.getValue());
+        }
+        assertEquals(0, SpatialTreeMap.parallelBulkLoad(new ArrayList<Entry<Coord<Integer, Integer>, Integer>>()).size());
+    }
+
+    @Test
+    public void testArrayStorage() {
+        SpatialTreeMap<Integer, Integer, Integer> linked = medium();
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>(
+                new DefaultComparator<Integer>(), new DefaultComparator<Integer>(), new ArrayQuadTree<Entry<Coord<Integer, Integer>, Integer>>());
+        Random r = new Random(2230); // same data as medium()
+        for (int n=0; n<20; n++)
+            m.put(new Coord<>(r.nextInt(25), r.nextInt(25)), n);
+        assertEquals(linked.size(), m.size());
+        assertEquals(linked.treeHeight(), m.treeHeight());
+        assertEquals((int)18, (int)m.get(new Coord<>(10, 15)));
+        assertEquals(null, m.get(new Coord<>(0,2)));
+        assertEquals(values(linked.subMap(new Coord<>(0, 20), new Coord<>(12, 5))),
+                     values(m.subMap(new Coord<>(0, 20), new Coord<>(12, 5))));
+        assertEquals(values(linked.entrySet()), values(m.entrySet()));
+    }
+
+    private void checkRemove(SpatialTreeMap<Integer, Integer, Integer> m) {
+        java.util.Map<Coord<Integer, Integer>, Integer> reference = new HashMap<>();   // not our Map
+        Random r = new Random(2230);
+        for (int n = 0; n < 3000; n++) {
+            Coord<Integer, Integer> k = new Coord<>(r.nextInt(60), r.nextInt(60));
+            if (r.nextInt(3) == 0)
+                assertEquals(reference.remove(k), m.remove(k));
+            else
+                assertEquals(reference.put(k, n), m.put(k, n));
+            assertEquals(reference.size(), m.size());
+        }
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet())
+            assertEquals(reference.get(e.getKey()), e.getValue());
+        for (Coord<Integer, Integer> k : new ArrayList<>(reference.keySet()))
+            assertEquals(reference.remove(k), m.remove(k));
+        assertTrue(m.isEmpty());
+        assertEquals(0, m.treeHeight());
+    }
+
+    @Test
+    public void testRemove() {
+        SpatialTreeMap<Integer, Integer, Integer> m = small();
+        assertEquals(null, m.remove(new Coord<>(1, 1)));
+        assertEquals((int) 0, (int) m.remove(new Coord<>(0, 0)));   // the root
+        assertEquals(6, m.size());
+        assertEquals(null, m.get(new Coord<>(0, 0)));
+        assertEquals((int) 6, (int) m.get(new Coord<>(7, 7)));
+        assertEquals((int) 3, (int) m.get(new Coord<>(-5, -6)));
+        checkRemove(new SpatialTreeMap<Integer, Integer, Integer>());
+    }
+
+    @Test
+    public void testRemoveArrayStorage() {
+        checkRemove(new SpatialTreeMap<>(new DefaultComparator<Integer>(), new DefaultComparator<Integer>(),
+                new ArrayQuadTree<Entry<Coord<Integer, Integer>, Integer>>()));
+    }
+
+    @Test
+    public void testNearest() {
+        SpatialTreeMap<Integer, Integer, Integer> m = small();
+        EuclideanDistance<Integer, Integer> d = new EuclideanDistance<>();
+        List<Integer> found = new ArrayList<>();
+        for (Entry<Coord<Integer, Integer>, Integer> e : m.nearest(new Coord<>(6, 6), 3, d))
+            found.add(e.getValue());
+        assertEquals(Arrays.asList(6, 2, 5), found);
+        assertFalse(m.nearest(new Coord<>(6, 6), 0, d).iterator().hasNext());
+        assertEquals(7, values(m.nearest(new Coord<>(6, 6), 50, d)).size());
+    }
+
+    @Test
+    public void testRandomNearest() {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int n = 0; n < 2000; n++)
+            m.put(new Coord<>(r.nextInt(1000), r.nextInt(1000)), n);
+        EuclideanDistance<Integer, Integer> d = new EuclideanDistance<>();
+        for (int q = 0; q < 50; q++) {
+            Coord<Integer, Integer> key = new Coord<>(r.nextInt(1200) - 100, r.nextInt(1200) - 100);
+            List<Double> expected = new ArrayList<>();
+            for (Entry<Coord<Integer, Integer>, Integer> e : m.entrySet())
+                expected.add(d.distance(key, e.getKey()));
+            Collections.sort(expected);
+            List<Double> found = new ArrayList<>();
+            for (Entry<Coord<Integer, Integer>, Integer> e : m.nearest(key, 10, d))
+                found.add(d.distance(key, e.getKey()));
+            assertEquals(expected.subList(0, 10), found);
+        }
+    }
+
+    @Test
+    public void testHaversineNearest() {
+        SpatialTreeMap<Double, Double, String> m = new SpatialTreeMap<>();
+        m.put(new Coord<>(-0.13, 51.51), "London");
+        m.put(new Coord<>(2.35, 48.86), "Paris");
+        m.put(new Coord<>(-74.01, 40.71), "New York");
+        m.put(new Coord<>(139.69, 35.69), "Tokyo");
+        m.put(new Coord<>(174.76, -36.85), "Auckland");
+        // near the antimeridian, Auckland is closer than Tokyo despite the longitudes
+        Iterator<Entry<Coord<Double, Double>, String>> it = m.nearest(new Coord<>(-178.0, -20.0), 2, new HaversineDistance()).iterator();
+        assertEquals("Auckland", it.next().getValue());
+        assertEquals("Tokyo", it.next().getValue());
+        assertEquals(343.5, new HaversineDistance().distance(new Coord<>(-0.13, 51.51), new Coord<>(2.35, 48.86)), 1.0);
+    }
+
+    @Test
+    public void testSortedKeysDoNotOverflowTheStack() {
+        SpatialTreeMap<Integer, Integer, Integer> m = new SpatialTreeMap<>();
+        int n = 20000;
+        for (int i = 0; i < n; i++)
+            assertNull(m.put(new Coord<>(i, i), i));        // a chain of NE children, n levels deep
+        assertEquals(n, m.size());
+        assertEquals(n, m.treeHeight());
+        for (int i = 0; i < n; i += 97)
+            assertEquals((int) i, (int) m.get(new Coord<>(i, i)));
+        assertEquals((int) (n - 1), (int) m.get(new Coord<>(n - 1, n - 1)));   // the deepest node
+        assertNull(m.get(new Coord<>(n, n)));              // a miss below the deepest node
+        assertEquals((int) (n - 1), (int) m.put(new Coord<>(n - 1, n - 1), -1));
+        assertEquals((int) -1, (int) m.remove(new Coord<>(n - 1, n - 1)));
+        assertEquals(n - 1, m.size());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testIncompatibleKeyOnNonEmptyMap() {
+        Map raw = small();                                  // only the comparison with (0,0) fails
+        Coord<String, String> bad = new Coord<>("a", "b");
+        try {
+            raw.get(bad);
+            fail("get accepted an incompatible key");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            raw.put(bad, 7);
+            fail("put accepted an incompatible key");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            raw.remove(bad);
+            fail("remove accepted an incompatible key");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(7, raw.size());
+    }
+}
@@ -0,0 +1,71 @@
+package net.datastructures;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialTreeSnapshotTest {
+
+    private SpatialTreeMap<Double, Double, Integer> random(int n) {
+        SpatialTreeMap<Double, Double, Integer> m = new SpatialTreeMap<>();
+        Random r = new Random(2230);
+        for (int i = 0; i < n; i++)
+            m.put(new Coord<>(r.nextInt(1000) / 4.0, r.nextInt(1000) / 4.0), i);
+        return m;
+    }
+
+    private byte[] save(SpatialTreeMap<Double, Double, Integer> m) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpatialTreeSnapshot.write(m, out, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.INTEGER);
+        return out.toByteArray();
+    }
+
+    private SpatialTreeMap<Double, Double, Integer> restore(byte[] image) throws IOException {
+        return SpatialTreeSnapshot.read(new ByteArrayInputStream(image),
+                SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.DOUBLE, SpatialTreeSnapshot.INTEGER);
+    }
+
+    @Test
+    public void testRoundTripKeepsShape() throws IOException {
+        SpatialTreeMap<Double, Double, Integer> m = random(3000);
+        byte[] image = save(m);
+        assertEquals(12 + m.size() * 21 + 8, image.length);   // header, nodes, checksum
+        SpatialTreeMap<Double, Double, Integer> copy = restore(image);
+        assertEquals(m.size(), copy.size());
+        assertEquals(m.treeHeight(), copy.treeHeight());
+        Iterator<Entry<Coord<Double, Double>, Integer>> walk = copy.entrySet().iterator();
+        for (Entry<Coord<Double, Double>, Integer> e : m.entrySet()) {   // the same preorder
+            Entry<Coord<Double, Double>, Integer> f = walk.next();
+            assertEquals(e.getKey(), f.getKey());
+            assertEquals(e.getValue(), f.getValue());
+        }
+        assertFalse(walk.hasNext());
+        copy.put(new Coord<>(-1.0, -1.0), -1);                // a restored map is a normal map
+        assertEquals((int) -1, (int) copy.get(new Coord<>(-1.0, -1.0)));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertTrue(restore(save(new SpatialTreeMap<Double, Double, Integer>())).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptionIsDetected() throws IOException {
+        byte[] image = save(random(100));
+        image[500] ^= 0x10;                                  // flip a bit in some coordinate
+        restore(image);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionIsRejected() throws IOException {
+        byte[] image = save(random(10));
+        image[7] = 2;                                        // the low byte of the version
+        restore(image);
+    }
+}